@@ -0,0 +1,96 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Bucket#consume()} from 1 to 64 threads, for a bucket that always has tokens and for an exhausted one,
+ * which is the case of a jwks url under a flood of unknown kids. The lock-free {@link BucketImpl} is compared to
+ * the synchronized one of the previous release, see {@link SynchronizedBucket}.
+ * <br><br> Both refill a token per millisecond, the smallest rate the synchronized bucket supports. The available
+ * bucket is created again for each iteration with {@link Integer#MAX_VALUE} tokens, more than an iteration takes.
+ */
+@State(Scope.Benchmark)
+public class BucketBenchmark {
+
+    @Param({"lock-free", "synchronized"})
+    String implementation;
+
+    @Param({"available", "exhausted"})
+    String state;
+
+    private Bucket bucket;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        final long size = "available".equals(state) ? Integer.MAX_VALUE : 10;
+        final long rate = "available".equals(state) ? 1 : TimeUnit.MINUTES.toMillis(1);
+        bucket = "lock-free".equals(implementation)
+                ? new BucketImpl(size, rate, TimeUnit.MILLISECONDS)
+                : new SynchronizedBucket(size, rate, TimeUnit.MILLISECONDS);
+        if ("exhausted".equals(state)) {
+            while (bucket.consume()) {
+                // drained, every call of the benchmark is rejected
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean consume1() {
+        return bucket.consume();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean consume8() {
+        return bucket.consume();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public boolean consume16() {
+        return bucket.consume();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public boolean consume32() {
+        return bucket.consume();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public boolean consume64() {
+        return bucket.consume();
+    }
+}
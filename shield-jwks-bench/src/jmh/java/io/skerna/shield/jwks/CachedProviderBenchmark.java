@@ -0,0 +1,113 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.base.Ticker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hit path of {@link GuavaCachedJwkProvider#get(String)} from 1 to 64 threads, for the plain cache and for
+ * the cache with stale windows, against {@link CaffeineCachedJwkProvider#get(String)}.
+ * <br><br> In the stale mode the ticker is moved past the fresh window once the keys are cached, and the reloads
+ * are dropped as if they were still running, so every call takes the stale path.
+ */
+@State(Scope.Benchmark)
+public class CachedProviderBenchmark {
+
+    private static final String[] KIDS = {JwksDocuments.kid(0), JwksDocuments.kid(1), JwksDocuments.kid(2), JwksDocuments.kid(3)};
+
+    @Param({"expire", "stale", "caffeine"})
+    String mode;
+
+    private JwkProvider provider;
+
+    @Setup
+    public void setUp() throws JwkException {
+        final Map<String, Jwk> jwks = new HashMap<>();
+        for (String kid : KIDS) {
+            final Map<String, Object> values = new HashMap<>();
+            values.put("kid", kid);
+            values.put("kty", "RSA");
+            jwks.put(kid, Jwk.fromValues(values));
+        }
+        final JwkProvider base = jwks::get;
+        final FixedTicker ticker = new FixedTicker();
+        if ("stale".equals(mode)) {
+            provider = new GuavaCachedJwkProvider(base, KIDS.length, 1, 5, 60, TimeUnit.MINUTES, command -> { }, ticker, JwksMetrics.NOOP);
+        } else if ("caffeine".equals(mode)) {
+            provider = new CaffeineCachedJwkProvider(base, KIDS.length, 1, TimeUnit.HOURS, Runnable::run);
+        } else {
+            provider = new GuavaCachedJwkProvider(base, KIDS.length, 1, TimeUnit.HOURS);
+        }
+        for (String kid : KIDS) {
+            provider.get(kid);
+        }
+        ticker.nanos = TimeUnit.MINUTES.toNanos(2);
+    }
+
+    private static class FixedTicker extends Ticker {
+        volatile long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+        private int next;
+
+        String kid() {
+            next = (next + 1) % KIDS.length;
+            return KIDS[next];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Jwk hit1(Caller caller) throws JwkException {
+        return provider.get(caller.kid());
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Jwk hit8(Caller caller) throws JwkException {
+        return provider.get(caller.kid());
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Jwk hit64(Caller caller) throws JwkException {
+        return provider.get(caller.kid());
+    }
+}
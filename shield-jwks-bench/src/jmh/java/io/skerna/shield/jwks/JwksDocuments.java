@@ -0,0 +1,109 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Builds jwks documents shaped like the ones published by identity providers, RSA 2048 signing keys with
+ * optionally a certificate chain of the size of a typical self signed certificate.
+ */
+final class JwksDocuments {
+
+    /**
+     * Size of the DER encoding of a self signed certificate for an RSA 2048 key
+     */
+    private static final int CERTIFICATE_BYTES = 1100;
+    /**
+     * Distinct key pairs, reused across kids since generating hundreds of RSA keys would dominate the setup
+     */
+    private static final int KEY_PAIRS = 4;
+
+    private JwksDocuments() {
+    }
+
+    static String jwks(int keys, boolean x5c) {
+        final RSAPublicKey[] publicKeys = rsaKeys();
+        final Random random = new Random(keys);
+        final StringBuilder json = new StringBuilder(keys * (x5c ? 2000 : 500)).append("{\"keys\":[");
+        for (int i = 0; i < keys; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(rsaJwk(kid(i), publicKeys[i % publicKeys.length], x5c ? random : null));
+        }
+        return json.append("]}").toString();
+    }
+
+    static String kid(int index) {
+        return "key-" + index;
+    }
+
+    static String rsaJwk(String kid, RSAPublicKey key, Random certificate) {
+        final StringBuilder json = new StringBuilder()
+                .append("{\"kid\":\"").append(kid).append('"')
+                .append(",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\"")
+                .append(",\"n\":\"").append(base64Url(key.getModulus())).append('"')
+                .append(",\"e\":\"").append(base64Url(key.getPublicExponent())).append('"');
+        if (certificate != null) {
+            final byte[] der = new byte[CERTIFICATE_BYTES];
+            certificate.nextBytes(der);
+            final byte[] thumbprint = new byte[20];
+            certificate.nextBytes(thumbprint);
+            json.append(",\"x5c\":[\"").append(Base64.getEncoder().encodeToString(der)).append("\"]")
+                    .append(",\"x5t\":\"").append(Base64.getUrlEncoder().withoutPadding().encodeToString(thumbprint)).append('"');
+        }
+        return json.append('}').toString();
+    }
+
+    static RSAPublicKey[] rsaKeys() {
+        final RSAPublicKey[] keys = new RSAPublicKey[KEY_PAIRS];
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            for (int i = 0; i < keys.length; i++) {
+                final KeyPair pair = generator.generateKeyPair();
+                keys[i] = (RSAPublicKey) pair.getPublic();
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        return keys;
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            final byte[] unsigned = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+            bytes = unsigned;
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
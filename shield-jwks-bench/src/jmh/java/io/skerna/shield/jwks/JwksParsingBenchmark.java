@@ -0,0 +1,83 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turning a jwks document into {@link Jwk}s, with the org.json tree and {@link Utils#toMap} used before, with the
+ * streaming {@link JwksParser} used now, and the {@link Jwk#fromValues(Map)} step alone.
+ */
+@State(Scope.Benchmark)
+public class JwksParsingBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    int keys;
+
+    @Param({"false", "true"})
+    boolean x5c;
+
+    private String document;
+    private List<Map<String, Object>> values;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        document = JwksDocuments.jwks(keys, x5c);
+        values = new ArrayList<>();
+        for (Object key : (List<Object>) Utils.toMap(new JSONObject(document)).get("keys")) {
+            values.add((Map<String, Object>) key);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> utilsToMap() {
+        return Utils.toMap(new JSONObject(document));
+    }
+
+    @Benchmark
+    public List<Jwk> streamingParser() throws IOException {
+        try (JwksParser parser = new JwksParser(new StringReader(document))) {
+            return parser.readJwks();
+        }
+    }
+
+    @Benchmark
+    public void fromValues(Blackhole blackhole) {
+        for (Map<String, Object> key : values) {
+            blackhole.consume(Jwk.fromValues(key));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The providers built by {@link JwkProviderBuilder} against a jwks served by an in-process http server: a cached
+ * key through the default chain, a key loaded from the url on every call, and a conditional revalidation.
+ */
+@State(Scope.Benchmark)
+public class ProviderChainBenchmark {
+
+    private static final int KEYS = 10;
+    private static final String ETAG = "\"v1\"";
+    private static final String KID = JwksDocuments.kid(KEYS - 1);
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private JwkProvider cached;
+    private UrlJwkProvider loaded;
+    private UrlJwkProvider revalidated;
+
+    @Setup
+    public void setUp() throws IOException, JwkException {
+        final byte[] body = JwksDocuments.jwks(KEYS, true).getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/.well-known/jwks.json", exchange -> {
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        // the same jwks without validators, so that every refresh downloads and parses it
+        server.createContext("/plain/jwks.json", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            exchange.close();
+        });
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+        final String base = "http://localhost:" + server.getAddress().getPort();
+        final URL url = new URL(base + "/.well-known/jwks.json");
+
+        cached = new JwkProviderBuilder(url).build();
+        cached.get(KID);
+        revalidated = (UrlJwkProvider) new JwkProviderBuilder(url).cached(false).rateLimited(false).build();
+        revalidated.get(KID);
+        loaded = new UrlJwkProvider(new URL(base + "/plain/jwks.json"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Jwk cachedGet() throws JwkException {
+        return cached.get(KID);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Jwk cachedGet8() throws JwkException {
+        return cached.get(KID);
+    }
+
+    @Benchmark
+    public Jwk loadedGet() throws JwkException {
+        return loaded.refresh().get(KID);
+    }
+
+    @Benchmark
+    public JwkSet notModified() throws JwkException {
+        return revalidated.refresh();
+    }
+}
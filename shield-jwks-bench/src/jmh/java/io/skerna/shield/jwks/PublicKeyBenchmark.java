@@ -0,0 +1,91 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link Jwk#getPublicKey()} for a jwk whose key has already been built, and for a new jwk each time, which is
+ * the cost paid once per key after every jwks load.
+ */
+@State(Scope.Benchmark)
+public class PublicKeyBenchmark {
+
+    @Param({"RSA", "EC"})
+    String type;
+
+    private Map<String, Object> values;
+    private Jwk memoized;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("RSA".equals(type)) {
+            values = Utils.toMap(new JSONObject(JwksDocuments.rsaJwk("rsa", JwksDocuments.rsaKeys()[0], null)));
+        } else {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            final ECPublicKey key = (ECPublicKey) generator.generateKeyPair().getPublic();
+            values = new HashMap<>();
+            values.put("kid", "ec");
+            values.put("kty", "EC");
+            values.put("alg", "ES256");
+            values.put("crv", "P-256");
+            values.put("x", coordinate(key.getW().getAffineX()));
+            values.put("y", coordinate(key.getW().getAffineY()));
+        }
+        memoized = Jwk.fromValues(values);
+        memoized.getPublicKey();
+    }
+
+    private static String coordinate(BigInteger value) {
+        final byte[] bytes = value.toByteArray();
+        final byte[] padded = new byte[32];
+        final int length = Math.min(bytes.length, padded.length);
+        System.arraycopy(bytes, bytes.length - length, padded, padded.length - length, length);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(padded);
+    }
+
+    @Benchmark
+    public PublicKey memoized() throws InvalidPublicKeyException {
+        return memoized.getPublicKey();
+    }
+
+    @Benchmark
+    public PublicKey fromValues() throws InvalidPublicKeyException {
+        return Jwk.fromValues(values).getPublicKey();
+    }
+}
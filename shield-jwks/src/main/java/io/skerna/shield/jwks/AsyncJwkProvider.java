@@ -0,0 +1,48 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Provider of Jwk that doesn't block the caller.
+ * <br><br> A jwk that is already available is returned as a completed future, in the calling thread. Only loading
+ * the jwks runs elsewhere.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface AsyncJwkProvider extends JwkProvider {
+    /**
+     * Returns a jwk using the kid value
+     * @param keyId value of kid found in JWT
+     * @return a future of the jwk, completed exceptionally with a {@link JwkException} if no jwk can be found
+     */
+    CompletableFuture<Jwk> getAsync(String keyId);
+
+    /**
+     * Counterpart of {@link #getIfPresent(String)} that never waits: the future completes with the jwk if it can be
+     * obtained without starting a new request for the jwks, or with null otherwise.
+     * @param keyId value of kid found in JWT
+     * @return a future of the jwk or of null, never completed exceptionally
+     */
+    CompletableFuture<Jwk> getIfPresentAsync(String keyId);
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Helpers for the {@link AsyncJwkProvider} implementations, to chain base providers that may only be blocking.
+ */
+final class AsyncSupport {
+
+    private AsyncSupport() {
+    }
+
+    /**
+     * Gets a jwk asynchronously from the provider, or in the calling thread if it has no asynchronous support.
+     */
+    static CompletableFuture<Jwk> getAsync(JwkProvider provider, String keyId) {
+        if (provider instanceof AsyncJwkProvider) {
+            return ((AsyncJwkProvider) provider).getAsync(keyId);
+        }
+        try {
+            return CompletableFuture.completedFuture(provider.get(keyId));
+        } catch (JwkException | RuntimeException e) {
+            return failed(e);
+        }
+    }
+
+    static CompletableFuture<Jwk> getIfPresentAsync(JwkProvider provider, String keyId) {
+        if (provider instanceof AsyncJwkProvider) {
+            return ((AsyncJwkProvider) provider).getIfPresentAsync(keyId);
+        }
+        return CompletableFuture.completedFuture(provider.getIfPresent(keyId));
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable e) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * Returns the exception a future was completed with, without the {@link CompletionException} added by stages.
+     */
+    static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+}
@@ -22,30 +22,33 @@
 
 package io.skerna.shield.jwks;
 
-import com.google.common.base.Stopwatch;
+import com.google.common.math.LongMath;
 
+import java.math.RoundingMode;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Token Bucket implementation to guarantee availability of a fixed amount of tokens in a given time rate.
+ * <br><br> The bucket is lock-free. Its whole state is the instant, on the {@link System#nanoTime()} clock, at which
+ * the bucket was (or will be) empty: the tokens available now are the ones refilled since then, at most the bucket
+ * size. Consuming moves that instant forward with a compare-and-set, which also carries the time elapsed towards
+ * the next token.
  */
 class BucketImpl implements Bucket {
 
-    private final Stopwatch stopwatch;
     private final long size;
-    private final long rate;
-    private final TimeUnit rateUnit;
-    private long available;
-    private long accumDelta;
+    private final long nanosPerToken;
+    private final long fullNanos;
+    private final AtomicLong emptyAt;
 
     BucketImpl(long size, long rate, TimeUnit rateUnit) {
         assertPositiveValue(size, "Invalid bucket size.");
         assertPositiveValue(rate, "Invalid bucket refill rate.");
-        this.stopwatch = Stopwatch.createStarted();
         this.size = size;
-        this.available = size;
-        this.rate = rate;
-        this.rateUnit = rateUnit;
+        this.nanosPerToken = rateUnit.toNanos(rate);
+        this.fullNanos = LongMath.saturatedMultiply(nanosPerToken, size);
+        this.emptyAt = new AtomicLong(System.nanoTime() - fullNanos);
     }
 
     private void assertPositiveValue(long value, long maxValue, String exceptionMessage) {
@@ -58,75 +61,66 @@ class BucketImpl implements Bucket {
         this.assertPositiveValue(value.intValue(), value.intValue(), exceptionMessage);
     }
 
+    private void assertValidCount(long count) {
+        // the message is only formatted on failure, this runs on every call
+        if (count < 1 || count > size) {
+            throw new IllegalArgumentException(String.format("Cannot consume %d tokens when the BucketImpl size is %d!", count, size));
+        }
+    }
+
     @Override
-    public synchronized long willLeakIn() {
+    public long willLeakIn() {
         return willLeakIn(1);
     }
 
     @Override
-    public synchronized long willLeakIn(long count) {
-        assertPositiveValue(count, size, String.format("Cannot consume %d tokens when the BucketImpl size is %d!", count, size));
-        updateAvailableTokens();
-        if (available >= count) {
+    public long willLeakIn(long count) {
+        assertValidCount(count);
+        final long now = System.nanoTime();
+        final long waitNanos = emptyAt(now) + nanosPerToken * count - now;
+        if (waitNanos <= 0) {
             return 0;
         }
-
-        long leakDelta = getTimeSinceLastTokenAddition();
-        if (leakDelta < getRatePerToken()) {
-            leakDelta = getRatePerToken() - leakDelta;
-        }
-        final long remaining = count - available - 1;
-        if (remaining > 0) {
-            leakDelta += getRatePerToken() * remaining;
-        }
-        return leakDelta;
+        return LongMath.divide(waitNanos, TimeUnit.MILLISECONDS.toNanos(1), RoundingMode.CEILING);
     }
 
     @Override
-    public synchronized boolean consume() {
+    public boolean consume() {
         return consume(1);
     }
 
     @Override
-    public synchronized boolean consume(long count) {
-        assertPositiveValue(count, size, String.format("Cannot consume %d tokens when the BucketImpl size is %d!", count, size));
-        updateAvailableTokens();
-
-        if (count <= available) {
-            available -= count;
-            return true;
+    public boolean consume(long count) {
+        assertValidCount(count);
+        final long cost = nanosPerToken * count;
+        while (true) {
+            final long now = System.nanoTime();
+            final long current = emptyAt.get();
+            final long refilledFrom = Math.max(current, now - fullNanos);
+            if (now - refilledFrom < cost) {
+                return false;
+            }
+            if (emptyAt.compareAndSet(current, refilledFrom + cost)) {
+                return true;
+            }
         }
-        return false;
-    }
-
-    private void updateAvailableTokens() {
-        final long ratePerToken = getRatePerToken();
-        final long elapsed = getTimeSinceLastTokenAddition();
-        if (elapsed < ratePerToken) {
-            return;
-        }
-
-        accumDelta = elapsed % ratePerToken;
-        long count = elapsed / ratePerToken;
-        if (count > size - available) {
-            count = size - available;
-        }
-        if (count > 0) {
-            available += count;
-        }
-        restartStopWatch();
-    }
-
-    private void restartStopWatch() {
-        stopwatch.reset();
-        stopwatch.start();
     }
 
-    private long getTimeSinceLastTokenAddition() {
-        return stopwatch.elapsed(TimeUnit.MILLISECONDS) + accumDelta;
+    /**
+     * Gives back tokens that were consumed for a request that was not made after all. The bucket never holds more
+     * than its size, the tokens given back to a bucket that refilled meanwhile are lost.
+     *
+     * @param count the amount of tokens to give back
+     */
+    void refund(long count) {
+        assertValidCount(count);
+        emptyAt.addAndGet(-nanosPerToken * count);
     }
 
-    private long getRatePerToken() {
-        return rateUnit.toMillis(rate);
+    /**
+     * Returns the instant at which the bucket was empty, ignoring the time a full bucket spent without refilling.
+     */
+    private long emptyAt(long now) {
+        return Math.max(emptyAt.get(), now - fullNanos);
     }
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.StatsCounter;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jwk provider that caches previously obtained Jwk in memory using a Caffeine cache.
+ * <br><br> Compared to {@link GuavaCachedJwkProvider} the jwks are loaded on the given executor, concurrent callers
+ * of a kid that is being loaded wait for the same load, reads take no lock, and once the cache is full its
+ * W-TinyLFU policy keeps the kids that are requested often instead of the ones requested last, which suits
+ * many issuers with keys of very different traffic.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CaffeineCachedJwkProvider implements AsyncJwkProvider {
+
+    private final AsyncLoadingCache<String, Jwk> cache;
+    private final JwkProvider provider;
+
+    /**
+     * Creates a new cached provider specifying cache size and ttl
+     * @param provider fallback provider to use when jwk is not cached
+     * @param size number of jwt to cache
+     * @param expiresIn amount of time a jwk will live in the cache
+     * @param unit unit of the expiresIn parameter
+     * @param executor executor where the jwks are loaded
+     */
+    public CaffeineCachedJwkProvider(final JwkProvider provider, long size, long expiresIn, TimeUnit unit, Executor executor) {
+        this(provider, size, 0, expiresIn, unit, executor, JwksMetrics.NOOP);
+    }
+
+    /**
+     * Creates a new cached provider that refreshes its jwks ahead of expiry.
+     * <br><br> Once a jwk is older than refreshIn the next request still gets the cached jwk while it is
+     * reloaded on the given executor. If reloading keeps failing the jwk is served until it is older than
+     * maxStale, then it expires.
+     * @param provider fallback provider to use when jwk is not cached
+     * @param size number of jwt to cache
+     * @param refreshIn amount of time after which a cached jwk is reloaded in the background
+     * @param maxStale amount of time a jwk will live in the cache, must be greater than refreshIn
+     * @param unit unit of the refreshIn and maxStale parameters
+     * @param executor executor where the jwks are loaded and reloaded
+     */
+    public CaffeineCachedJwkProvider(final JwkProvider provider, long size, long refreshIn, long maxStale, TimeUnit unit, Executor executor) {
+        this(provider, size, checkRefresh(refreshIn), maxStale, unit, executor, JwksMetrics.NOOP);
+    }
+
+    private static long checkRefresh(long refreshIn) {
+        Preconditions.checkArgument(refreshIn > 0, "Invalid refresh value '" + refreshIn + "'. Must be a positive number.");
+        return refreshIn;
+    }
+
+    /**
+     * @param refreshIn amount of time after which a cached jwk is reloaded in the background, 0 to never reload it
+     * @param metrics receives the cache hits and misses
+     */
+    CaffeineCachedJwkProvider(final JwkProvider provider, long size, long refreshIn, long expiresIn, TimeUnit unit, Executor executor, JwksMetrics metrics) {
+        this(provider, size, refreshIn, expiresIn, unit, executor, Ticker.systemTicker(), metrics);
+    }
+
+    /**
+     * @param ticker source of the time used for the expiry and the refreshes
+     */
+    CaffeineCachedJwkProvider(final JwkProvider provider, long size, long refreshIn, long expiresIn, TimeUnit unit, Executor executor, Ticker ticker, JwksMetrics metrics) {
+        Preconditions.checkArgument(size > 0, "Invalid size value '" + size + "'. Must be a positive number.");
+        Preconditions.checkArgument(expiresIn > 0, "Invalid expire value '" + expiresIn + "'. Must be a positive number.");
+        Preconditions.checkArgument(expiresIn > refreshIn, "Invalid max stale value '" + expiresIn + "'. Must be greater than the refresh value.");
+        Preconditions.checkArgument(executor != null, "A non-null executor is required");
+        this.provider = provider;
+        final Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(expiresIn, unit)
+                .ticker(ticker)
+                .executor(executor);
+        if (refreshIn > 0) {
+            builder.refreshAfterWrite(refreshIn, unit);
+        }
+        if (metrics != JwksMetrics.NOOP) {
+            builder.recordStats(() -> new MetricsStatsCounter(metrics));
+        }
+        this.cache = builder.buildAsync(new CacheLoader<String, Jwk>() {
+            @Override
+            public Jwk load(String keyId) throws Exception {
+                return provider.get(keyId);
+            }
+        });
+    }
+
+    @Override
+    public Jwk get(String keyId) throws JwkException {
+        try {
+            return cache.get(keyId).get();
+        } catch (ExecutionException e) {
+            throw new SigningKeyNotFoundException("Failed to get key with kid " + keyId, AsyncSupport.unwrap(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SigningKeyNotFoundException("Interrupted while getting key with kid " + keyId, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getAsync(final String keyId) {
+        final CompletableFuture<Jwk> result = new CompletableFuture<>();
+        cache.get(keyId).whenComplete((jwk, e) -> {
+            if (e == null) {
+                result.complete(jwk);
+            } else {
+                result.completeExceptionally(new SigningKeyNotFoundException("Failed to get key with kid " + keyId, AsyncSupport.unwrap(e)));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public Jwk getIfPresent(String keyId) {
+        final Jwk jwk = loaded(keyId);
+        return jwk != null ? jwk : provider.getIfPresent(keyId);
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getIfPresentAsync(String keyId) {
+        final Jwk jwk = loaded(keyId);
+        return jwk != null ? CompletableFuture.completedFuture(jwk) : AsyncSupport.getIfPresentAsync(provider, keyId);
+    }
+
+    /**
+     * @return the cached jwk, or null if it is absent, still being loaded or failed to load, never waiting for a load
+     */
+    private Jwk loaded(String keyId) {
+        final CompletableFuture<Jwk> future = cache.getIfPresent(keyId);
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return null;
+        }
+        return future.join();
+    }
+
+    @VisibleForTesting
+    JwkProvider getBaseProvider() {
+        return provider;
+    }
+
+    /**
+     * Reports the hits and misses of the cache, the loads are reported by the base providers
+     */
+    private static final class MetricsStatsCounter implements StatsCounter {
+        private final JwksMetrics metrics;
+
+        MetricsStatsCounter(JwksMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void recordHits(int count) {
+            metrics.cacheHits(count);
+        }
+
+        @Override
+        public void recordMisses(int count) {
+            metrics.cacheMisses(count);
+        }
+
+        @Override
+        public void recordLoadSuccess(long loadTime) {
+        }
+
+        @Override
+        public void recordLoadFailure(long loadTime) {
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public void recordEviction() {
+        }
+
+        @Override
+        public CacheStats snapshot() {
+            return CacheStats.empty();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.base.Preconditions;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Keeps the last loaded jwks snapshot in a local file, so a provider can start with it before any request to the
+ * jwks url. The file is a jwks document with the fetch time and HTTP validators of the snapshot as extra members.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileJwkSetStore {
+
+    private final Path file;
+
+    /**
+     * Creates a store backed by the given file, it doesn't need to exist yet
+     * @param file where the snapshot is written
+     */
+    public FileJwkSetStore(Path file) {
+        Preconditions.checkArgument(file != null, "A non-null file is required");
+        this.file = file;
+    }
+
+    /**
+     * Reads the snapshot from the file
+     * @return the stored snapshot or null if there is none
+     * @throws IOException if the file exists but cannot be read or is not a valid snapshot
+     */
+    public JwkSet load() throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        List<Jwk> keys = null;
+        Long fetchedAt = null;
+        String etag = null;
+        String lastModified = null;
+        long maxAge = -1;
+        try (JwksParser parser = new JwksParser(Files.newInputStream(file))) {
+            if (parser.beginObject()) {
+                do {
+                    switch (parser.nextName()) {
+                        case "keys":
+                            keys = parser.readJwkArray();
+                            break;
+                        case "fetchedAt":
+                            fetchedAt = parser.nextLong();
+                            break;
+                        case "etag":
+                            etag = parser.nextStringOrNull();
+                            break;
+                        case "lastModified":
+                            lastModified = parser.nextStringOrNull();
+                            break;
+                        case "maxAge":
+                            maxAge = parser.nextLong();
+                            break;
+                        default:
+                            parser.nextValue(0);
+                    }
+                } while (parser.nextMember());
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid jwks snapshot in " + file, e);
+        }
+        if (keys == null || fetchedAt == null) {
+            throw new IOException("Invalid jwks snapshot in " + file);
+        }
+        return JwkSet.of(keys, fetchedAt, etag, lastModified, maxAge);
+    }
+
+    /**
+     * Writes the snapshot to the file, replacing the previous one atomically
+     * @param jwks snapshot to write
+     * @throws IOException if the file cannot be written
+     */
+    public void save(JwkSet jwks) throws IOException {
+        final JSONArray keys = new JSONArray();
+        for (Jwk jwk : jwks.getKeys()) {
+            keys.put(new JSONObject(jwk.toValues()));
+        }
+        final JSONObject document = new JSONObject()
+                .put("keys", keys)
+                .put("fetchedAt", jwks.getFetchedAt())
+                .put("etag", jwks.getEtag())
+                .put("lastModified", jwks.getLastModified())
+                .put("maxAge", jwks.getMaxAge());
+
+        final Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                document.write(writer);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+}
@@ -23,21 +23,33 @@
 package io.skerna.shield.jwks;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.Cache;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Jwk provider that caches previously obtained Jwk in memory using a Google Guava cache
  */
 @SuppressWarnings("WeakerAccess")
-public class GuavaCachedJwkProvider implements JwkProvider {
+public class GuavaCachedJwkProvider implements AsyncJwkProvider {
 
-    private final Cache<String, Jwk> cache;
+    private final LoadingCache<String, Entry> cache;
     private final JwkProvider provider;
+    private final Ticker ticker;
+    private final long freshNanos;
+    private final long staleWhileRevalidateNanos;
+    private final long staleIfErrorNanos;
+    private final Executor executor;
+    private final JwksMetrics metrics;
 
     /**
      * Creates a new provider that will cache up to 5 jwks for at most 10 hours
@@ -55,29 +67,267 @@ public class GuavaCachedJwkProvider implements JwkProvider {
      * @param expiresUnit unit of the expiresIn parameter
      */
     public GuavaCachedJwkProvider(final JwkProvider provider, long size, long expiresIn, TimeUnit expiresUnit) {
+        this(provider, size, expiresIn, expiresUnit, JwksMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics receives the cache hits and misses
+     */
+    GuavaCachedJwkProvider(final JwkProvider provider, long size, long expiresIn, TimeUnit expiresUnit, JwksMetrics metrics) {
         this.provider = provider;
+        this.metrics = metrics;
+        this.ticker = Ticker.systemTicker();
+        this.freshNanos = Long.MAX_VALUE;
+        this.staleWhileRevalidateNanos = 0;
+        this.staleIfErrorNanos = 0;
+        this.executor = null;
         this.cache = CacheBuilder.newBuilder()
                 .maximumSize(size)
                 .expireAfterWrite(expiresIn, expiresUnit)
-                .build();
+                .build(loader(provider, ticker));
+    }
+
+    /**
+     * Creates a new cached provider that refreshes its jwks ahead of expiry.
+     * <br><br> Once a jwk is older than refreshIn the next request still gets the cached jwk while it is
+     * reloaded on the given executor, so no caller waits for the fallback provider. If reloading keeps
+     * failing the jwk is served until it is older than maxStale, then it expires.
+     * @param provider fallback provider to use when jwk is not cached
+     * @param size number of jwt to cache
+     * @param refreshIn amount of time after which a cached jwk is reloaded in the background
+     * @param maxStale amount of time a jwk will live in the cache, must be greater than refreshIn
+     * @param unit unit of the refreshIn and maxStale parameters
+     * @param executor executor where the jwks are reloaded
+     */
+    public GuavaCachedJwkProvider(final JwkProvider provider, long size, long refreshIn, long maxStale, TimeUnit unit, Executor executor) {
+        this(provider, size, refreshIn, maxStale, unit, executor, JwksMetrics.NOOP);
+    }
+
+    /**
+     * @param metrics receives the cache hits and misses
+     */
+    GuavaCachedJwkProvider(final JwkProvider provider, long size, long refreshIn, long maxStale, TimeUnit unit, Executor executor, JwksMetrics metrics) {
+        Preconditions.checkArgument(refreshIn > 0, "Invalid refresh value '" + refreshIn + "'. Must be a positive number.");
+        Preconditions.checkArgument(maxStale > refreshIn, "Invalid max stale value '" + maxStale + "'. Must be greater than the refresh value.");
+        Preconditions.checkArgument(executor != null, "A non-null executor is required");
+        this.provider = provider;
+        this.metrics = metrics;
+        this.ticker = Ticker.systemTicker();
+        this.freshNanos = Long.MAX_VALUE;
+        this.staleWhileRevalidateNanos = 0;
+        this.staleIfErrorNanos = 0;
+        this.executor = null;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .refreshAfterWrite(refreshIn, unit)
+                .expireAfterWrite(maxStale, unit)
+                .build(CacheLoader.asyncReloading(loader(provider, ticker), executor));
+    }
+
+    /**
+     * Creates a new cached provider that keeps serving expired jwks while it revalidates them.
+     * <br><br> A jwk is fresh for expiresIn. For staleWhileRevalidate after that it is still returned right away
+     * while it is reloaded on the given executor. Once a reload failed, or while a reload is still running, it is
+     * returned for staleIfError after expiresIn, so a slow or failing fallback provider does not delay callers.
+     * Only a jwk older than both windows is loaded in the calling thread, and a jwk whose kid is no longer found
+     * is dropped instead of being served stale.
+     * @param provider fallback provider to use when jwk is not cached
+     * @param size number of jwt to cache
+     * @param expiresIn amount of time a jwk is fresh
+     * @param staleWhileRevalidate amount of time after expiresIn a jwk is served while it is reloaded
+     * @param staleIfError amount of time after expiresIn a jwk is served while it cannot be reloaded
+     * @param unit unit of the expiresIn, staleWhileRevalidate and staleIfError parameters
+     * @param executor executor where the jwks are reloaded
+     */
+    public GuavaCachedJwkProvider(final JwkProvider provider, long size, long expiresIn, long staleWhileRevalidate, long staleIfError, TimeUnit unit, Executor executor) {
+        this(provider, size, expiresIn, staleWhileRevalidate, staleIfError, unit, executor, Ticker.systemTicker(), JwksMetrics.NOOP);
+    }
+
+    /**
+     * @param ticker source of the time used for the fresh and stale windows
+     * @param metrics receives the cache hits, stale hits and misses
+     */
+    GuavaCachedJwkProvider(final JwkProvider provider, long size, long expiresIn, long staleWhileRevalidate, long staleIfError, TimeUnit unit, Executor executor, Ticker ticker, JwksMetrics metrics) {
+        Preconditions.checkArgument(expiresIn > 0, "Invalid expire value '" + expiresIn + "'. Must be a positive number.");
+        Preconditions.checkArgument(staleWhileRevalidate >= 0, "Invalid stale while revalidate value '" + staleWhileRevalidate + "'. Must be zero or a positive number.");
+        Preconditions.checkArgument(staleIfError >= 0, "Invalid stale if error value '" + staleIfError + "'. Must be zero or a positive number.");
+        Preconditions.checkArgument(executor != null, "A non-null executor is required");
+        this.provider = provider;
+        this.metrics = metrics;
+        this.ticker = ticker;
+        this.freshNanos = unit.toNanos(expiresIn);
+        this.staleWhileRevalidateNanos = unit.toNanos(staleWhileRevalidate);
+        this.staleIfErrorNanos = unit.toNanos(staleIfError);
+        this.executor = executor;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .ticker(ticker)
+                .expireAfterWrite(freshNanos + Math.max(staleWhileRevalidateNanos, staleIfErrorNanos), TimeUnit.NANOSECONDS)
+                .build(loader(provider, ticker));
+    }
+
+    private static CacheLoader<String, Entry> loader(final JwkProvider provider, final Ticker ticker) {
+        return new CacheLoader<String, Entry>() {
+            @Override
+            public Entry load(String keyId) throws Exception {
+                return new Entry(provider.get(keyId), ticker.read());
+            }
+        };
     }
 
     @Override
     public Jwk get(final String keyId) throws JwkException {
+        final Entry entry = cache.getIfPresent(keyId);
+        if (entry == null) {
+            metrics.cacheMiss();
+            return load(keyId);
+        }
+        final long age = ticker.read() - entry.loadedAt;
+        if (age < freshNanos) {
+            metrics.cacheHit();
+            return entry.jwk;
+        }
+        if (isServable(entry, age)) {
+            metrics.staleCacheHit();
+            revalidate(keyId, entry);
+            return entry.jwk;
+        }
+        // too old to be served without a reload, unless the reload fails
+        metrics.cacheMiss();
+        try {
+            return reload(keyId, entry).jwk;
+        } catch (UnknownKeyIdException e) {
+            throw e;
+        } catch (JwkException | RuntimeException e) {
+            entry.failed = true;
+            if (age < freshNanos + staleIfErrorNanos) {
+                return entry.jwk;
+            }
+            throw e;
+        }
+    }
+
+    private Jwk load(final String keyId) throws SigningKeyNotFoundException {
         try {
-            return cache.get(keyId, new Callable<Jwk>() {
+            return cache.get(keyId).jwk;
+        } catch (ExecutionException e) {
+            throw new SigningKeyNotFoundException("Failed to get key with kid " + keyId, e);
+        }
+    }
+
+    /**
+     * Whether an expired entry can be returned without waiting for its reload.
+     */
+    private boolean isServable(Entry entry, long age) {
+        if (age < freshNanos + staleWhileRevalidateNanos) {
+            return true;
+        }
+        return age < freshNanos + staleIfErrorNanos && (entry.failed || entry.revalidating.get());
+    }
+
+    private Entry reload(String keyId, Entry stale) throws JwkException {
+        try {
+            final Entry entry = new Entry(provider.get(keyId), ticker.read());
+            cache.asMap().replace(keyId, stale, entry);
+            return entry;
+        } catch (UnknownKeyIdException e) {
+            // the key has been removed from the jwks, it must not be served anymore
+            cache.asMap().remove(keyId, stale);
+            throw e;
+        }
+    }
+
+    private void revalidate(final String keyId, final Entry stale) {
+        if (!stale.revalidating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
                 @Override
-                public Jwk call() throws Exception {
-                    return provider.get(keyId);
+                public void run() {
+                    try {
+                        reload(keyId, stale);
+                    } catch (UnknownKeyIdException ignored) {
+                        // dropped by reload
+                    } catch (JwkException | RuntimeException e) {
+                        stale.failed = true;
+                    } finally {
+                        stale.revalidating.set(false);
+                    }
                 }
             });
-        } catch (ExecutionException e) {
-            throw new SigningKeyNotFoundException("Failed to get key with kid " + keyId, e);
+        } catch (RejectedExecutionException e) {
+            stale.revalidating.set(false);
         }
     }
 
+    @Override
+    public CompletableFuture<Jwk> getAsync(final String keyId) {
+        final Jwk cached = getIfServable(keyId);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<Jwk> result = new CompletableFuture<>();
+        AsyncSupport.getAsync(provider, keyId).whenComplete((jwk, e) -> {
+            if (e == null) {
+                cache.put(keyId, new Entry(jwk, ticker.read()));
+                result.complete(jwk);
+            } else {
+                result.completeExceptionally(new SigningKeyNotFoundException("Failed to get key with kid " + keyId, AsyncSupport.unwrap(e)));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getIfPresentAsync(String keyId) {
+        final Jwk jwk = getIfServable(keyId);
+        return jwk != null ? CompletableFuture.completedFuture(jwk) : AsyncSupport.getIfPresentAsync(provider, keyId);
+    }
+
+    @Override
+    public Jwk getIfPresent(String keyId) {
+        final Jwk jwk = getIfServable(keyId);
+        return jwk != null ? jwk : provider.getIfPresent(keyId);
+    }
+
+    /**
+     * Returns the cached jwk if it can be returned without waiting, starting its revalidation when it is stale.
+     */
+    private Jwk getIfServable(String keyId) {
+        final Entry entry = cache.getIfPresent(keyId);
+        if (entry == null) {
+            metrics.cacheMiss();
+            return null;
+        }
+        final long age = ticker.read() - entry.loadedAt;
+        if (age < freshNanos) {
+            metrics.cacheHit();
+            return entry.jwk;
+        }
+        if (isServable(entry, age)) {
+            metrics.staleCacheHit();
+            revalidate(keyId, entry);
+            return entry.jwk;
+        }
+        metrics.cacheMiss();
+        return null;
+    }
+
     @VisibleForTesting
     JwkProvider getBaseProvider() {
         return provider;
     }
+
+    private static final class Entry {
+        final Jwk jwk;
+        final long loadedAt;
+        final AtomicBoolean revalidating = new AtomicBoolean();
+        volatile boolean failed;
+
+        Entry(Jwk jwk, long loadedAt) {
+            this.jwk = jwk;
+            this.loadedAt = loadedAt;
+        }
+    }
 }
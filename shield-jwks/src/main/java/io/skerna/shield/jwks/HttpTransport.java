@@ -0,0 +1,75 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Sends the GET requests for the jwks and the OpenID provider metadata.
+ * <br><br> The default, {@link JdkHttpTransport#shared()}, keeps a pool of connections in a single
+ * {@link java.net.http.HttpClient} and negotiates HTTP/2, so successive loads reuse the connection instead of paying
+ * a new TLS handshake. Implement it to load through another client, and pass the same instance to every builder so
+ * all issuers share its connections.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface HttpTransport {
+
+    /**
+     * Sends a GET request. The caller closes the response once it has read what it needs from it.
+     *
+     * @param url            to load
+     * @param headers        request headers, like the validators of a conditional request
+     * @param connectTimeout connection timeout in milliseconds (null for the transport default)
+     * @param readTimeout    read timeout in milliseconds (null for the transport default)
+     * @return the response, whatever its status is
+     * @throws IOException if no response could be obtained
+     */
+    Response get(URL url, Map<String, String> headers, Integer connectTimeout, Integer readTimeout) throws IOException;
+
+    /**
+     * Response of a {@link HttpTransport} request, closing it releases its connection
+     */
+    interface Response extends Closeable {
+
+        /**
+         * @return the http status code, 200 for urls that are not http like files
+         */
+        int getStatus();
+
+        /**
+         * @param name case insensitive name of the header
+         * @return the first value of the header or null if it is not present
+         */
+        String getHeader(String name);
+
+        /**
+         * @return the response body, read at most once
+         * @throws IOException if the body cannot be read
+         */
+        InputStream getBody() throws IOException;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Transport backed by a {@link HttpClient}, which pools its connections and negotiates HTTP/2.
+ * <br><br> The client has a single connect timeout for all its requests, so the connect and read timeouts of a
+ * request are added up into the time allowed until its response headers arrive. Urls that are not http or https,
+ * like files and class path resources, are opened with a {@link java.net.URLConnection} instead.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class JdkHttpTransport implements HttpTransport {
+
+    private static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    /**
+     * Most unread bytes skipped when a response is closed, beyond that dropping the connection is cheaper
+     */
+    static final long MAX_DRAINED_BYTES = 8192;
+
+    private final HttpClient client;
+
+    /**
+     * Creates a transport with its own client, following redirects and trying HTTP/2 first
+     */
+    public JdkHttpTransport() {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(DEFAULT_CONNECT_TIMEOUT)
+                .build());
+    }
+
+    /**
+     * Creates a transport sending the requests with the given client
+     * @param client client to send the requests with
+     */
+    public JdkHttpTransport(HttpClient client) {
+        Preconditions.checkArgument(client != null, "A non-null client is required");
+        this.client = client;
+    }
+
+    /**
+     * @return the transport used by default by the builders, its connections are shared by all the providers
+     */
+    public static JdkHttpTransport shared() {
+        return Shared.INSTANCE;
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers, Integer connectTimeout, Integer readTimeout) throws IOException {
+        final String protocol = url.getProtocol();
+        if (!"http".equalsIgnoreCase(protocol) && !"https".equalsIgnoreCase(protocol)) {
+            return UrlConnectionTransport.INSTANCE.get(url, headers, connectTimeout, readTimeout);
+        }
+        final HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(url.toURI()).GET();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Invalid url " + url, e);
+        }
+        if (connectTimeout != null || readTimeout != null) {
+            final long timeout = (connectTimeout != null ? connectTimeout : 0) + (readTimeout != null ? readTimeout : 0);
+            if (timeout > 0) {
+                request.timeout(Duration.ofMillis(timeout));
+            }
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.header(header.getKey(), header.getValue());
+        }
+        try {
+            return new JdkResponse(client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading " + url);
+        }
+    }
+
+    private static final class JdkResponse implements Response {
+        private final HttpResponse<InputStream> response;
+
+        JdkResponse(HttpResponse<InputStream> response) {
+            this.response = response;
+        }
+
+        @Override
+        public int getStatus() {
+            return response.statusCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        @Override
+        public InputStream getBody() {
+            return response.body();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try (InputStream body = response.body()) {
+                // a body read to its end lets the client reuse the connection, like the new line after a json
+                ByteStreams.exhaust(ByteStreams.limit(body, MAX_DRAINED_BYTES));
+            }
+        }
+    }
+
+    private static class Shared {
+        static final JdkHttpTransport INSTANCE = new JdkHttpTransport();
+    }
+}
@@ -22,16 +22,11 @@
 
 package io.skerna.shield.jwks;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.Maps;
-import org.apache.commons.codec.binary.Base64;
 
-import java.math.BigInteger;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.RSAPublicKeySpec;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -41,7 +36,7 @@ import java.util.Map;
  */
 @SuppressWarnings("WeakerAccess")
 public class Jwk {
-    private static final String PUBLIC_KEY_ALGORITHM = "RSA";
+    private static final Object NO_PUBLIC_KEY = new Object();
 
     private final String id;
     private final String type;
@@ -52,6 +47,8 @@ public class Jwk {
     private final List<String> certificateChain;
     private final String certificateThumbprint;
     private final Map<String, Object> additionalAttributes;
+    // the materialized public key, NO_PUBLIC_KEY when the key type has none, or the failure to build it
+    private volatile Object publicKey;
 
     /**
      * Creates a new Jwk
@@ -120,6 +117,32 @@ public class Jwk {
         }
     }
 
+    /**
+     * Inverse of {@link #fromValues(Map)}, returns the jwk members as found in a jwks document
+     * @return the members of this jwk that have a value
+     */
+    Map<String, Object> toValues() {
+        Map<String, Object> values = Maps.newLinkedHashMap();
+        putIfNotNull(values, "kid", id);
+        putIfNotNull(values, "kty", type);
+        putIfNotNull(values, "alg", algorithm);
+        putIfNotNull(values, "use", usage);
+        putIfNotNull(values, "key_ops", operations);
+        putIfNotNull(values, "x5u", certificateUrl);
+        putIfNotNull(values, "x5c", certificateChain);
+        putIfNotNull(values, "x5t", certificateThumbprint);
+        if (additionalAttributes != null) {
+            values.putAll(additionalAttributes);
+        }
+        return values;
+    }
+
+    private static void putIfNotNull(Map<String, Object> values, String key, Object value) {
+        if (value != null) {
+            values.put(key, value);
+        }
+    }
+
     @SuppressWarnings("WeakerAccess")
     public String getId() {
         return id;
@@ -180,29 +203,43 @@ public class Jwk {
     }
 
     /**
-     * Returns a {@link PublicKey} if the {@code 'alg'} is {@code 'RSA'}
-     * @return a public key
-     * @throws InvalidPublicKeyException if the key cannot be built or the key type is not RSA
+     * Returns a {@link PublicKey} if the {@code 'kty'} is {@code 'RSA'}, {@code 'EC'} (P-256, P-384 or P-521) or
+     * {@code 'OKP'} (Ed25519).
+     * The key is built on the first call and the same instance is returned afterwards.
+     * @return a public key, or null if the key type has no public key
+     * @throws InvalidPublicKeyException if the key cannot be built
      */
     @SuppressWarnings("WeakerAccess")
     public PublicKey getPublicKey() throws InvalidPublicKeyException {
-        if (!PUBLIC_KEY_ALGORITHM.equalsIgnoreCase(type)) {
-            return null;
+        Object key = publicKey;
+        if (key == null) {
+            synchronized (this) {
+                key = publicKey;
+                if (key == null) {
+                    key = materializePublicKey();
+                    publicKey = key;
+                }
+            }
         }
-        try {
-            KeyFactory kf = KeyFactory.getInstance(PUBLIC_KEY_ALGORITHM);
-            BigInteger modulus = new BigInteger(1, Base64.decodeBase64(stringValue("n")));
-            BigInteger exponent = new BigInteger(1, Base64.decodeBase64(stringValue("e")));
-            return kf.generatePublic(new RSAPublicKeySpec(modulus, exponent));
-        } catch (InvalidKeySpecException e) {
-            throw new InvalidPublicKeyException("Invalid public key", e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new InvalidPublicKeyException("Invalid algorithm to generate key", e);
+        if (key instanceof InvalidPublicKeyException) {
+            final InvalidPublicKeyException e = (InvalidPublicKeyException) key;
+            throw new InvalidPublicKeyException(e.getMessage(), e.getCause());
         }
+        return key != NO_PUBLIC_KEY ? (PublicKey) key : null;
     }
 
-    private String stringValue(String key) {
-        return (String) additionalAttributes.get(key);
+    @VisibleForTesting
+    boolean isPublicKeyMaterialized() {
+        return publicKey != null;
+    }
+
+    private Object materializePublicKey() {
+        try {
+            final PublicKey key = PublicKeys.of(type, additionalAttributes != null ? additionalAttributes : Collections.<String, Object>emptyMap());
+            return key != null ? key : NO_PUBLIC_KEY;
+        } catch (InvalidPublicKeyException e) {
+            return e;
+        }
     }
 
     @Override
@@ -34,4 +34,14 @@ public interface JwkProvider {
      * @throws SigningKeyNotFoundException if no jwk can be found using the give kid
      */
     Jwk get(String keyId) throws JwkException;
+
+    /**
+     * Returns a jwk using the kid value only if it can be obtained without starting a new request for the jwks.
+     * A request already in progress may be awaited.
+     * @param keyId value of kid found in JWT
+     * @return a jwk or null if it is not available without a new request
+     */
+    default Jwk getIfPresent(String keyId) {
+        return null;
+    }
 }
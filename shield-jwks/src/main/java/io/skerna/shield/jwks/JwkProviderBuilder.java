@@ -22,7 +22,15 @@
 
 package io.skerna.shield.jwks;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import java.net.URL;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -32,12 +40,33 @@ import java.util.concurrent.TimeUnit;
 public class JwkProviderBuilder {
 
     private final URL url;
+    private final OidcDiscovery discovery;
     private TimeUnit expiresUnit;
     private long expiresIn;
     private long cacheSize;
     private boolean cached;
     private BucketImpl bucket;
     private boolean rateLimited;
+    private long rateLimitWaitMillis;
+    private boolean refreshAhead;
+    private long refreshIn;
+    private long maxStale;
+    private TimeUnit refreshUnit;
+    private ScheduledExecutorService scheduler;
+    private boolean cacheControl;
+    private long cacheControlMinAge;
+    private FileJwkSetStore store;
+    private boolean negativeCached;
+    private long negativeCacheSize;
+    private long negativeExpiresIn;
+    private TimeUnit negativeExpiresUnit;
+    private Executor fetchExecutor;
+    private boolean eagerPublicKeys;
+    private long staleWhileRevalidateMillis;
+    private long staleIfErrorMillis;
+    private JwksMetrics metrics;
+    private HttpTransport transport;
+    private boolean caffeine;
 
     /**
      * Creates a new Builder with the given URL where to load the jwks from.
@@ -46,16 +75,44 @@ public class JwkProviderBuilder {
      * @throws IllegalStateException if url is null
      */
     public JwkProviderBuilder(URL url) {
+        this(checkUrl(url), null);
+    }
+
+    /**
+     * Creates a new Builder that loads the jwks from the jwks_uri of the OpenID provider metadata.
+     *
+     * @param discovery metadata of the issuer of the jwks
+     * @throws IllegalStateException if discovery is null
+     */
+    public JwkProviderBuilder(OidcDiscovery discovery) {
+        this(null, checkDiscovery(discovery));
+    }
+
+    private static URL checkUrl(URL url) {
         if (url == null) {
             throw new IllegalStateException("Cannot build provider without url to jwks");
         }
+        return url;
+    }
+
+    private static OidcDiscovery checkDiscovery(OidcDiscovery discovery) {
+        if (discovery == null) {
+            throw new IllegalStateException("Cannot build provider without discovery");
+        }
+        return discovery;
+    }
+
+    private JwkProviderBuilder(URL url, OidcDiscovery discovery) {
         this.url = url;
+        this.discovery = discovery;
         this.cached = true;
         this.expiresIn = 10;
         this.expiresUnit = TimeUnit.HOURS;
         this.cacheSize = 5;
         this.rateLimited = true;
         this.bucket = new BucketImpl(10, 1, TimeUnit.MINUTES);
+        this.metrics = JwksMetrics.NOOP;
+        this.transport = JdkHttpTransport.shared();
     }
 
     /**
@@ -108,6 +165,184 @@ public class JwkProviderBuilder {
         return this;
     }
 
+    /**
+     * Enable the cache refreshing the jwks ahead of expiry.
+     * <br><br> The jwks are reloaded in the background every refreshIn while callers keep getting the cached
+     * ones, so no caller waits for the jwks url once a key is cached. If the url cannot be reached the cached
+     * jwks are served until they are older than maxStale. The cache size is the one given to
+     * {@link #cached(long, long, TimeUnit)}, its expire time is replaced by maxStale.
+     * <br><br> The reloads of all the providers built this way are timed by a single daemon thread shared by them,
+     * and run on the {@link #fetchExecutor(Executor) fetch executor}.
+     *
+     * @param refreshIn amount of time between background reloads
+     * @param maxStale  max amount of time a jwk is served without being reloaded, must be greater than refreshIn
+     * @param unit      unit of time for refreshIn and maxStale
+     * @return the builder
+     */
+    public JwkProviderBuilder refreshAhead(long refreshIn, long maxStale, TimeUnit unit) {
+        Preconditions.checkArgument(refreshIn > 0, "Invalid refresh value '" + refreshIn + "'. Must be a positive number.");
+        Preconditions.checkArgument(maxStale > refreshIn, "Invalid max stale value '" + maxStale + "'. Must be greater than the refresh value.");
+        this.cached = true;
+        this.refreshAhead = true;
+        this.refreshIn = refreshIn;
+        this.maxStale = maxStale;
+        this.refreshUnit = unit;
+        return this;
+    }
+
+    /**
+     * Enable the cache refreshing the jwks ahead of expiry using the given scheduler for the background reloads.
+     *
+     * @param refreshIn amount of time between background reloads
+     * @param maxStale  max amount of time a jwk is served without being reloaded, must be greater than refreshIn
+     * @param unit      unit of time for refreshIn and maxStale
+     * @param scheduler executor that runs the background reloads
+     * @return the builder
+     * @see #refreshAhead(long, long, TimeUnit)
+     */
+    public JwkProviderBuilder refreshAhead(long refreshIn, long maxStale, TimeUnit unit, ScheduledExecutorService scheduler) {
+        Preconditions.checkArgument(scheduler != null, "A non-null scheduler is required");
+        this.scheduler = scheduler;
+        return refreshAhead(refreshIn, maxStale, unit);
+    }
+
+    /**
+     * Cache the jwks in a Caffeine cache instead of a Guava one. Its loads run on the fetch executor, its reads
+     * take no lock, and when it is full it keeps the kids requested most often, which suits caches shared by many
+     * issuers. It supports {@link #cached(long, long, TimeUnit)} and {@link #refreshAhead(long, long, TimeUnit)}
+     * but not the stale windows.
+     *
+     * @param caffeine if the jwks should be cached with Caffeine
+     * @return the builder
+     * @see CaffeineCachedJwkProvider
+     */
+    public JwkProviderBuilder caffeine(boolean caffeine) {
+        this.caffeine = caffeine;
+        return this;
+    }
+
+    /**
+     * Keep returning a cached jwk for the given time after it expired, while it is reloaded in the background.
+     * <br><br> Unlike {@link #refreshAhead(long, long, TimeUnit)} nothing is reloaded until a stale jwk is requested.
+     * A jwk older than its expire time plus this window, and not covered by {@link #staleIfError(long, TimeUnit)},
+     * is loaded again before it is returned. Cannot be combined with refreshAhead.
+     *
+     * @param staleWhileRevalidate amount of time after its expire time a jwk is served while it is reloaded
+     * @param unit                 unit of time for staleWhileRevalidate
+     * @return the builder
+     */
+    public JwkProviderBuilder staleWhileRevalidate(long staleWhileRevalidate, TimeUnit unit) {
+        Preconditions.checkArgument(staleWhileRevalidate > 0, "Invalid stale while revalidate value '" + staleWhileRevalidate + "'. Must be a positive number.");
+        this.cached = true;
+        this.staleWhileRevalidateMillis = unit.toMillis(staleWhileRevalidate);
+        return this;
+    }
+
+    /**
+     * Keep returning the last loaded jwk for the given time after it expired, while the jwks url fails or does not
+     * answer, so that an outage of the identity provider does not reach the callers. Once the window is over the
+     * error is thrown. Cannot be combined with refreshAhead.
+     *
+     * @param staleIfError amount of time after its expire time a jwk is served while it cannot be reloaded
+     * @param unit         unit of time for staleIfError
+     * @return the builder
+     */
+    public JwkProviderBuilder staleIfError(long staleIfError, TimeUnit unit) {
+        Preconditions.checkArgument(staleIfError > 0, "Invalid stale if error value '" + staleIfError + "'. Must be a positive number.");
+        this.cached = true;
+        this.staleIfErrorMillis = unit.toMillis(staleIfError);
+        return this;
+    }
+
+    /**
+     * Let the Cache-Control max-age of the jwks response drive how long the keys are cached.
+     * <br><br> The max-age is bounded by minAge and by the cache expire time (or the max stale time of
+     * {@link #refreshAhead(long, long, TimeUnit)}). Responses without max-age use the cache expire time.
+     * Cached jwks are checked against the loaded key set every minAge, and once it expires it is revalidated
+     * with a conditional request.
+     *
+     * @param minAge minimum amount of time the keys are cached, used for no-cache and no-store responses
+     * @param unit   unit of time for minAge
+     * @return the builder
+     */
+    public JwkProviderBuilder cacheControl(long minAge, TimeUnit unit) {
+        Preconditions.checkArgument(minAge > 0, "Invalid min age value '" + minAge + "'. Must be a positive number.");
+        this.cacheControl = true;
+        this.cacheControlMinAge = unit.toMillis(minAge);
+        return this;
+    }
+
+    /**
+     * Keep the last loaded jwks in a local file, so that a new provider serves them without waiting for the
+     * jwks url. A provider started from the file revalidates it in the background right after it is built.
+     *
+     * @param file where the jwks are kept between restarts
+     * @return the builder
+     */
+    public JwkProviderBuilder persisted(Path file) {
+        this.store = new FileJwkSetStore(file);
+        return this;
+    }
+
+    /**
+     * Remember the kids not found in the jwks, so that further requests for them fail without loading the jwks
+     * and without consuming rate limit tokens. Keep the expire time short, a remembered kid is only found again
+     * once it expires or once the jwks are reloaded for another reason. A kid missing from jwks loaded less than
+     * the expire time ago fails the same way, without loading them again.
+     *
+     * @param size      number of unknown kids to remember
+     * @param expiresIn amount of time an unknown kid is remembered
+     * @param unit      unit of time for expiresIn
+     * @return the builder
+     */
+    public JwkProviderBuilder negativeCached(long size, long expiresIn, TimeUnit unit) {
+        Preconditions.checkArgument(size > 0, "Invalid size value '" + size + "'. Must be a positive number.");
+        Preconditions.checkArgument(expiresIn > 0, "Invalid expire value '" + expiresIn + "'. Must be a positive number.");
+        this.negativeCached = true;
+        this.negativeCacheSize = size;
+        this.negativeExpiresIn = expiresIn;
+        this.negativeExpiresUnit = unit;
+        return this;
+    }
+
+    /**
+     * Set the executor where the jwks are loaded for {@link AsyncJwkProvider#getAsync(String)} calls that miss the
+     * cache. By default a shared pool of daemon threads is used.
+     *
+     * @param executor executor for the asynchronous loads
+     * @return the builder
+     */
+    public JwkProviderBuilder fetchExecutor(Executor executor) {
+        Preconditions.checkArgument(executor != null, "A non-null executor is required");
+        this.fetchExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Build the public keys of the jwks as soon as they are loaded, instead of on first use. Together with
+     * {@link #refreshAhead(long, long, TimeUnit)} no request thread runs key factory code.
+     *
+     * @param eagerPublicKeys if the public keys should be built when the jwks is loaded
+     * @return the builder
+     */
+    public JwkProviderBuilder eagerPublicKeys(boolean eagerPublicKeys) {
+        this.eagerPublicKeys = eagerPublicKeys;
+        return this;
+    }
+
+    /**
+     * Report what the cache, the rate limit and the loads of the jwks do to the given metrics. By default nothing
+     * is reported.
+     *
+     * @param metrics receives the cache hits and misses, rate limit rejections and jwks loads
+     * @return the builder
+     */
+    public JwkProviderBuilder metrics(JwksMetrics metrics) {
+        Preconditions.checkArgument(metrics != null, "A non-null metrics is required");
+        this.metrics = metrics;
+        return this;
+    }
+
     /**
      * Toggle the rate limit of Jwk. By default the Provider will use rate limit.
      *
@@ -132,19 +367,121 @@ public class JwkProviderBuilder {
         return this;
     }
 
+    /**
+     * Wait for the next token when the rate limit is reached, instead of failing right away. A request still fails
+     * when the next token refills after the given time. By default it doesn't wait.
+     *
+     * @param maxWait max time to wait for a token
+     * @param unit    unit of time of the max wait
+     * @return the builder
+     */
+    public JwkProviderBuilder rateLimitWait(long maxWait, TimeUnit unit) {
+        Preconditions.checkArgument(maxWait >= 0, "Invalid max wait value '%s'. Must be zero or greater.", maxWait);
+        this.rateLimitWaitMillis = unit.toMillis(maxWait);
+        return this;
+    }
+
+    /**
+     * Send the requests for the jwks through the given transport. By default they go through
+     * {@link JdkHttpTransport#shared()}, a pooled HTTP/2 client shared by all the providers. Urls with their own
+     * {@link java.net.URLStreamHandler} need {@link UrlConnectionTransport#instance()}, the client does not use it.
+     *
+     * @param transport sends the requests for the jwks
+     * @return the builder
+     */
+    public JwkProviderBuilder transport(HttpTransport transport) {
+        Preconditions.checkArgument(transport != null, "A non-null transport is required");
+        this.transport = transport;
+        return this;
+    }
+
     /**
      * Creates a {@link JwkProvider}
      *
      * @return a newly created {@link JwkProvider}
+     * @throws IllegalStateException if refreshAhead or caffeine is combined with staleWhileRevalidate or staleIfError
      */
     public JwkProvider build() {
-        JwkProvider urlProvider = new UrlJwkProvider(url);
-        if (this.rateLimited) {
-            urlProvider = new RateLimitedJwkProvider(urlProvider, bucket);
+        final boolean stale = staleWhileRevalidateMillis > 0 || staleIfErrorMillis > 0;
+        if (this.cached && stale && (this.refreshAhead || this.caffeine)) {
+            throw new IllegalStateException("Cannot build provider with stale windows and " + (refreshAhead ? "refreshAhead" : "caffeine"));
         }
+        if (this.cached && this.refreshAhead) {
+            return buildRefreshAhead();
+        }
+        final long expiresMillis = expiresUnit.toMillis(expiresIn);
+        JwkProvider urlProvider = limit(newUrlProvider(expiresMillis, scheduler));
         if (this.cached) {
-            urlProvider = new GuavaCachedJwkProvider(urlProvider, cacheSize, expiresIn, expiresUnit);
+            final long cachedMillis = cacheControl ? Math.min(cacheControlMinAge, expiresMillis) : expiresMillis;
+            if (caffeine) {
+                urlProvider = new CaffeineCachedJwkProvider(urlProvider, cacheSize, 0, cachedMillis, TimeUnit.MILLISECONDS, loadExecutor(), metrics);
+            } else if (stale) {
+                urlProvider = new GuavaCachedJwkProvider(urlProvider, cacheSize, cachedMillis, staleWhileRevalidateMillis, staleIfErrorMillis, TimeUnit.MILLISECONDS, loadExecutor(), Ticker.systemTicker(), metrics);
+            } else {
+                urlProvider = new GuavaCachedJwkProvider(urlProvider, cacheSize, cachedMillis, TimeUnit.MILLISECONDS, metrics);
+            }
+        }
+        return urlProvider;
+    }
+
+    private Executor loadExecutor() {
+        return fetchExecutor != null ? fetchExecutor : UrlJwkProvider.DefaultExecutor.INSTANCE;
+    }
+
+    /**
+     * Creates an {@link AsyncJwkProvider} with the same configuration as {@link #build()}
+     *
+     * @return a newly created {@link AsyncJwkProvider}
+     */
+    public AsyncJwkProvider buildAsync() {
+        return (AsyncJwkProvider) build();
+    }
+
+    private UrlJwkProvider newUrlProvider(long maxAgeMillis, Executor executor) {
+        final long minAgeMillis = cacheControl ? Math.min(cacheControlMinAge, maxAgeMillis) : maxAgeMillis;
+        final UrlJwkProvider provider = new UrlJwkProvider(new UrlJwkProvider.Options()
+                .ages(minAgeMillis, maxAgeMillis, TimeUnit.MILLISECONDS)
+                .store(store)
+                .executor(fetchExecutor)
+                .eagerPublicKeys(eagerPublicKeys)
+                .metrics(metrics)
+                .transport(transport), url, discovery);
+        if (store != null) {
+            provider.refreshAsync(executor != null ? executor : loadExecutor());
+        }
+        return provider;
+    }
+
+    private JwkProvider buildRefreshAhead() {
+        // without a scheduler of the caller the shared one only times the reloads, they run on the fetch executor
+        final Executor executor = scheduler != null ? scheduler : loadExecutor();
+        final UrlJwkProvider jwksProvider = newUrlProvider(refreshUnit.toMillis(maxStale), scheduler);
+        jwksProvider.scheduleRefresh(scheduler != null ? scheduler : DefaultScheduler.INSTANCE, executor, refreshIn, refreshUnit);
+        if (caffeine) {
+            return new CaffeineCachedJwkProvider(limit(jwksProvider), cacheSize, refreshIn, maxStale, refreshUnit, loadExecutor(), metrics);
+        }
+        return new GuavaCachedJwkProvider(limit(jwksProvider), cacheSize, refreshIn, maxStale, refreshUnit, executor, metrics);
+    }
+
+    private JwkProvider limit(UrlJwkProvider jwksProvider) {
+        JwkProvider urlProvider = jwksProvider;
+        if (this.rateLimited) {
+            urlProvider = new RateLimitedJwkProvider(urlProvider, bucket, rateLimitWaitMillis, metrics);
+        }
+        if (this.negativeCached) {
+            urlProvider = new NegativeCachedJwkProvider(urlProvider, jwksProvider, negativeCacheSize, negativeExpiresIn, negativeExpiresUnit, metrics);
         }
         return urlProvider;
     }
+
+    /**
+     * Times the background reloads of all the providers built without a scheduler, so building a provider never
+     * starts a thread of its own. Its thread only submits the reloads to the fetch executor.
+     */
+    static class DefaultScheduler {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("jwks-refresh-%d")
+                .setDaemon(true)
+                .build());
+    }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of a jwks document, indexed by kid
+ */
+@SuppressWarnings("WeakerAccess")
+public final class JwkSet {
+
+    private final Map<String, Jwk> keys;
+    private final long fetchedAt;
+    private final String etag;
+    private final String lastModified;
+    private final long maxAge;
+
+    JwkSet(Map<String, Jwk> keys, long fetchedAt) {
+        this(keys, fetchedAt, null, null, -1);
+    }
+
+    JwkSet(Map<String, Jwk> keys, long fetchedAt, String etag, String lastModified, long maxAge) {
+        this.keys = ImmutableMap.copyOf(keys);
+        this.fetchedAt = fetchedAt;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Creates a snapshot from the keys of a jwks document.
+     * When the document repeats a kid the first key wins, as a linear scan of the document would.
+     * @param jwks keys in document order
+     * @param fetchedAt time in milliseconds since the epoch when the document was obtained
+     * @return a new snapshot
+     */
+    static JwkSet of(List<Jwk> jwks, long fetchedAt) {
+        return of(jwks, fetchedAt, null, null, -1);
+    }
+
+    /**
+     * Creates a snapshot from the keys of a jwks document and the HTTP validators it was served with.
+     * @param jwks keys in document order
+     * @param fetchedAt time in milliseconds since the epoch when the document was obtained
+     * @param etag value of the ETag header or null
+     * @param lastModified value of the Last-Modified header or null
+     * @param maxAge max-age in milliseconds of the Cache-Control header or -1 if it had none
+     * @return a new snapshot
+     */
+    static JwkSet of(List<Jwk> jwks, long fetchedAt, String etag, String lastModified, long maxAge) {
+        Map<String, Jwk> keys = new LinkedHashMap<>();
+        for (Jwk jwk : jwks) {
+            keys.putIfAbsent(jwk.getId(), jwk);
+        }
+        return new JwkSet(keys, fetchedAt, etag, lastModified, maxAge);
+    }
+
+    /**
+     * Creates a copy of this snapshot with the same keys, for a document the server confirmed as not modified.
+     * @param fetchedAt time in milliseconds since the epoch when the document was revalidated
+     * @param etag value of the ETag header of the revalidation or null to keep the current one
+     * @param maxAge max-age in milliseconds of the Cache-Control header of the revalidation or -1 if it had none
+     * @return the revalidated snapshot
+     */
+    JwkSet revalidated(long fetchedAt, String etag, long maxAge) {
+        return new JwkSet(keys, fetchedAt, etag != null ? etag : this.etag, lastModified, maxAge);
+    }
+
+    /**
+     * Returns the jwk with the given kid
+     * @param keyId value of kid found in JWT
+     * @return the jwk or null if this snapshot has no key with that kid
+     */
+    public Jwk get(String keyId) {
+        return keys.get(keyId);
+    }
+
+    public boolean contains(String keyId) {
+        return keys.containsKey(keyId);
+    }
+
+    public Collection<Jwk> getKeys() {
+        return keys.values();
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return time in milliseconds since the epoch when the document was obtained
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return value of the ETag header the document was served with or null
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return value of the Last-Modified header the document was served with or null
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return max-age in milliseconds of the Cache-Control header the document was served with or -1 if it had none
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return if the other snapshot has the very keys of this one, as a revalidated copy does
+     */
+    boolean hasSameKeys(JwkSet other) {
+        return keys == other.keys;
+    }
+
+    boolean isExpired(long now, long maxAgeMillis) {
+        return now - fetchedAt >= maxAgeMillis;
+    }
+
+    /**
+     * Builds the public keys of all the jwks now, so that the lookups never run key factory code.
+     * Keys that cannot be built are skipped, the failure is reported again when they are used.
+     */
+    void materializePublicKeys() {
+        for (Jwk jwk : keys.values()) {
+            try {
+                jwk.getPublicKey();
+            } catch (InvalidPublicKeyException ignored) {
+                // memoized by the jwk
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("kids", keys.keySet())
+                .add("fetchedAt", fetchedAt)
+                .add("etag", etag)
+                .add("maxAge", maxAge)
+                .toString();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+/**
+ * Receives what the providers built by {@link JwkProviderBuilder} do, to size their caches and rate limits from data.
+ * <br><br> Every method does nothing by default, so an implementation only overrides the ones it needs and forwards
+ * them to a metrics library. They are called from the request threads and from the threads loading the jwks, so
+ * they must be thread safe and must not block.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface JwksMetrics {
+
+    /**
+     * Metrics that are discarded
+     */
+    JwksMetrics NOOP = new JwksMetrics() {
+    };
+
+    /**
+     * A jwk was found fresh in the cache
+     */
+    default void cacheHit() {
+    }
+
+    /**
+     * Jwks were found fresh in the cache, reported at once by the caches that count their hits in batches
+     * @param count number of hits, by default reported one by one to {@link #cacheHit()}
+     */
+    default void cacheHits(int count) {
+        for (int i = 0; i < count; i++) {
+            cacheHit();
+        }
+    }
+
+    /**
+     * An expired jwk was returned from the cache while it is revalidated, or while it cannot be
+     */
+    default void staleCacheHit() {
+    }
+
+    /**
+     * A jwk was not in the cache, or was too old to be returned from it
+     */
+    default void cacheMiss() {
+    }
+
+    /**
+     * Jwks were not in the cache, reported at once by the caches that count their misses in batches
+     * @param count number of misses, by default reported one by one to {@link #cacheMiss()}
+     */
+    default void cacheMisses(int count) {
+        for (int i = 0; i < count; i++) {
+            cacheMiss();
+        }
+    }
+
+    /**
+     * A kid was rejected because it is remembered as absent from the jwks
+     */
+    default void negativeCacheHit() {
+    }
+
+    /**
+     * A request for the jwks was rejected by the rate limit
+     * @param willLeakInMillis time the caller has to wait for the next token
+     */
+    default void rateLimited(long willLeakInMillis) {
+    }
+
+    /**
+     * The jwks was loaded from its url
+     * @param latencyNanos time from the start of the request until the response has been parsed
+     * @param responseBytes size of the response body
+     */
+    default void fetched(long latencyNanos, long responseBytes) {
+    }
+
+    /**
+     * The jwks was revalidated with a conditional request and has not changed
+     * @param latencyNanos time from the start of the request until the response
+     */
+    default void notModified(long latencyNanos) {
+    }
+
+    /**
+     * The jwks could not be loaded from its url
+     * @param latencyNanos time from the start of the request until it failed
+     */
+    default void fetchFailed(long latencyNanos) {
+    }
+
+    /**
+     * A jwks response has been parsed into a new snapshot
+     * @param parseNanos time spent in the parser, which includes reading the response body as it is streamed
+     * @param keys number of keys of the snapshot
+     */
+    default void parsed(long parseNanos, int keys) {
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pull parser for jwks documents. It reads the json once, in chunks, and binds the keys directly to {@link Jwk}
+ * instances, so only the members that are not standard jwk attributes end up in a map.
+ * <p>
+ * Members with a {@code null} value are treated as absent.
+ */
+final class JwksParser implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 32;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private long offset;
+
+    JwksParser(Reader reader) {
+        this.reader = reader;
+    }
+
+    JwksParser(InputStream inputStream) {
+        this(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a {@code {"keys": [...]}} document, ignoring any other member
+     * @return the keys of the document, empty if it has none
+     * @throws IOException if the json is malformed
+     * @throws IllegalArgumentException if a key is not a valid jwk
+     */
+    List<Jwk> readJwks() throws IOException {
+        List<Jwk> keys = Collections.emptyList();
+        if (beginObject()) {
+            do {
+                if ("keys".equals(nextName())) {
+                    keys = readJwkArray();
+                } else {
+                    nextValue(0);
+                }
+            } while (nextMember());
+        }
+        return keys;
+    }
+
+    List<Jwk> readJwkArray() throws IOException {
+        final List<Jwk> keys = new ArrayList<>();
+        if (peek() == 'n') {
+            literal("null");
+        } else if (beginArray()) {
+            do {
+                keys.add(readJwk());
+            } while (nextElement());
+        }
+        return keys;
+    }
+
+    Jwk readJwk() throws IOException {
+        String kid = null;
+        String kty = null;
+        String alg = null;
+        String use = null;
+        List<String> keyOps = null;
+        String x5u = null;
+        List<String> x5c = null;
+        String x5t = null;
+        final Map<String, Object> values = new HashMap<>();
+        if (beginObject()) {
+            do {
+                final String name = nextName();
+                switch (name) {
+                    case "kid":
+                        kid = nextStringOrNull();
+                        break;
+                    case "kty":
+                        kty = nextStringOrNull();
+                        break;
+                    case "alg":
+                        alg = nextStringOrNull();
+                        break;
+                    case "use":
+                        use = nextStringOrNull();
+                        break;
+                    case "key_ops":
+                        if (peek() == '"') {
+                            keyOps = Collections.singletonList(nextString());
+                        } else {
+                            keyOps = readStrings();
+                        }
+                        break;
+                    case "x5u":
+                        x5u = nextStringOrNull();
+                        break;
+                    case "x5c":
+                        x5c = readStrings();
+                        break;
+                    case "x5t":
+                        x5t = nextStringOrNull();
+                        break;
+                    default:
+                        final Object value = nextValue(1);
+                        if (value != null) {
+                            values.put(name, value);
+                        }
+                }
+            } while (nextMember());
+        }
+        if (kid == null || kty == null) {
+            throw new IllegalArgumentException("Attributes " + values + " are not from a valid jwk");
+        }
+        return new Jwk(kid, kty, alg, use, keyOps, x5u, x5c, x5t, values);
+    }
+
+    /**
+     * Consumes the start of an object
+     * @return false if the object is empty, and then it is consumed completely
+     */
+    boolean beginObject() throws IOException {
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the name of the next member of an object, and its separator
+     */
+    String nextName() throws IOException {
+        final String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Consumes the separator after a member value
+     * @return true if the object has another member, false if it is consumed completely
+     */
+    boolean nextMember() throws IOException {
+        final char c = peek();
+        pos++;
+        if (c == ',') {
+            return true;
+        }
+        if (c == '}') {
+            return false;
+        }
+        throw syntaxError("Expected ',' or '}' but found '" + c + "'");
+    }
+
+    /**
+     * Consumes the start of an array
+     * @return false if the array is empty, and then it is consumed completely
+     */
+    boolean beginArray() throws IOException {
+        expect('[');
+        if (peek() == ']') {
+            pos++;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Consumes the separator after an array element
+     * @return true if the array has another element, false if it is consumed completely
+     */
+    boolean nextElement() throws IOException {
+        final char c = peek();
+        pos++;
+        if (c == ',') {
+            return true;
+        }
+        if (c == ']') {
+            return false;
+        }
+        throw syntaxError("Expected ',' or ']' but found '" + c + "'");
+    }
+
+    String nextStringOrNull() throws IOException {
+        if (peek() == 'n') {
+            literal("null");
+            return null;
+        }
+        return nextString();
+    }
+
+    long nextLong() throws IOException {
+        final Object value = nextValue(0);
+        if (!(value instanceof Number)) {
+            throw syntaxError("Expected a number but found " + value);
+        }
+        return ((Number) value).longValue();
+    }
+
+    String nextString() throws IOException {
+        expect('"');
+        StringBuilder builder = null;
+        int start = pos;
+        while (true) {
+            if (pos == limit) {
+                builder = append(builder, start, pos);
+                if (!fill()) {
+                    throw syntaxError("Unterminated string");
+                }
+                start = pos;
+                continue;
+            }
+            final char c = buffer[pos];
+            if (c == '"') {
+                final String value = builder == null
+                        ? new String(buffer, start, pos - start)
+                        : append(builder, start, pos).toString();
+                pos++;
+                return value;
+            }
+            if (c == '\\') {
+                builder = append(builder, start, pos);
+                pos++;
+                builder.append(readEscape());
+                start = pos;
+            } else if (c < 0x20) {
+                throw syntaxError("Unescaped control character in string");
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    List<String> readStrings() throws IOException {
+        if (peek() == 'n') {
+            literal("null");
+            return null;
+        }
+        final List<String> values = new ArrayList<>();
+        if (beginArray()) {
+            do {
+                values.add(nextString());
+            } while (nextElement());
+        }
+        return values;
+    }
+
+    /**
+     * Reads any json value: strings, numbers, booleans, null, lists and maps.
+     */
+    Object nextValue(int depth) throws IOException {
+        final char c = peek();
+        switch (c) {
+            case '"':
+                return nextString();
+            case '{':
+                checkDepth(depth);
+                final Map<String, Object> map = new HashMap<>();
+                if (beginObject()) {
+                    do {
+                        final String name = nextName();
+                        final Object value = nextValue(depth + 1);
+                        if (value != null) {
+                            map.put(name, value);
+                        }
+                    } while (nextMember());
+                }
+                return map;
+            case '[':
+                checkDepth(depth);
+                final List<Object> list = new ArrayList<>();
+                if (beginArray()) {
+                    do {
+                        list.add(nextValue(depth + 1));
+                    } while (nextElement());
+                }
+                return list;
+            case 't':
+                literal("true");
+                return Boolean.TRUE;
+            case 'f':
+                literal("false");
+                return Boolean.FALSE;
+            case 'n':
+                literal("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return nextNumber();
+                }
+                throw syntaxError("Unexpected character '" + c + "'");
+        }
+    }
+
+    private Number nextNumber() throws IOException {
+        final StringBuilder builder = new StringBuilder(16);
+        boolean decimal = false;
+        while (pos < limit || fill()) {
+            final char c = buffer[pos];
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            } else if (c != '-' && c != '+' && (c < '0' || c > '9')) {
+                break;
+            }
+            builder.append(c);
+            pos++;
+        }
+        final String number = builder.toString();
+        try {
+            if (decimal) {
+                return Double.valueOf(number);
+            }
+            try {
+                final long value = Long.parseLong(number);
+                if (value == (int) value) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                return new BigInteger(number);
+            }
+        } catch (NumberFormatException e) {
+            throw syntaxError("Invalid number '" + number + "'");
+        }
+    }
+
+    private char readEscape() throws IOException {
+        final char c = read();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(read(), 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw syntaxError("Invalid escape '\\" + c + "'");
+        }
+    }
+
+    private void literal(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (read() != literal.charAt(i)) {
+                throw syntaxError("Expected '" + literal + "'");
+            }
+        }
+    }
+
+    private void checkDepth(int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw syntaxError("Nesting deeper than " + MAX_DEPTH + " levels");
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        final char c = peek();
+        if (c != expected) {
+            throw syntaxError("Expected '" + expected + "' but found '" + c + "'");
+        }
+        pos++;
+    }
+
+    /**
+     * Returns the next character that is not whitespace, without consuming it
+     */
+    private char peek() throws IOException {
+        while (pos < limit || fill()) {
+            final char c = buffer[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            pos++;
+        }
+        throw syntaxError("Unexpected end of json");
+    }
+
+    private char read() throws IOException {
+        if (pos == limit && !fill()) {
+            throw syntaxError("Unexpected end of json");
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        final int read = reader.read(buffer, 0, buffer.length);
+        if (read > 0) {
+            limit = read;
+            return true;
+        }
+        return false;
+    }
+
+    private StringBuilder append(StringBuilder builder, int start, int end) {
+        if (builder == null) {
+            builder = new StringBuilder(end - start + 16);
+        }
+        return builder.append(buffer, start, end - start);
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at character " + (offset + pos));
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
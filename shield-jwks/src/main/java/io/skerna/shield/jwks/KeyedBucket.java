@@ -0,0 +1,155 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.math.LongMath;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token buckets keyed by issuer or by a partition key chosen by the caller, all of them under a shared global bucket.
+ * <br><br> A partition that requests too many jwks only exhausts its own bucket: the global bucket is only checked
+ * once the partition bucket allows the request, so its tokens stay available to the other partitions. A token taken
+ * from a partition bucket is given back when the global bucket rejects the request, so a caller retrying until the
+ * global bucket refills does not drain its partition bucket meanwhile.
+ * <br><br> The buckets are kept in a cache split in {@value #STRIPES} segments, each one with its own lock, and
+ * found without locking once created. A bucket that is not used for the time it takes to refill completely is
+ * evicted, as it is no different from a new one. That is the only way a bucket goes away: a bucket is never evicted
+ * for room, since dropping an exhausted one would reset its limit. Instead, while {@code maxPartitions} buckets are
+ * kept, the partitions that have none share a single overflow bucket until idle buckets expire. So random partition
+ * keys cannot grow the memory without bound, and rotating through more keys than that resets no limit, it only
+ * makes the new keys share one.
+ */
+class KeyedBucket {
+
+    static final int STRIPES = 64;
+    /**
+     * Number of partition buckets kept unless another one is given
+     */
+    static final long DEFAULT_MAX_PARTITIONS = 10000;
+
+    private final Bucket global;
+    private final BucketImpl overflow;
+    private final long maxPartitions;
+    private final LoadingCache<String, BucketImpl> buckets;
+
+    /**
+     * @param size          max number of tokens of each partition bucket
+     * @param rate          amount of time to refill one token of a partition bucket
+     * @param rateUnit      unit of time of the refill rate
+     * @param maxPartitions max number of partition buckets kept, the next partitions share an overflow bucket
+     * @param global        bucket all the partitions consume from
+     */
+    KeyedBucket(final long size, final long rate, final TimeUnit rateUnit, long maxPartitions, Bucket global) {
+        Preconditions.checkArgument(size > 0, "Invalid bucket size.");
+        Preconditions.checkArgument(rate > 0, "Invalid bucket refill rate.");
+        Preconditions.checkArgument(maxPartitions > 0, "Invalid max partitions value '%s'. Must be greater than zero.", maxPartitions);
+        Preconditions.checkArgument(global != null, "A non-null global bucket is required");
+        this.global = global;
+        this.overflow = new BucketImpl(size, rate, rateUnit);
+        this.maxPartitions = maxPartitions;
+        this.buckets = CacheBuilder.newBuilder()
+                .concurrencyLevel(STRIPES)
+                .expireAfterAccess(LongMath.saturatedMultiply(rateUnit.toNanos(rate), size), TimeUnit.NANOSECONDS)
+                .build(new CacheLoader<String, BucketImpl>() {
+                    @Override
+                    public BucketImpl load(String key) {
+                        return new BucketImpl(size, rate, rateUnit);
+                    }
+                });
+    }
+
+    /**
+     * Returns the bucket of a partition. It is only a view, the partition bucket is looked up on every call, so it
+     * can be kept while its bucket is evicted and created again.
+     *
+     * @param key the issuer or partition key
+     * @return a bucket that consumes from the partition bucket and then from the global bucket
+     */
+    Bucket forKey(final String key) {
+        Preconditions.checkArgument(key != null, "A non-null partition key is required");
+        return new Bucket() {
+            @Override
+            public long willLeakIn() {
+                return willLeakIn(1);
+            }
+
+            @Override
+            public long willLeakIn(long count) {
+                return Math.max(bucket(key).willLeakIn(count), global.willLeakIn(count));
+            }
+
+            @Override
+            public boolean consume() {
+                return consume(1);
+            }
+
+            @Override
+            public boolean consume(long count) {
+                final BucketImpl bucket = bucket(key);
+                if (!bucket.consume(count)) {
+                    return false;
+                }
+                if (!global.consume(count)) {
+                    bucket.refund(count);
+                    return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return the bucket of the partition, created if there is room for it, or else the overflow bucket
+     */
+    private BucketImpl bucket(String key) {
+        final BucketImpl bucket = buckets.getIfPresent(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (buckets.size() >= maxPartitions) {
+            // the size counts the expired buckets until their segment is cleaned up
+            buckets.cleanUp();
+            if (buckets.size() >= maxPartitions) {
+                return overflow;
+            }
+        }
+        return buckets.getUnchecked(key);
+    }
+
+    /**
+     * @return the bucket shared by all the partitions
+     */
+    Bucket global() {
+        return global;
+    }
+
+    long size() {
+        buckets.cleanUp();
+        return buckets.size();
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Resolves signing keys from several issuers, each one publishing its own jwks.
+ * <p>
+ * The jwks of an issuer is only loaded when a key of that issuer is first requested. All the issuers share the
+ * executor of the asynchronous loads and a memory budget, measured in keys: when the snapshots of the active issuers
+ * hold more keys than the budget, or an issuer is not used for the idle time, the least recently used issuers are
+ * dropped and loaded again on their next use. No thread is created per issuer.
+ * Use {@link MultiIssuerJwkProviderBuilder} to create it.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MultiIssuerJwkProvider {
+
+    private final Map<String, URL> urls;
+    private final Function<String, URL> resolver;
+    private final UrlJwkProvider.Options jwks;
+    private final KeyedBucket buckets;
+    private final long rateLimitWaitMillis;
+    private final JwksMetrics metrics;
+    private final Cache<String, Issuer> issuers;
+
+    /**
+     * @param jwks the options of the provider of the jwks of every issuer
+     */
+    MultiIssuerJwkProvider(Map<String, URL> urls, Function<String, URL> resolver, UrlJwkProvider.Options jwks,
+                           long maxKeys, long idleMillis, KeyedBucket buckets, long rateLimitWaitMillis) {
+        this.urls = ImmutableMap.copyOf(urls);
+        this.resolver = resolver;
+        this.jwks = jwks;
+        this.buckets = buckets;
+        this.rateLimitWaitMillis = rateLimitWaitMillis;
+        this.metrics = jwks.getMetrics();
+        this.issuers = CacheBuilder.newBuilder()
+                // a single segment, so the whole budget is available to any issuer
+                .concurrencyLevel(1)
+                .maximumWeight(maxKeys)
+                .weigher(new Weigher<String, Issuer>() {
+                    @Override
+                    public int weigh(String issuer, Issuer entry) {
+                        return entry.weight;
+                    }
+                })
+                .expireAfterAccess(idleMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Returns the jwk of an issuer
+     * @param issuer value of the {@code iss} claim of the token
+     * @param keyId value of the {@code kid} header of the token
+     * @return the jwk
+     * @throws SigningKeyNotFoundException if the issuer is unknown or its jwks has no key with that kid
+     * @throws JwkException if the jwks of the issuer cannot be loaded
+     */
+    public Jwk get(String issuer, String keyId) throws JwkException {
+        final Issuer entry = issuer(issuer);
+        try {
+            return entry.provider.get(keyId);
+        } finally {
+            reweigh(issuer, entry);
+        }
+    }
+
+    /**
+     * Returns the jwk of an issuer without blocking, see {@link AsyncJwkProvider#getAsync(String)}
+     * @param issuer value of the {@code iss} claim of the token
+     * @param keyId value of the {@code kid} header of the token
+     * @return the future of the jwk
+     */
+    public CompletableFuture<Jwk> getAsync(final String issuer, String keyId) {
+        final Issuer entry;
+        try {
+            entry = issuer(issuer);
+        } catch (SigningKeyNotFoundException e) {
+            return AsyncSupport.failed(e);
+        }
+        return AsyncSupport.getAsync(entry.provider, keyId).whenComplete((jwk, e) -> reweigh(issuer, entry));
+    }
+
+    /**
+     * Returns the jwk of the last jwks snapshot of an issuer that is kept in memory, see
+     * {@link UrlJwkProvider#getLastKnown(String)}. It never loads the jwks in the calling thread, nor creates the
+     * provider of an issuer that is not active.
+     * @param issuer value of the {@code iss} claim of the token
+     * @param keyId value of the {@code kid} header of the token
+     * @return the jwk, or null if the issuer is not active or the kid is not in its last snapshot
+     */
+    public Jwk getLastKnown(String issuer, String keyId) {
+        final Issuer entry = issuer != null ? issuers.getIfPresent(issuer) : null;
+        return entry != null ? entry.urlProvider.getLastKnown(keyId) : null;
+    }
+
+    /**
+     * Returns a provider of the keys of a single issuer. It is only a view, the jwks is loaded and kept by this
+     * registry.
+     * @param issuer value of the {@code iss} claim of the tokens
+     * @return the provider of the issuer keys
+     */
+    public AsyncJwkProvider forIssuer(final String issuer) {
+        return new AsyncJwkProvider() {
+            @Override
+            public Jwk get(String keyId) throws JwkException {
+                return MultiIssuerJwkProvider.this.get(issuer, keyId);
+            }
+
+            @Override
+            public Jwk getIfPresent(String keyId) {
+                final Issuer entry = issuers.getIfPresent(issuer);
+                return entry != null ? entry.provider.getIfPresent(keyId) : null;
+            }
+
+            @Override
+            public CompletableFuture<Jwk> getAsync(String keyId) {
+                return MultiIssuerJwkProvider.this.getAsync(issuer, keyId);
+            }
+
+            @Override
+            public CompletableFuture<Jwk> getIfPresentAsync(String keyId) {
+                final Issuer entry = issuers.getIfPresent(issuer);
+                return entry != null
+                        ? AsyncSupport.getIfPresentAsync(entry.provider, keyId)
+                        : CompletableFuture.<Jwk>completedFuture(null);
+            }
+        };
+    }
+
+    /**
+     * @return the issuers whose jwks is currently kept in memory
+     */
+    public Set<String> getActiveIssuers() {
+        return ImmutableSet.copyOf(issuers.asMap().keySet());
+    }
+
+    @VisibleForTesting
+    JwkProvider getIssuerProvider(String issuer) {
+        final Issuer entry = issuers.getIfPresent(issuer);
+        return entry != null ? entry.provider : null;
+    }
+
+    private Issuer issuer(final String issuer) throws SigningKeyNotFoundException {
+        if (issuer == null) {
+            throw new SigningKeyNotFoundException("Cannot select the jwks of a token without issuer", null);
+        }
+        final Issuer cached = issuers.getIfPresent(issuer);
+        if (cached != null) {
+            return cached;
+        }
+        final URL url = urls.containsKey(issuer) ? urls.get(issuer) : resolver != null ? resolver.apply(issuer) : null;
+        if (url == null) {
+            throw new SigningKeyNotFoundException("No jwks configured for issuer " + issuer, null);
+        }
+        try {
+            return issuers.get(issuer, new Callable<Issuer>() {
+                @Override
+                public Issuer call() {
+                    return newIssuer(issuer, url);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new SigningKeyNotFoundException("Cannot create the jwks provider of issuer " + issuer, e.getCause());
+        }
+    }
+
+    private Issuer newIssuer(String issuer, URL url) {
+        final UrlJwkProvider urlProvider = new UrlJwkProvider(jwks, url, null);
+        // the bucket of the issuer outlives the entry, evicting an idle issuer doesn't give it a new budget
+        final JwkProvider provider = buckets != null
+                ? new RateLimitedJwkProvider(urlProvider, buckets.forKey(issuer), rateLimitWaitMillis, metrics)
+                : urlProvider;
+        return new Issuer(urlProvider, provider);
+    }
+
+    /**
+     * Updates the weight of the issuer in the budget after its snapshot has been loaded or replaced.
+     */
+    private void reweigh(String issuer, Issuer entry) {
+        final int weight = entry.currentWeight();
+        if (weight != entry.weight) {
+            entry.weight = weight;
+            issuers.asMap().replace(issuer, entry, entry);
+        }
+    }
+
+    private static final class Issuer {
+        final UrlJwkProvider urlProvider;
+        final JwkProvider provider;
+        volatile int weight = 1;
+
+        Issuer(UrlJwkProvider urlProvider, JwkProvider provider) {
+            this.urlProvider = urlProvider;
+            this.provider = provider;
+        }
+
+        /**
+         * The keys of the current snapshot, plus one for the issuer itself.
+         */
+        int currentWeight() {
+            final JwkSet jwks = urlProvider.peekJwkSet();
+            return 1 + (jwks != null ? jwks.size() : 0);
+        }
+    }
+}
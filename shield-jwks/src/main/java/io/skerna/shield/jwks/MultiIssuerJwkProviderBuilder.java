@@ -0,0 +1,309 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.base.Preconditions;
+
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * JwkProvider builder for several issuers
+ * @see MultiIssuerJwkProvider
+ */
+@SuppressWarnings("WeakerAccess")
+public class MultiIssuerJwkProviderBuilder {
+    private final Map<String, URL> urls = new LinkedHashMap<>();
+    private Function<String, URL> resolver;
+    private Integer connectTimeout;
+    private Integer readTimeout;
+    private long minAgeMillis;
+    private long maxAgeMillis;
+    private Executor fetchExecutor;
+    private long maxKeys;
+    private long idleMillis;
+    private boolean eagerPublicKeys;
+    private boolean rateLimited;
+    private long bucketSize;
+    private long refillRate;
+    private TimeUnit refillUnit;
+    private long maxRateLimitedIssuers;
+    private long globalBucketSize;
+    private long globalRefillRate;
+    private TimeUnit globalRefillUnit;
+    private long rateLimitWaitMillis;
+    private JwksMetrics metrics;
+    private HttpTransport transport;
+
+    /**
+     * Creates a new Builder without issuers
+     */
+    public MultiIssuerJwkProviderBuilder() {
+        this.minAgeMillis = UrlJwkProvider.DEFAULT_MAX_AGE;
+        this.maxAgeMillis = UrlJwkProvider.DEFAULT_MAX_AGE;
+        this.maxKeys = 1000;
+        this.idleMillis = TimeUnit.HOURS.toMillis(1);
+        this.rateLimited = true;
+        this.bucketSize = 10;
+        this.refillRate = 1;
+        this.refillUnit = TimeUnit.MINUTES;
+        this.maxRateLimitedIssuers = KeyedBucket.DEFAULT_MAX_PARTITIONS;
+        this.globalBucketSize = 100;
+        this.globalRefillRate = 1;
+        this.globalRefillUnit = TimeUnit.SECONDS;
+        this.metrics = JwksMetrics.NOOP;
+        this.transport = JdkHttpTransport.shared();
+    }
+
+    /**
+     * Adds an issuer
+     *
+     * @param issuer value of the {@code iss} claim of the issuer tokens
+     * @param url    to load the jwks of the issuer
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder issuer(String issuer, URL url) {
+        Preconditions.checkArgument(issuer != null, "A non-null issuer is required");
+        Preconditions.checkArgument(url != null, "A non-null url is required");
+        urls.put(issuer, url);
+        return this;
+    }
+
+    /**
+     * Sets how the jwks url of the issuers not added with {@link #issuer(String, URL)} is found, for example by
+     * appending {@code /protocol/openid-connect/certs} to the issuer for the realms of a Keycloak server.
+     * The function must return null for the issuers that are not trusted.
+     *
+     * @param resolver function from the issuer to the url of its jwks
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder issuers(Function<String, URL> resolver) {
+        Preconditions.checkArgument(resolver != null, "A non-null resolver is required");
+        this.resolver = resolver;
+        return this;
+    }
+
+    /**
+     * Sets the timeouts of the requests to the jwks urls
+     *
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout    read timeout in milliseconds (null for default)
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder timeouts(Integer connectTimeout, Integer readTimeout) {
+        Preconditions.checkArgument(connectTimeout == null || connectTimeout >= 0, "Invalid connect timeout value '" + connectTimeout + "'. Must be a non-negative integer.");
+        Preconditions.checkArgument(readTimeout == null || readTimeout >= 0, "Invalid read timeout value '" + readTimeout + "'. Must be a non-negative integer.");
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Sets how long the jwks of an issuer is used before it is loaded again. The Cache-Control max-age of the jwks
+     * responses is honored within these bounds, see {@link UrlJwkProvider}.
+     *
+     * @param minAge minimum amount of time a jwks snapshot is used
+     * @param maxAge maximum amount of time a jwks snapshot is used
+     * @param unit   unit of the minAge and maxAge parameters
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder maxAge(long minAge, long maxAge, TimeUnit unit) {
+        Preconditions.checkArgument(minAge >= 0, "Invalid min age value '" + minAge + "'. Must be a non-negative number.");
+        Preconditions.checkArgument(maxAge >= minAge, "Invalid max age value '" + maxAge + "'. Must not be less than the min age.");
+        this.minAgeMillis = unit.toMillis(minAge);
+        this.maxAgeMillis = unit.toMillis(maxAge);
+        return this;
+    }
+
+    /**
+     * Sets the memory budget shared by all the issuers. When the jwks of the active issuers hold more keys, the
+     * least recently used issuers are dropped until they are used again.
+     *
+     * @param maxKeys  max number of keys kept in memory, each active issuer counts as one more key
+     * @param idleTime amount of time after which an issuer that is not used is dropped
+     * @param unit     unit of the idleTime parameter
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder budget(long maxKeys, long idleTime, TimeUnit unit) {
+        Preconditions.checkArgument(maxKeys > 0, "Invalid max keys value '" + maxKeys + "'. Must be a positive number.");
+        Preconditions.checkArgument(idleTime > 0, "Invalid idle time value '" + idleTime + "'. Must be a positive number.");
+        this.maxKeys = maxKeys;
+        this.idleMillis = unit.toMillis(idleTime);
+        return this;
+    }
+
+    /**
+     * Set the executor where the jwks of all the issuers are loaded for asynchronous calls.
+     * By default a shared pool of daemon threads is used.
+     *
+     * @param executor executor for the asynchronous loads
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder fetchExecutor(Executor executor) {
+        Preconditions.checkArgument(executor != null, "A non-null executor is required");
+        this.fetchExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Build the public keys of the jwks of an issuer as soon as they are loaded, instead of on first use.
+     *
+     * @param eagerPublicKeys if the public keys should be built when a jwks is loaded
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder eagerPublicKeys(boolean eagerPublicKeys) {
+        this.eagerPublicKeys = eagerPublicKeys;
+        return this;
+    }
+
+    /**
+     * Toggle the rate limit of each issuer jwks loads. By default it is enabled.
+     *
+     * @param rateLimited if the loads should be rate limited
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder rateLimited(boolean rateLimited) {
+        this.rateLimited = rateLimited;
+        return this;
+    }
+
+    /**
+     * Enable the rate limit of each issuer jwks loads, every issuer gets its own bucket under the global one, see
+     * {@link #globalRateLimit(long, long, TimeUnit)}.
+     *
+     * @param bucketSize max number of jwks loads of an issuer in the given rate
+     * @param refillRate amount of time to wait before a load is allowed again
+     * @param unit       unit of time of the refill rate
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder rateLimited(long bucketSize, long refillRate, TimeUnit unit) {
+        Preconditions.checkArgument(bucketSize > 0, "Invalid bucket size.");
+        Preconditions.checkArgument(refillRate > 0, "Invalid bucket refill rate.");
+        this.rateLimited = true;
+        this.bucketSize = bucketSize;
+        this.refillRate = refillRate;
+        this.refillUnit = unit;
+        return this;
+    }
+
+    /**
+     * Sets how many issuers get their own rate limit bucket, 10000 by default. It does not depend on the
+     * {@link #budget(long, long, TimeUnit) budget}: the bucket of an issuer outlives its keys, so that dropping them
+     * does not reset its limit. While that many buckets are kept the next issuers share one bucket, until the bucket
+     * of an issuer expires once it has been idle for the time it takes to refill.
+     *
+     * @param maxIssuers max number of issuer buckets kept
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder maxRateLimitedIssuers(long maxIssuers) {
+        Preconditions.checkArgument(maxIssuers > 0, "Invalid max issuers value '" + maxIssuers + "'. Must be a positive number.");
+        this.maxRateLimitedIssuers = maxIssuers;
+        return this;
+    }
+
+    /**
+     * Limit the jwks loads of all the issuers together, on top of the bucket of each issuer. An issuer that exhausts
+     * its own bucket doesn't consume from this one. By default up to 100 loads are allowed, one more every second.
+     *
+     * @param bucketSize max number of jwks loads of all the issuers in the given rate
+     * @param refillRate amount of time to wait before a load is allowed again
+     * @param unit       unit of time of the refill rate
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder globalRateLimit(long bucketSize, long refillRate, TimeUnit unit) {
+        Preconditions.checkArgument(bucketSize > 0, "Invalid bucket size.");
+        Preconditions.checkArgument(refillRate > 0, "Invalid bucket refill rate.");
+        this.globalBucketSize = bucketSize;
+        this.globalRefillRate = refillRate;
+        this.globalRefillUnit = unit;
+        return this;
+    }
+
+    /**
+     * Wait for the next token when the rate limit of an issuer is reached, instead of failing right away. A request
+     * still fails when the next token refills after the given time. By default it doesn't wait.
+     *
+     * @param maxWait max time to wait for a token
+     * @param unit    unit of time of the max wait
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder rateLimitWait(long maxWait, TimeUnit unit) {
+        Preconditions.checkArgument(maxWait >= 0, "Invalid max wait value '%s'. Must be zero or greater.", maxWait);
+        this.rateLimitWaitMillis = unit.toMillis(maxWait);
+        return this;
+    }
+
+    /**
+     * Report the rate limit rejections and the jwks loads of all the issuers to the given metrics. By default
+     * nothing is reported.
+     *
+     * @param metrics receives the rate limit rejections and jwks loads
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder metrics(JwksMetrics metrics) {
+        Preconditions.checkArgument(metrics != null, "A non-null metrics is required");
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * Send the requests for the jwks of all the issuers through the given transport. By default they go through
+     * {@link JdkHttpTransport#shared()}, a pooled HTTP/2 client shared by all the providers. Urls with their own
+     * {@link java.net.URLStreamHandler} need {@link UrlConnectionTransport#instance()}, the client does not use it.
+     *
+     * @param transport sends the requests for the jwks
+     * @return the builder
+     */
+    public MultiIssuerJwkProviderBuilder transport(HttpTransport transport) {
+        Preconditions.checkArgument(transport != null, "A non-null transport is required");
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * Creates a {@link MultiIssuerJwkProvider}
+     *
+     * @return a newly created {@link MultiIssuerJwkProvider}
+     * @throws IllegalStateException if no issuer was added
+     */
+    public MultiIssuerJwkProvider build() {
+        if (urls.isEmpty() && resolver == null) {
+            throw new IllegalStateException("Cannot build provider without issuers");
+        }
+        final KeyedBucket buckets = rateLimited
+                ? new KeyedBucket(bucketSize, refillRate, refillUnit, maxRateLimitedIssuers, new BucketImpl(globalBucketSize, globalRefillRate, globalRefillUnit))
+                : null;
+        final UrlJwkProvider.Options jwks = new UrlJwkProvider.Options()
+                .timeouts(connectTimeout, readTimeout)
+                .ages(minAgeMillis, maxAgeMillis, TimeUnit.MILLISECONDS)
+                .executor(fetchExecutor)
+                .eagerPublicKeys(eagerPublicKeys)
+                .metrics(metrics)
+                .transport(transport);
+        return new MultiIssuerJwkProvider(urls, resolver, jwks, maxKeys, idleMillis, buckets, rateLimitWaitMillis);
+    }
+}
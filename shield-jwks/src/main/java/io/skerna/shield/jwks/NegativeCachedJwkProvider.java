@@ -0,0 +1,145 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jwk provider that remembers for a short time the kids its base provider confirmed as absent from the jwks.
+ * <br><br> A request for a remembered kid fails right away, without any request for the jwks and without
+ * consuming tokens of a rate limited base provider, unless the base provider has meanwhile obtained that kid
+ * without a new request. Failures to load the jwks are not remembered.
+ * <br><br> Given the {@link UrlJwkProvider} under the base provider, a kid missing from a jwks snapshot loaded less
+ * than the expire time ago is unknown as well, without any request: a flood of made up kids costs at most one load
+ * of the jwks per expire time, instead of one per kid.
+ */
+@SuppressWarnings("WeakerAccess")
+public class NegativeCachedJwkProvider implements AsyncJwkProvider {
+
+    private final Cache<String, Boolean> unknownKeyIds;
+    private final JwkProvider provider;
+    private final JwksMetrics metrics;
+    private final UrlJwkProvider jwks;
+    private final long expiresMillis;
+
+    /**
+     * Creates a new provider remembering up to the given number of unknown kids
+     * @param provider base provider to use for kids not known to be absent
+     * @param size number of unknown kids to remember
+     * @param expiresIn amount of time an unknown kid is remembered
+     * @param expiresUnit unit of the expiresIn parameter
+     */
+    public NegativeCachedJwkProvider(final JwkProvider provider, long size, long expiresIn, TimeUnit expiresUnit) {
+        this(provider, null, size, expiresIn, expiresUnit, JwksMetrics.NOOP);
+    }
+
+    /**
+     * @param jwks provider of the jwks snapshots under the base provider, whose recent snapshots are trusted to
+     *             list every kid (null for none)
+     * @param metrics receives the requests rejected because their kid is remembered as unknown
+     */
+    NegativeCachedJwkProvider(final JwkProvider provider, UrlJwkProvider jwks, long size, long expiresIn, TimeUnit expiresUnit, JwksMetrics metrics) {
+        Preconditions.checkArgument(size > 0, "Invalid size value '" + size + "'. Must be a positive number.");
+        Preconditions.checkArgument(expiresIn > 0, "Invalid expire value '" + expiresIn + "'. Must be a positive number.");
+        this.provider = provider;
+        this.metrics = metrics;
+        this.jwks = jwks;
+        this.expiresMillis = expiresUnit.toMillis(expiresIn);
+        this.unknownKeyIds = CacheBuilder.newBuilder()
+                .maximumSize(size)
+                .expireAfterWrite(expiresIn, expiresUnit)
+                .build();
+    }
+
+    @Override
+    public Jwk get(String keyId) throws JwkException {
+        if (isUnknown(keyId)) {
+            final Jwk jwk = provider.getIfPresent(keyId);
+            if (jwk != null) {
+                unknownKeyIds.invalidate(keyId);
+                return jwk;
+            }
+            metrics.negativeCacheHit();
+            throw new UnknownKeyIdException("No key found with kid " + keyId, keyId);
+        }
+        try {
+            return provider.get(keyId);
+        } catch (UnknownKeyIdException e) {
+            unknownKeyIds.put(keyId, Boolean.TRUE);
+            throw e;
+        }
+    }
+
+    @Override
+    public Jwk getIfPresent(String keyId) {
+        return provider.getIfPresent(keyId);
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getAsync(final String keyId) {
+        if (isUnknown(keyId)) {
+            return AsyncSupport.getIfPresentAsync(provider, keyId).thenCompose(jwk -> {
+                if (jwk != null) {
+                    unknownKeyIds.invalidate(keyId);
+                    return CompletableFuture.completedFuture(jwk);
+                }
+                metrics.negativeCacheHit();
+                return AsyncSupport.failed(new UnknownKeyIdException("No key found with kid " + keyId, keyId));
+            });
+        }
+        return AsyncSupport.getAsync(provider, keyId).whenComplete((jwk, e) -> {
+            if (e != null && AsyncSupport.unwrap(e) instanceof UnknownKeyIdException) {
+                unknownKeyIds.put(keyId, Boolean.TRUE);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getIfPresentAsync(String keyId) {
+        return AsyncSupport.getIfPresentAsync(provider, keyId);
+    }
+
+    /**
+     * @return if the kid is remembered as unknown, or is missing from a snapshot loaded within the expire time
+     */
+    private boolean isUnknown(String keyId) {
+        if (unknownKeyIds.getIfPresent(keyId) != null) {
+            return true;
+        }
+        final JwkSet current = jwks != null ? jwks.peekJwkSet() : null;
+        return current != null
+                && !current.contains(keyId)
+                && System.currentTimeMillis() - current.getFetchedAt() < expiresMillis;
+    }
+
+    @VisibleForTesting
+    JwkProvider getBaseProvider() {
+        return provider;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and caches the OpenID provider metadata of an issuer from its {@code /.well-known/openid-configuration}.
+ * <p>
+ * The metadata is loaded on first use and kept for the Cache-Control max-age of the response, bounded by the min and
+ * max age. After that it is revalidated with a conditional request, so endpoints that move are picked up without
+ * restarting. If the revalidation fails the last metadata is kept and the load is tried again after the min age.
+ * Use it as the source of the jwks url of {@link UrlJwkProvider} and {@link JwkProviderBuilder}.
+ * <p>
+ * Unless a transport is given, the metadata is loaded through {@link JdkHttpTransport#shared()}, the same client
+ * the builders load the jwks with, so both requests to an issuer share its connections and timeouts.
+ */
+@SuppressWarnings("WeakerAccess")
+public class OidcDiscovery {
+
+    @VisibleForTesting
+    static final String WELL_KNOWN_CONFIGURATION_PATH = "/.well-known/openid-configuration";
+    @VisibleForTesting
+    static final long DEFAULT_MIN_AGE = TimeUnit.MINUTES.toMillis(1);
+    @VisibleForTesting
+    static final long DEFAULT_MAX_AGE = TimeUnit.HOURS.toMillis(1);
+
+    private final String issuer;
+    private final URL url;
+    private final Integer connectTimeout;
+    private final Integer readTimeout;
+    private final long minAgeMillis;
+    private final long maxAgeMillis;
+    private final HttpTransport transport;
+    private volatile OidcProviderMetadata metadata;
+    private volatile long expiresAt;
+
+    /**
+     * Creates a discovery of the metadata of the given issuer
+     * @param issuer the issuer, for example "https://sso.example.com/realms/main"
+     */
+    public OidcDiscovery(String issuer) {
+        this(issuer, null, null, DEFAULT_MIN_AGE, DEFAULT_MAX_AGE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a discovery of the metadata of the given issuer
+     * @param issuer the issuer, the metadata is loaded from its well-known path
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param minAge minimum amount of time the metadata is used before it is revalidated
+     * @param maxAge maximum amount of time the metadata is used before it is revalidated
+     * @param unit unit of the minAge and maxAge parameters
+     */
+    public OidcDiscovery(String issuer, Integer connectTimeout, Integer readTimeout, long minAge, long maxAge, TimeUnit unit) {
+        this(issuer, urlForIssuer(issuer), connectTimeout, readTimeout, minAge, maxAge, unit);
+    }
+
+    /**
+     * Creates a discovery of the metadata of the given issuer, loaded from a url other than its well-known path
+     * @param issuer the issuer, the metadata must have the same issuer
+     * @param url to load the metadata
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param minAge minimum amount of time the metadata is used before it is revalidated
+     * @param maxAge maximum amount of time the metadata is used before it is revalidated
+     * @param unit unit of the minAge and maxAge parameters
+     */
+    public OidcDiscovery(String issuer, URL url, Integer connectTimeout, Integer readTimeout, long minAge, long maxAge, TimeUnit unit) {
+        this(issuer, url, connectTimeout, readTimeout, minAge, maxAge, unit, JdkHttpTransport.shared());
+    }
+
+    /**
+     * Creates a discovery of the metadata of the given issuer, loaded with the given transport
+     * @param issuer the issuer, the metadata must have the same issuer
+     * @param url to load the metadata, usually {@code issuer + "/.well-known/openid-configuration"}
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param minAge minimum amount of time the metadata is used before it is revalidated
+     * @param maxAge maximum amount of time the metadata is used before it is revalidated
+     * @param unit unit of the minAge and maxAge parameters
+     * @param transport sends the requests for the metadata, like {@link JdkHttpTransport#shared()}
+     */
+    public OidcDiscovery(String issuer, URL url, Integer connectTimeout, Integer readTimeout, long minAge, long maxAge, TimeUnit unit, HttpTransport transport) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(issuer), "An issuer is required");
+        Preconditions.checkArgument(url != null, "A non-null url is required");
+        Preconditions.checkArgument(connectTimeout == null || connectTimeout >= 0, "Invalid connect timeout value '" + connectTimeout + "'. Must be a non-negative integer.");
+        Preconditions.checkArgument(readTimeout == null || readTimeout >= 0, "Invalid read timeout value '" + readTimeout + "'. Must be a non-negative integer.");
+        Preconditions.checkArgument(minAge >= 0, "Invalid min age value '" + minAge + "'. Must be a non-negative number.");
+        Preconditions.checkArgument(maxAge >= minAge, "Invalid max age value '" + maxAge + "'. Must not be less than the min age.");
+        Preconditions.checkArgument(transport != null, "A non-null transport is required");
+
+        this.issuer = issuer;
+        this.url = url;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.minAgeMillis = unit.toMillis(minAge);
+        this.maxAgeMillis = unit.toMillis(maxAge);
+        this.transport = transport;
+    }
+
+    static URL urlForIssuer(String issuer) {
+        Preconditions.checkArgument(!Strings.isNullOrEmpty(issuer), "An issuer is required");
+        final String base = issuer.endsWith("/") ? issuer.substring(0, issuer.length() - 1) : issuer;
+        try {
+            return new URL(base + WELL_KNOWN_CONFIGURATION_PATH);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid issuer " + issuer, e);
+        }
+    }
+
+    /**
+     * @return the issuer whose metadata is discovered
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * Returns the metadata, loading it on first use or when it is older than its max age
+     * @return the metadata
+     * @throws DiscoveryException if the metadata has never been loaded and cannot be loaded now
+     */
+    public OidcProviderMetadata getMetadata() throws DiscoveryException {
+        final OidcProviderMetadata current = metadata;
+        if (current != null && System.currentTimeMillis() < expiresAt) {
+            return current;
+        }
+        return load(false);
+    }
+
+    /**
+     * Loads the metadata now, even if the current one is not expired
+     * @return the metadata, or the last one if it cannot be loaded
+     * @throws DiscoveryException if the metadata has never been loaded and cannot be loaded now
+     */
+    public OidcProviderMetadata refresh() throws DiscoveryException {
+        return load(true);
+    }
+
+    private synchronized OidcProviderMetadata load(boolean force) throws DiscoveryException {
+        final OidcProviderMetadata current = metadata;
+        if (!force && current != null && System.currentTimeMillis() < expiresAt) {
+            // loaded by another thread meanwhile
+            return current;
+        }
+        try {
+            final OidcProviderMetadata loaded = fetch(current);
+            final long maxAge = loaded.getMaxAge();
+            final long lifetime = maxAge < 0 ? maxAgeMillis : Math.max(minAgeMillis, Math.min(maxAge, maxAgeMillis));
+            metadata = loaded;
+            expiresAt = loaded.getFetchedAt() + lifetime;
+            return loaded;
+        } catch (DiscoveryException e) {
+            if (current == null) {
+                throw e;
+            }
+            // endpoints rarely move, keep using the last metadata while the provider cannot be reached
+            expiresAt = System.currentTimeMillis() + minAgeMillis;
+            return current;
+        }
+    }
+
+    private OidcProviderMetadata fetch(OidcProviderMetadata current) throws DiscoveryException {
+        final Map<String, String> headers = new HashMap<>();
+        if (current != null && current.getEtag() != null) {
+            headers.put("If-None-Match", current.getEtag());
+        }
+        if (current != null && current.getLastModified() != null) {
+            headers.put("If-Modified-Since", current.getLastModified());
+        }
+        final long now = System.currentTimeMillis();
+        try (HttpTransport.Response response = transport.get(url, headers, connectTimeout, readTimeout)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && current != null) {
+                return current.revalidated(now, response.getHeader("ETag"), UrlJwkProvider.parseMaxAge(response.getHeader("Cache-Control")));
+            }
+            if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response status " + response.getStatus());
+            }
+            // the body is closed with the response, which first reads it to its end
+            return read(new JwksParser(response.getBody()), now, response.getHeader("ETag"), response.getHeader("Last-Modified"), UrlJwkProvider.parseMaxAge(response.getHeader("Cache-Control")));
+        } catch (IOException e) {
+            throw new DiscoveryException("Cannot obtain OpenID provider metadata from url " + url.toString(), e);
+        }
+    }
+
+    private OidcProviderMetadata read(JwksParser parser, long now, String etag, String lastModified, long maxAge) throws IOException, DiscoveryException {
+        String issuer = null;
+        String jwksUri = null;
+        String tokenEndpoint = null;
+        String authorizationEndpoint = null;
+        List<String> algs = null;
+        if (parser.beginObject()) {
+            do {
+                switch (parser.nextName()) {
+                    case "issuer":
+                        issuer = parser.nextStringOrNull();
+                        break;
+                    case "jwks_uri":
+                        jwksUri = parser.nextStringOrNull();
+                        break;
+                    case "token_endpoint":
+                        tokenEndpoint = parser.nextStringOrNull();
+                        break;
+                    case "authorization_endpoint":
+                        authorizationEndpoint = parser.nextStringOrNull();
+                        break;
+                    case "id_token_signing_alg_values_supported":
+                        algs = parser.readStrings();
+                        break;
+                    default:
+                        parser.nextValue(0);
+                }
+            } while (parser.nextMember());
+        }
+        if (!this.issuer.equals(issuer)) {
+            // required by OpenID Connect Discovery, prevents using the keys of another issuer
+            throw new DiscoveryException("The issuer '" + issuer + "' of the metadata in " + url + " does not match '" + this.issuer + "'");
+        }
+        if (jwksUri == null) {
+            throw new DiscoveryException("No jwks_uri in the metadata in " + url);
+        }
+        try {
+            return new OidcProviderMetadata(issuer, new URL(jwksUri), tokenEndpoint, authorizationEndpoint, algs, now, etag, lastModified, maxAge);
+        } catch (MalformedURLException e) {
+            throw new DiscoveryException("Invalid jwks_uri in the metadata in " + url, e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Immutable OpenID provider metadata, as published in {@code /.well-known/openid-configuration}, together with the
+ * validators of the response it was loaded from.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class OidcProviderMetadata {
+
+    private final String issuer;
+    private final URL jwksUri;
+    private final String tokenEndpoint;
+    private final String authorizationEndpoint;
+    private final List<String> idTokenSigningAlgValuesSupported;
+    private final long fetchedAt;
+    private final String etag;
+    private final String lastModified;
+    private final long maxAge;
+
+    OidcProviderMetadata(String issuer, URL jwksUri, String tokenEndpoint, String authorizationEndpoint,
+                         List<String> idTokenSigningAlgValuesSupported, long fetchedAt, String etag, String lastModified, long maxAge) {
+        this.issuer = issuer;
+        this.jwksUri = jwksUri;
+        this.tokenEndpoint = tokenEndpoint;
+        this.authorizationEndpoint = authorizationEndpoint;
+        this.idTokenSigningAlgValuesSupported = idTokenSigningAlgValuesSupported != null
+                ? ImmutableList.copyOf(idTokenSigningAlgValuesSupported)
+                : ImmutableList.<String>of();
+        this.fetchedAt = fetchedAt;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Returns the same metadata, confirmed as current by a not modified response.
+     */
+    OidcProviderMetadata revalidated(long fetchedAt, String etag, long maxAge) {
+        return new OidcProviderMetadata(issuer, jwksUri, tokenEndpoint, authorizationEndpoint, idTokenSigningAlgValuesSupported,
+                fetchedAt, etag != null ? etag : this.etag, lastModified, maxAge);
+    }
+
+    /**
+     * @return the {@code issuer}, the same as the {@code iss} claim of the provider tokens
+     */
+    public String getIssuer() {
+        return issuer;
+    }
+
+    /**
+     * @return the {@code jwks_uri}, where the signing keys are published
+     */
+    public URL getJwksUri() {
+        return jwksUri;
+    }
+
+    /**
+     * @return the {@code token_endpoint}, or null if the provider only supports the implicit flow
+     */
+    public String getTokenEndpoint() {
+        return tokenEndpoint;
+    }
+
+    /**
+     * @return the {@code authorization_endpoint}
+     */
+    public String getAuthorizationEndpoint() {
+        return authorizationEndpoint;
+    }
+
+    /**
+     * @return the {@code id_token_signing_alg_values_supported}, empty if not published
+     */
+    public List<String> getIdTokenSigningAlgValuesSupported() {
+        return idTokenSigningAlgValuesSupported;
+    }
+
+    /**
+     * @return time in milliseconds since the epoch when the metadata was loaded or last revalidated
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return the ETag of the response, or null
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return the Last-Modified of the response, or null
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the Cache-Control max-age of the response in milliseconds, or -1 if it had none
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("issuer", issuer)
+                .add("jwksUri", jwksUri)
+                .add("tokenEndpoint", tokenEndpoint)
+                .add("algs", idTokenSigningAlgValuesSupported)
+                .add("fetchedAt", fetchedAt)
+                .toString();
+    }
+}
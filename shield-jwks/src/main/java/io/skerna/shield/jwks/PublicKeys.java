@@ -0,0 +1,150 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.codec.binary.Base64;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.KeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the {@link PublicKey} of a jwk from its members, for the key types {@code RSA}, {@code EC} with the curves
+ * P-256, P-384 and P-521, and {@code OKP} with the curve Ed25519.
+ */
+final class PublicKeys {
+
+    private static final Map<String, String> EC_CURVES = ImmutableMap.of(
+            "P-256", "secp256r1",
+            "P-384", "secp384r1",
+            "P-521", "secp521r1");
+
+    // DER prefix of the SubjectPublicKeyInfo of an Ed25519 key (RFC 8410), followed by the 32 bytes of the key
+    private static final byte[] ED25519_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+    private static final int ED25519_KEY_LENGTH = 32;
+
+    private static final Map<String, ECParameterSpec> EC_PARAMETERS = new ConcurrentHashMap<>();
+
+    private PublicKeys() {
+    }
+
+    /**
+     * @return the public key, or null if the key type has none
+     */
+    static PublicKey of(String type, Map<String, Object> values) throws InvalidPublicKeyException {
+        if ("RSA".equalsIgnoreCase(type)) {
+            return rsa(values);
+        }
+        if ("EC".equalsIgnoreCase(type)) {
+            return ec(values);
+        }
+        if ("OKP".equalsIgnoreCase(type)) {
+            return okp(values);
+        }
+        return null;
+    }
+
+    private static PublicKey rsa(Map<String, Object> values) throws InvalidPublicKeyException {
+        final byte[] n = decode(values, "n");
+        final byte[] e = decode(values, "e");
+        if (n == null || e == null) {
+            throw new InvalidPublicKeyException("Invalid public key, the modulus and exponent are required", null);
+        }
+        return generate("RSA", new RSAPublicKeySpec(new BigInteger(1, n), new BigInteger(1, e)));
+    }
+
+    private static PublicKey ec(Map<String, Object> values) throws InvalidPublicKeyException {
+        final Object crv = values.get("crv");
+        final String curve = EC_CURVES.get(crv);
+        if (curve == null) {
+            throw new InvalidPublicKeyException("Unsupported elliptic curve '" + crv + "'", null);
+        }
+        final ECParameterSpec parameters = ecParameters(curve);
+        final int length = (parameters.getCurve().getField().getFieldSize() + 7) / 8;
+        final byte[] x = decode(values, "x");
+        final byte[] y = decode(values, "y");
+        if (x == null || y == null || x.length != length || y.length != length) {
+            throw new InvalidPublicKeyException("Invalid public key, the coordinates of a " + crv + " key must have " + length + " bytes", null);
+        }
+        return generate("EC", new ECPublicKeySpec(new ECPoint(new BigInteger(1, x), new BigInteger(1, y)), parameters));
+    }
+
+    private static PublicKey okp(Map<String, Object> values) throws InvalidPublicKeyException {
+        final Object crv = values.get("crv");
+        if (!"Ed25519".equals(crv)) {
+            throw new InvalidPublicKeyException("Unsupported octet key pair curve '" + crv + "'", null);
+        }
+        final byte[] x = decode(values, "x");
+        if (x == null || x.length != ED25519_KEY_LENGTH) {
+            throw new InvalidPublicKeyException("Invalid public key, an Ed25519 key must have " + ED25519_KEY_LENGTH + " bytes", null);
+        }
+        final byte[] encoded = new byte[ED25519_PREFIX.length + ED25519_KEY_LENGTH];
+        System.arraycopy(ED25519_PREFIX, 0, encoded, 0, ED25519_PREFIX.length);
+        System.arraycopy(x, 0, encoded, ED25519_PREFIX.length, ED25519_KEY_LENGTH);
+        return generate("Ed25519", new X509EncodedKeySpec(encoded));
+    }
+
+    private static ECParameterSpec ecParameters(String curve) throws InvalidPublicKeyException {
+        ECParameterSpec parameters = EC_PARAMETERS.get(curve);
+        if (parameters == null) {
+            try {
+                final AlgorithmParameters algorithmParameters = AlgorithmParameters.getInstance("EC");
+                algorithmParameters.init(new ECGenParameterSpec(curve));
+                parameters = algorithmParameters.getParameterSpec(ECParameterSpec.class);
+            } catch (GeneralSecurityException e) {
+                throw new InvalidPublicKeyException("Invalid algorithm to generate key", e);
+            }
+            EC_PARAMETERS.put(curve, parameters);
+        }
+        return parameters;
+    }
+
+    private static PublicKey generate(String algorithm, KeySpec spec) throws InvalidPublicKeyException {
+        try {
+            return KeyFactory.getInstance(algorithm).generatePublic(spec);
+        } catch (InvalidKeySpecException e) {
+            throw new InvalidPublicKeyException("Invalid public key", e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new InvalidPublicKeyException("Invalid algorithm to generate key", e);
+        }
+    }
+
+    private static byte[] decode(Map<String, Object> values, String name) {
+        final Object value = values.get(name);
+        return value instanceof String ? Base64.decodeBase64((String) value) : null;
+    }
+}
@@ -23,15 +23,30 @@
 package io.skerna.shield.jwks;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Jwk provider that limits the amount of Jwks to deliver in a given rate.
+ * <br><br> Jwks the base provider can return without a new request, like the ones of a jwks request already in
+ * progress, don't consume tokens from the bucket.
+ * <br><br> A partitioned provider also gives each issuer or caller its own bucket, see {@link #forPartition(String)},
+ * so one of them requesting unknown kids cannot exhaust the requests of the others.
+ * <br><br> With a max wait, a request that finds the bucket empty waits for the next token instead of failing, as
+ * long as the token refills before the wait is over. The thread is parked meanwhile, so it is released when it is a
+ * virtual thread, and {@link #getAsync(String)} schedules the retry instead of blocking.
  */
 @SuppressWarnings("WeakerAccess")
-public class RateLimitedJwkProvider implements JwkProvider {
+public class RateLimitedJwkProvider implements AsyncJwkProvider {
 
     private final JwkProvider provider;
     private final Bucket bucket;
+    private final KeyedBucket partitions;
+    private final long maxWaitNanos;
+    private final JwksMetrics metrics;
 
     /**
      * Creates a new provider that will check the given Bucket if a jwks can be provided now.
@@ -40,18 +55,185 @@ public class RateLimitedJwkProvider implements JwkProvider {
      * @param provider provider to use to request jwk when the bucket allows it.
      */
     public RateLimitedJwkProvider(JwkProvider provider, Bucket bucket) {
+        this(provider, bucket, 0, JwksMetrics.NOOP);
+    }
+
+    /**
+     * Creates a new provider that limits the jwks requested by each partition and by all of them together.
+     * Up to 10000 partitions get their own bucket, the next ones share one until a partition has been idle for the
+     * time its bucket takes to refill, and is forgotten.
+     *
+     * @param provider            provider to use to request jwk when the buckets allow it.
+     * @param partitionBucketSize max number of jwks a partition can request in the given rate.
+     * @param partitionRefillRate amount of time to wait before a partition can request a jwk again.
+     * @param bucketSize          max number of jwks all the partitions can request in the given rate.
+     * @param refillRate          amount of time to wait before any partition can request a jwk again.
+     * @param unit                unit of time of the refill rates.
+     */
+    public RateLimitedJwkProvider(JwkProvider provider, long partitionBucketSize, long partitionRefillRate, long bucketSize, long refillRate, TimeUnit unit) {
+        this(provider, new KeyedBucket(partitionBucketSize, partitionRefillRate, unit, KeyedBucket.DEFAULT_MAX_PARTITIONS, new BucketImpl(bucketSize, refillRate, unit)), 0, JwksMetrics.NOOP);
+    }
+
+    /**
+     * @param maxWaitMillis max time to wait for a token when the bucket is empty, zero to fail right away
+     * @param metrics       receives the rejected requests and their wait time
+     */
+    RateLimitedJwkProvider(JwkProvider provider, Bucket bucket, long maxWaitMillis, JwksMetrics metrics) {
+        this(provider, bucket, null, maxWaitMillis, metrics);
+    }
+
+    /**
+     * @param partitions    the buckets of the partitions, {@link #get(String)} only consumes from their global bucket
+     * @param maxWaitMillis max time to wait for a token when the bucket is empty, zero to fail right away
+     * @param metrics       receives the rejected requests and their wait time
+     */
+    RateLimitedJwkProvider(JwkProvider provider, KeyedBucket partitions, long maxWaitMillis, JwksMetrics metrics) {
+        this(provider, partitions.global(), partitions, maxWaitMillis, metrics);
+    }
+
+    private RateLimitedJwkProvider(JwkProvider provider, Bucket bucket, KeyedBucket partitions, long maxWaitMillis, JwksMetrics metrics) {
+        Preconditions.checkArgument(maxWaitMillis >= 0, "Invalid max wait value '%s'. Must be zero or greater.", maxWaitMillis);
         this.provider = provider;
         this.bucket = bucket;
+        this.partitions = partitions;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns a provider whose requests consume from the bucket of the given partition, and then from the bucket
+     * shared by all of them. It is only a view, the jwks are requested to the same base provider.
+     *
+     * @param partitionKey the issuer, tenant or any other caller the requests are made for
+     * @return the provider limited by the partition bucket
+     * @throws IllegalStateException if this provider is not partitioned
+     */
+    public AsyncJwkProvider forPartition(String partitionKey) {
+        if (partitions == null) {
+            throw new IllegalStateException("The provider was not created with partition buckets");
+        }
+        final Bucket partitionBucket = partitions.forKey(partitionKey);
+        return new AsyncJwkProvider() {
+            @Override
+            public Jwk get(String keyId) throws JwkException {
+                return RateLimitedJwkProvider.this.get(partitionBucket, keyId, maxWaitNanos);
+            }
+
+            @Override
+            public Jwk getIfPresent(String keyId) {
+                return provider.getIfPresent(keyId);
+            }
+
+            @Override
+            public CompletableFuture<Jwk> getAsync(String keyId) {
+                return RateLimitedJwkProvider.this.getAsync(partitionBucket, keyId, System.nanoTime() + maxWaitNanos);
+            }
+
+            @Override
+            public CompletableFuture<Jwk> getIfPresentAsync(String keyId) {
+                return AsyncSupport.getIfPresentAsync(provider, keyId);
+            }
+        };
     }
 
     @Override
     public Jwk get(final String keyId) throws JwkException {
-        if (!bucket.consume()) {
-            throw new RateLimitReachedException(bucket.willLeakIn());
+        return get(bucket, keyId, maxWaitNanos);
+    }
+
+    /**
+     * Returns the jwk, waiting up to the given time for a token when the bucket is empty. It fails right away when
+     * the next token refills after the wait is over.
+     *
+     * @param keyId   the kid of the jwk
+     * @param timeout max time to wait for a token
+     * @param unit    unit of time of the timeout
+     * @return the jwk
+     * @throws RateLimitReachedException if no token refills in time
+     * @throws SigningKeyNotFoundException if the thread is interrupted while waiting
+     * @throws JwkException if the base provider fails
+     */
+    public Jwk get(final String keyId, long timeout, TimeUnit unit) throws JwkException {
+        Preconditions.checkArgument(timeout >= 0, "Invalid timeout value '%s'. Must be zero or greater.", timeout);
+        return get(bucket, keyId, unit.toNanos(timeout));
+    }
+
+    private Jwk get(Bucket bucket, String keyId, long waitNanos) throws JwkException {
+        Jwk jwk = provider.getIfPresent(keyId);
+        if (jwk != null) {
+            return jwk;
+        }
+        final long deadline = System.nanoTime() + waitNanos;
+        while (!bucket.consume()) {
+            // a request started meanwhile by another caller may bring the key
+            jwk = provider.getIfPresent(keyId);
+            if (jwk != null) {
+                return jwk;
+            }
+            final long willLeakIn = bucket.willLeakIn();
+            final long parkNanos = TimeUnit.MILLISECONDS.toNanos(willLeakIn);
+            if (parkNanos > deadline - System.nanoTime()) {
+                throw rateLimitReached(willLeakIn);
+            }
+            LockSupport.parkNanos(this, parkNanos);
+            if (Thread.currentThread().isInterrupted()) {
+                throw new SigningKeyNotFoundException("Interrupted while waiting for the rate limit to get key with kid " + keyId, null);
+            }
         }
         return provider.get(keyId);
     }
 
+    private RateLimitReachedException rateLimitReached(long willLeakIn) {
+        metrics.rateLimited(willLeakIn);
+        return new RateLimitReachedException(willLeakIn);
+    }
+
+    @Override
+    public Jwk getIfPresent(String keyId) {
+        return provider.getIfPresent(keyId);
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getAsync(final String keyId) {
+        return getAsync(bucket, keyId, System.nanoTime() + maxWaitNanos);
+    }
+
+    /**
+     * Returns the jwk without blocking, retrying when the next token refills if it does before the deadline.
+     */
+    private CompletableFuture<Jwk> getAsync(final Bucket bucket, final String keyId, final long deadline) {
+        return AsyncSupport.getIfPresentAsync(provider, keyId).thenCompose(jwk -> {
+            if (jwk != null) {
+                return CompletableFuture.completedFuture(jwk);
+            }
+            if (bucket.consume()) {
+                return AsyncSupport.getAsync(provider, keyId);
+            }
+            // a request started meanwhile by another caller may bring the key
+            return AsyncSupport.getIfPresentAsync(provider, keyId).thenCompose(present -> {
+                if (present != null) {
+                    return CompletableFuture.completedFuture(present);
+                }
+                final long willLeakIn = bucket.willLeakIn();
+                if (TimeUnit.MILLISECONDS.toNanos(willLeakIn) > deadline - System.nanoTime()) {
+                    return AsyncSupport.<Jwk>failed(rateLimitReached(willLeakIn));
+                }
+                return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(willLeakIn, TimeUnit.MILLISECONDS))
+                        .thenCompose(ignored -> getAsync(bucket, keyId, deadline));
+            });
+        });
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getIfPresentAsync(String keyId) {
+        return AsyncSupport.getIfPresentAsync(provider, keyId);
+    }
+
+    @VisibleForTesting
+    KeyedBucket getPartitions() {
+        return partitions;
+    }
+
     @VisibleForTesting
     JwkProvider getBaseProvider() {
         return provider;
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+/**
+ * Transport opening a {@link URLConnection} for every request, so it works for any url the JDK can open, like files
+ * and class path resources. Reusing the connections is left to the implicit keep-alive of the JDK.
+ * <br><br> It is what the {@link UrlJwkProvider} constructors use, and what a builder needs for urls created with a
+ * custom {@link java.net.URLStreamHandler}, which the {@link java.net.http.HttpClient} of {@link JdkHttpTransport}
+ * never goes through.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class UrlConnectionTransport implements HttpTransport {
+
+    static final UrlConnectionTransport INSTANCE = new UrlConnectionTransport();
+
+    private UrlConnectionTransport() {
+    }
+
+    /**
+     * @return the transport opening a {@link URLConnection} for every request
+     */
+    public static UrlConnectionTransport instance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public Response get(URL url, Map<String, String> headers, Integer connectTimeout, Integer readTimeout) throws IOException {
+        final URLConnection c = url.openConnection();
+        if (connectTimeout != null) {
+            c.setConnectTimeout(connectTimeout);
+        }
+        if (readTimeout != null) {
+            c.setReadTimeout(readTimeout);
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            c.setRequestProperty(header.getKey(), header.getValue());
+        }
+        final int status = c instanceof HttpURLConnection ? ((HttpURLConnection) c).getResponseCode() : HttpURLConnection.HTTP_OK;
+        return new UrlConnectionResponse(c, status);
+    }
+
+    private static final class UrlConnectionResponse implements Response {
+        private final URLConnection connection;
+        private final int status;
+        private InputStream body;
+
+        UrlConnectionResponse(URLConnection connection, int status) {
+            this.connection = connection;
+            this.status = status;
+        }
+
+        @Override
+        public int getStatus() {
+            return status;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return connection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = connection.getInputStream();
+            }
+            return body;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (body != null) {
+                try (InputStream in = body) {
+                    ByteStreams.exhaust(ByteStreams.limit(in, JdkHttpTransport.MAX_DRAINED_BYTES));
+                }
+            } else if (connection instanceof HttpURLConnection) {
+                // release the connection of a response whose body was not read, like a 304
+                final InputStream error = ((HttpURLConnection) connection).getErrorStream();
+                if (error != null) {
+                    error.close();
+                } else if (status < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    connection.getInputStream().close();
+                }
+            }
+        }
+    }
+}
@@ -25,33 +25,74 @@ package io.skerna.shield.jwks;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
-import com.google.common.collect.Lists;
-import org.json.JSONArray;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
 /**
- * Jwk provider that loads them from a {@link URL}
+ * Jwk provider that loads them from a {@link URL}.
+ * <br><br> The whole jwks document is kept as an immutable {@link JwkSet} snapshot indexed by kid, so a lookup
+ * of a known kid is a single map probe. The snapshot is replaced on a miss or once it is older than its max age.
+ * Concurrent reloads are coalesced: while one request for the jwks is in progress every other caller waits for
+ * its result instead of starting another one.
+ * <br><br> Over HTTP a reload is a conditional request using the ETag and Last-Modified of the current snapshot,
+ * a 304 response keeps the parsed keys. The max-age of the Cache-Control header can drive the snapshot lifetime
+ * within the bounds given to {@link #UrlJwkProvider(URL, Integer, Integer, long, long, TimeUnit)}.
+ * <br><br> With a {@link FileJwkSetStore} every loaded snapshot with new keys is also written to a local file, and a
+ * new provider starts serving the stored one without any request; see {@link #refreshAsync(Executor)} to revalidate
+ * it. A revalidation that keeps the keys is not written, so a 304 response never touches the disk.
+ * <br><br> The constructors open a {@link java.net.URLConnection} for every request. The providers created by
+ * {@link JwkProviderBuilder} send them through a {@link HttpTransport}, by default {@link JdkHttpTransport#shared()}.
  */
 @SuppressWarnings("WeakerAccess")
-public class UrlJwkProvider implements JwkProvider {
+public class UrlJwkProvider implements AsyncJwkProvider {
 
     @VisibleForTesting
     static final String WELL_KNOWN_JWKS_PATH = "/.well-known/jwks.json";
 
-    final URL url;
+    @VisibleForTesting
+    static final long DEFAULT_MAX_AGE = TimeUnit.HOURS.toMillis(10);
+
+    /**
+     * Time after a failed load before {@link #getLastKnown(String)} starts another one in the background
+     */
+    static final long LAST_KNOWN_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    volatile URL url;
+    private final OidcDiscovery discovery;
     private final Integer connectTimeout;
     private final Integer readTimeout;
+    private final long minAgeMillis;
+    private final long maxAgeMillis;
+    private final FileJwkSetStore store;
+    private final Executor executor;
+    private final boolean eagerPublicKeys;
+    private final JwksMetrics metrics;
+    private final HttpTransport transport;
+    private volatile JwkSet snapshot;
+    // the snapshot read from the store, until the first load after it finishes
+    private volatile JwkSet restored;
+    private volatile long failedAt;
+    private final AtomicReference<CompletableFuture<JwkSet>> inFlight = new AtomicReference<>();
 
     /**
      * Creates a provider that loads from the given URL
@@ -68,13 +109,157 @@ public class UrlJwkProvider implements JwkProvider {
      * @param readTimeout read timeout in milliseconds (null for default)
      */
     public UrlJwkProvider(URL url, Integer connectTimeout, Integer readTimeout) {
-        Preconditions.checkArgument(url != null, "A non-null url is required");
+        this(url, connectTimeout, readTimeout, DEFAULT_MAX_AGE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a provider that loads from the given URL
+     * @param url to load the jwks
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param maxAge amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param maxAgeUnit unit of the maxAge parameter
+     */
+    public UrlJwkProvider(URL url, Integer connectTimeout, Integer readTimeout, long maxAge, TimeUnit maxAgeUnit) {
+        this(url, connectTimeout, readTimeout, maxAge, maxAge, maxAgeUnit);
+    }
+
+    /**
+     * Creates a provider that loads from the given URL and honors the max-age of the Cache-Control response header.
+     * A snapshot served without max-age is used for maxAge, one served with no-cache or no-store for minAge.
+     * @param url to load the jwks
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param minAge minimum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param maxAge maximum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param unit unit of the minAge and maxAge parameters
+     */
+    public UrlJwkProvider(URL url, Integer connectTimeout, Integer readTimeout, long minAge, long maxAge, TimeUnit unit) {
+        this(url, connectTimeout, readTimeout, minAge, maxAge, unit, null);
+    }
+
+    /**
+     * Creates a provider that loads from the given URL and keeps the last loaded jwks in a local file.
+     * If the file already holds a snapshot it is served right away, with the time it was loaded, keeping its
+     * validators so the next load can be a cheap conditional request. A stored snapshot older than its max age is
+     * stale: it is only served while the first load of the provider, started by the first lookup, is in progress.
+     * @param url to load the jwks
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param minAge minimum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param maxAge maximum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param unit unit of the minAge and maxAge parameters
+     * @param store where the snapshots are kept between restarts (null for none)
+     */
+    public UrlJwkProvider(URL url, Integer connectTimeout, Integer readTimeout, long minAge, long maxAge, TimeUnit unit, FileJwkSetStore store) {
+        this(url, connectTimeout, readTimeout, minAge, maxAge, unit, store, null);
+    }
+
+    /**
+     * Creates a provider that loads from the given URL, running the loads started by {@link #getAsync(String)}
+     * on the given executor.
+     * @param url to load the jwks
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param minAge minimum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param maxAge maximum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param unit unit of the minAge and maxAge parameters
+     * @param store where the snapshots are kept between restarts (null for none)
+     * @param executor executor for asynchronous loads (null for a shared pool of daemon threads)
+     */
+    public UrlJwkProvider(URL url, Integer connectTimeout, Integer readTimeout, long minAge, long maxAge, TimeUnit unit, FileJwkSetStore store, Executor executor) {
+        this(new Options()
+                .timeouts(connectTimeout, readTimeout)
+                .ages(minAge, maxAge, unit)
+                .store(store)
+                .executor(executor), checkUrl(url), null);
+    }
+
+    /**
+     * Creates a provider that loads from the jwks_uri of the OpenID provider metadata. The metadata is checked on
+     * every load of the jwks, so a jwks_uri that moves is followed without creating a new provider.
+     * @param discovery metadata of the issuer of the jwks
+     * @param connectTimeout connection timeout in milliseconds (null for default)
+     * @param readTimeout read timeout in milliseconds (null for default)
+     * @param minAge minimum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param maxAge maximum amount of time a loaded jwks snapshot is used before it is loaded again
+     * @param unit unit of the minAge and maxAge parameters
+     * @param store where the snapshots are kept between restarts (null for none)
+     * @param executor executor for asynchronous loads (null for a shared pool of daemon threads)
+     */
+    public UrlJwkProvider(OidcDiscovery discovery, Integer connectTimeout, Integer readTimeout, long minAge, long maxAge, TimeUnit unit, FileJwkSetStore store, Executor executor) {
+        this(new Options()
+                .timeouts(connectTimeout, readTimeout)
+                .ages(minAge, maxAge, unit)
+                .store(store)
+                .executor(executor), null, checkDiscovery(discovery));
+    }
+
+    /**
+     * Creates a provider with all the options, either url or discovery must be set
+     * @param options the settings of the provider, read once
+     * @param url to load the jwks, or null to load them from the jwks_uri of the discovery
+     * @param discovery metadata of the issuer of the jwks, or null
+     */
+    UrlJwkProvider(Options options, URL url, OidcDiscovery discovery) {
+        final Integer connectTimeout = options.connectTimeout;
+        final Integer readTimeout = options.readTimeout;
         Preconditions.checkArgument(connectTimeout == null || connectTimeout >= 0, "Invalid connect timeout value '" + connectTimeout + "'. Must be a non-negative integer.");
         Preconditions.checkArgument(readTimeout == null || readTimeout >= 0, "Invalid read timeout value '" + readTimeout + "'. Must be a non-negative integer.");
-        
+        Preconditions.checkArgument(options.minAgeMillis >= 0, "Invalid min age value '" + options.minAgeMillis + "'. Must be a non-negative number.");
+        Preconditions.checkArgument(options.maxAgeMillis >= options.minAgeMillis, "Invalid max age value '" + options.maxAgeMillis + "'. Must not be less than the min age.");
+
         this.url = url;
+        this.discovery = discovery;
         this.connectTimeout = connectTimeout;
         this.readTimeout = readTimeout;
+        this.minAgeMillis = options.minAgeMillis;
+        this.maxAgeMillis = options.maxAgeMillis;
+        this.store = options.store;
+        this.executor = options.executor != null ? options.executor : DefaultExecutor.INSTANCE;
+        this.eagerPublicKeys = options.eagerPublicKeys;
+        this.metrics = options.metrics;
+        this.transport = options.transport;
+        this.snapshot = restore(store);
+        this.restored = snapshot;
+        if (eagerPublicKeys && snapshot != null) {
+            snapshot.materializePublicKeys();
+        }
+    }
+
+    private static URL checkUrl(URL url) {
+        Preconditions.checkArgument(url != null, "A non-null url is required");
+        return url;
+    }
+
+    private static OidcDiscovery checkDiscovery(OidcDiscovery discovery) {
+        Preconditions.checkArgument(discovery != null, "A non-null discovery is required");
+        return discovery;
+    }
+
+    private static JwkSet restore(FileJwkSetStore store) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            // keeps the time it was fetched, an old snapshot is stale and not served as just loaded
+            return store.load();
+        } catch (IOException e) {
+            // an unreadable snapshot is the same as none, the first lookup loads the jwks from the url
+            return null;
+        }
+    }
+
+    private void save(JwkSet jwks, JwkSet previous) {
+        if (store == null || (previous != null && jwks.hasSameKeys(previous))) {
+            // a revalidation only changes the fetch time, the stored snapshot is revalidated again on restart
+            return;
+        }
+        try {
+            store.save(jwks);
+        } catch (IOException ignored) {
+            // the in-memory snapshot is still valid, the next load will try to write it again
+        }
     }
 
     /**
@@ -106,54 +291,446 @@ public class UrlJwkProvider implements JwkProvider {
         }
     }
 
-    private JSONObject getJwks() throws SigningKeyNotFoundException {
+    /**
+     * Returns the url to load the jwks from, asking the discovery for the current jwks_uri if there is one.
+     */
+    private URL location() throws SigningKeyNotFoundException {
+        if (discovery == null) {
+            return url;
+        }
         try {
-            final URLConnection c = this.url.openConnection();
-            if(connectTimeout != null) {
-                c.setConnectTimeout(connectTimeout);
-            }
-            if(readTimeout != null) {
-                c.setReadTimeout(readTimeout);
-            }
-            final InputStream inputStream = c.getInputStream();
+            final URL jwksUri = discovery.getMetadata().getJwksUri();
+            url = jwksUri;
+            return jwksUri;
+        } catch (DiscoveryException e) {
+            throw new SigningKeyNotFoundException("Cannot discover the jwks url of issuer " + discovery.getIssuer(), e);
+        }
+    }
 
-            JSONObject jsonObject = new JSONObject(new JSONTokener(inputStream));
+    private String source() {
+        final URL url = this.url;
+        return url != null ? url.toString() : "the jwks_uri of issuer " + discovery.getIssuer();
+    }
 
-            return jsonObject;
+    private JwkSet fetch(JwkSet current) throws SigningKeyNotFoundException {
+        final URL previous = this.url;
+        final URL url = location();
+        if (previous == null || !previous.toExternalForm().equals(url.toExternalForm())) {
+            // the validators of the snapshot are from another url
+            current = null;
+        }
+        final Map<String, String> headers = new HashMap<>();
+        if (current != null && current.getEtag() != null) {
+            headers.put("If-None-Match", current.getEtag());
+        }
+        if (current != null && current.getLastModified() != null) {
+            headers.put("If-Modified-Since", current.getLastModified());
+        }
+        final long start = System.nanoTime();
+        boolean fetched = false;
+        final long now = System.currentTimeMillis();
+        try (HttpTransport.Response response = transport.get(url, headers, connectTimeout, readTimeout)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && current != null) {
+                fetched = true;
+                metrics.notModified(System.nanoTime() - start);
+                return current.revalidated(now, response.getHeader("ETag"), parseMaxAge(response.getHeader("Cache-Control")));
+            }
+            if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Unexpected response status " + response.getStatus());
+            }
+            final List<Jwk> keys;
+            final CountingInputStream body = new CountingInputStream(response.getBody());
+            final long parseStart = System.nanoTime();
+            try {
+                // the body is closed with the response, which first reads it to its end
+                keys = new JwksParser(body).readJwks();
+            } catch (IllegalArgumentException e) {
+                throw new SigningKeyNotFoundException("Failed to parse jwk from json", e);
+            }
+            final long end = System.nanoTime();
+            metrics.parsed(end - parseStart, keys.size());
+            if (keys.isEmpty()) {
+                throw new SigningKeyNotFoundException("No keys found in " + url.toString(), null);
+            }
+            fetched = true;
+            metrics.fetched(end - start, body.getCount());
+            return JwkSet.of(keys, now, response.getHeader("ETag"), response.getHeader("Last-Modified"), parseMaxAge(response.getHeader("Cache-Control")));
         } catch (IOException e) {
             throw new SigningKeyNotFoundException("Cannot obtain jwks from url " + url.toString(), e);
+        } finally {
+            if (!fetched) {
+                metrics.fetchFailed(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Reads the max-age of a Cache-Control header value.
+     * @param cacheControl value of the header, may be null
+     * @return max-age in milliseconds, 0 for no-cache or no-store, or -1 if the header doesn't set it
+     */
+    @VisibleForTesting
+    static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        long maxAge = -1;
+        for (String directive : cacheControl.split(",")) {
+            final String value = directive.trim().toLowerCase(Locale.ROOT);
+            if (value.equals("no-cache") || value.equals("no-store")) {
+                return 0;
+            }
+            if (value.startsWith("max-age=")) {
+                try {
+                    maxAge = TimeUnit.SECONDS.toMillis(Long.parseLong(value.substring("max-age=".length()).trim()));
+                } catch (NumberFormatException ignored) {
+                    // malformed directive, same as absent
+                }
+            }
+        }
+        return maxAge;
+    }
+
+    private boolean isExpired(JwkSet jwks, long now) {
+        final long maxAge = jwks.getMaxAge();
+        final long lifetime = maxAge < 0 ? maxAgeMillis : Math.max(minAgeMillis, Math.min(maxAge, maxAgeMillis));
+        return jwks.isExpired(now, lifetime);
+    }
+
+    /**
+     * Returns the current snapshot of the jwks, loading it when there is none or it is older than the max age.
+     * @return the jwks snapshot
+     * @throws SigningKeyNotFoundException if the jwks cannot be loaded
+     */
+    public JwkSet getJwkSet() throws SigningKeyNotFoundException {
+        final JwkSet jwks = snapshot;
+        if (jwks == null || isExpired(jwks, System.currentTimeMillis())) {
+            return refresh();
         }
+        return jwks;
+    }
+
+    /**
+     * @return the current snapshot, without loading it, or null if there is none
+     */
+    JwkSet peekJwkSet() {
+        return snapshot;
     }
 
-    private List<Jwk> getAll() throws SigningKeyNotFoundException {
-        List<Jwk> jwks = Lists.newArrayList();
-        @SuppressWarnings("unchecked")
-        final JSONArray keys =  getJwks().getJSONArray("keys");
+    /**
+     * Loads the jwks from the url and atomically replaces the current snapshot.
+     * If a load is already in progress its result is returned instead of starting another one.
+     * @return the new snapshot
+     * @throws SigningKeyNotFoundException if the jwks cannot be loaded, the current snapshot is kept
+     */
+    public JwkSet refresh() throws SigningKeyNotFoundException {
+        final CompletableFuture<JwkSet> fetch = new CompletableFuture<>();
+        final CompletableFuture<JwkSet> current = startFetch(fetch);
+        return current != null ? await(current) : load(fetch);
+    }
+
+    /**
+     * Loads the jwks from the url on the given executor, keeping the current snapshot in use meanwhile.
+     * If a load is already in progress its future is returned instead of starting another one.
+     * @param executor executor that runs the load
+     * @return the future of the new snapshot
+     */
+    public CompletableFuture<JwkSet> refreshAsync(Executor executor) {
+        final CompletableFuture<JwkSet> fetch = new CompletableFuture<>();
+        final CompletableFuture<JwkSet> current = startFetch(fetch);
+        if (current != null) {
+            return current;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        load(fetch);
+                    } catch (SigningKeyNotFoundException | RuntimeException ignored) {
+                        // the future has been completed with it
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            fetch.completeExceptionally(e);
+            inFlight.compareAndSet(fetch, null);
+        }
+        return fetch;
+    }
+
+    /**
+     * Registers the given future as the load in progress.
+     * @return null if the caller must now run the load, or the future of the load already in progress
+     */
+    private CompletableFuture<JwkSet> startFetch(CompletableFuture<JwkSet> fetch) {
+        while (!inFlight.compareAndSet(null, fetch)) {
+            final CompletableFuture<JwkSet> current = inFlight.get();
+            if (current != null) {
+                return current;
+            }
+        }
+        return null;
+    }
 
-        if (keys == null || keys.length()==0) {
-            throw new SigningKeyNotFoundException("No keys found in " + url.toString(), null);
+    private JwkSet load(CompletableFuture<JwkSet> fetch) throws SigningKeyNotFoundException {
+        try {
+            final JwkSet previous = snapshot;
+            final JwkSet jwks = fetch(previous);
+            if (eagerPublicKeys) {
+                jwks.materializePublicKeys();
+            }
+            snapshot = jwks;
+            fetch.complete(jwks);
+            save(jwks, previous);
+            return jwks;
+        } catch (SigningKeyNotFoundException | RuntimeException e) {
+            failedAt = System.currentTimeMillis();
+            fetch.completeExceptionally(e);
+            throw e;
+        } finally {
+            restored = null;
+            inFlight.compareAndSet(fetch, null);
         }
+    }
 
+    private JwkSet await(CompletableFuture<JwkSet> fetch) throws SigningKeyNotFoundException {
         try {
-            for (int index = 0; index < keys.length(); index++) {
-                JSONObject key = keys.getJSONObject(index);
-                Map<String,Object> map = Utils.toMap(key);
-                jwks.add(Jwk.fromValues(map));
+            return fetch.get();
+        } catch (ExecutionException e) {
+            throw new SigningKeyNotFoundException("Cannot obtain jwks from url " + source(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SigningKeyNotFoundException("Interrupted while waiting for jwks from url " + source(), e);
+        }
+    }
+
+    /**
+     * Reloads the snapshot periodically in the background, so that it is replaced before it reaches its max age.
+     * A failed reload keeps the current snapshot and is tried again in the next period.
+     * @param scheduler executor that runs the reloads
+     * @param period amount of time between the end of a reload and the start of the next one
+     * @param unit unit of the period parameter
+     * @return the future of the scheduled task, cancel it to stop reloading
+     */
+    public ScheduledFuture<?> scheduleRefresh(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+        Preconditions.checkArgument(period > 0, "Invalid refresh period '" + period + "'. Must be a positive number.");
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (SigningKeyNotFoundException | RuntimeException ignored) {
+                    // keep serving the current snapshot, the next run or a miss will try again
+                }
             }
-        } catch(IllegalArgumentException e) {
-            throw new SigningKeyNotFoundException("Failed to parse jwk from json", e);
+        }, period, period, unit);
+    }
+
+    /**
+     * Reloads the snapshot periodically in the background on the given executor, so that the scheduler only times
+     * the reloads and can be shared by many providers without a slow jwks url delaying the others.
+     * A failed reload keeps the current snapshot and is tried again in the next period.
+     * @param scheduler executor that starts the reloads
+     * @param executor executor that runs the reloads
+     * @param period amount of time between the start of a reload and the start of the next one, a reload still
+     *               in progress is not started again
+     * @param unit unit of the period parameter
+     * @return the future of the scheduled task, cancel it to stop reloading
+     */
+    public ScheduledFuture<?> scheduleRefresh(ScheduledExecutorService scheduler, final Executor executor, long period, TimeUnit unit) {
+        Preconditions.checkArgument(period > 0, "Invalid refresh period '" + period + "'. Must be a positive number.");
+        Preconditions.checkArgument(executor != null, "A non-null executor is required");
+        if (executor == scheduler) {
+            return scheduleRefresh(scheduler, period, unit);
         }
-        return jwks;
+        return scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshAsync(executor);
+            }
+        }, period, period, unit);
     }
 
     @Override
     public Jwk get(String keyId) throws JwkException {
-        final List<Jwk> jwks = getAll();
-        for (Jwk jwk: jwks) {
-            if (keyId.equals(jwk.getId())) {
-                return jwk;
+        Jwk jwk = lookup(keyId);
+        if (jwk == null) {
+            // unknown kid or stale snapshot, the keys may have been rotated since it was taken
+            jwk = refresh().get(keyId);
+        }
+        if (jwk == null) {
+            throw new UnknownKeyIdException("No key found in " + source() + " with kid " + keyId, keyId);
+        }
+        return jwk;
+    }
+
+    @Override
+    public Jwk getIfPresent(String keyId) {
+        final Jwk jwk = lookup(keyId);
+        if (jwk != null) {
+            return jwk;
+        }
+        final CompletableFuture<JwkSet> fetch = inFlight.get();
+        if (fetch == null) {
+            return null;
+        }
+        try {
+            return await(fetch).get(keyId);
+        } catch (SigningKeyNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getAsync(final String keyId) {
+        final Jwk jwk = lookup(keyId);
+        if (jwk != null) {
+            return CompletableFuture.completedFuture(jwk);
+        }
+        return refreshAsync(executor).thenApply(jwks -> {
+            final Jwk loaded = jwks.get(keyId);
+            if (loaded == null) {
+                throw new CompletionException(new UnknownKeyIdException("No key found in " + source() + " with kid " + keyId, keyId));
             }
+            return loaded;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Jwk> getIfPresentAsync(final String keyId) {
+        final Jwk jwk = lookup(keyId);
+        final CompletableFuture<JwkSet> fetch = jwk == null ? inFlight.get() : null;
+        if (fetch == null) {
+            return CompletableFuture.completedFuture(jwk);
         }
-        throw new SigningKeyNotFoundException("No key found in " + url.toString() + " with kid " + keyId, null);
+        return fetch.handle((jwks, e) -> e == null ? jwks.get(keyId) : null);
+    }
+
+    /**
+     * Returns the jwk of the last snapshot loaded, even once it is older than its max age, and never loads the jwks
+     * in the calling thread. An expired snapshot is reloaded meanwhile on the executor of the provider, so the
+     * calls after that load see the keys of the new snapshot. It suits checks that a key seen before is still
+     * published, which must keep working while the jwks cannot be loaded again.
+     * @param keyId value of kid found in JWT
+     * @return the jwk, or null if there is no snapshot yet or the kid is not in the last one
+     */
+    public Jwk getLastKnown(String keyId) {
+        if (snapshot == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        if (isExpired(snapshot, now) && inFlight.get() == null && now - failedAt >= LAST_KNOWN_RETRY_MILLIS) {
+            refreshAsync(executor);
+        }
+        // read again, a load run by a direct executor has replaced it already
+        return snapshot.get(keyId);
+    }
+
+    private Jwk lookup(String keyId) {
+        final JwkSet current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        if (isExpired(current, System.currentTimeMillis()) && !(current == restored && isRevalidating())) {
+            return null;
+        }
+        return current.get(keyId);
+    }
+
+    /**
+     * Starts the revalidation of a stale snapshot restored from the store, unless it is in progress.
+     * @return if the revalidation is still in progress, the stale snapshot can be served meanwhile
+     */
+    private boolean isRevalidating() {
+        return !refreshAsync(executor).isDone();
+    }
+
+    /**
+     * Settings of a provider for {@link #UrlJwkProvider(Options, URL, OidcDiscovery)}, named so that none of them
+     * can be passed in the place of another. Unset ones keep the defaults of the public constructors.
+     */
+    static final class Options {
+        private Integer connectTimeout;
+        private Integer readTimeout;
+        private long minAgeMillis = DEFAULT_MAX_AGE;
+        private long maxAgeMillis = DEFAULT_MAX_AGE;
+        private FileJwkSetStore store;
+        private Executor executor;
+        private boolean eagerPublicKeys;
+        private JwksMetrics metrics = JwksMetrics.NOOP;
+        private HttpTransport transport = UrlConnectionTransport.INSTANCE;
+
+        /**
+         * @param connectTimeout connection timeout in milliseconds (null for default)
+         * @param readTimeout read timeout in milliseconds (null for default)
+         */
+        Options timeouts(Integer connectTimeout, Integer readTimeout) {
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        /**
+         * @param minAge minimum amount of time a loaded jwks snapshot is used before it is loaded again
+         * @param maxAge maximum amount of time a loaded jwks snapshot is used before it is loaded again
+         * @param unit unit of the minAge and maxAge parameters
+         */
+        Options ages(long minAge, long maxAge, TimeUnit unit) {
+            this.minAgeMillis = unit.toMillis(minAge);
+            this.maxAgeMillis = unit.toMillis(maxAge);
+            return this;
+        }
+
+        /**
+         * @param store where the snapshots are kept between restarts (null for none)
+         */
+        Options store(FileJwkSetStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /**
+         * @param executor executor for asynchronous loads (null for a shared pool of daemon threads)
+         */
+        Options executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * @param eagerPublicKeys if the public keys are built when a snapshot is loaded, instead of on first use
+         */
+        Options eagerPublicKeys(boolean eagerPublicKeys) {
+            this.eagerPublicKeys = eagerPublicKeys;
+            return this;
+        }
+
+        /**
+         * @param metrics receives the fetch latency, response size and parse time of the jwks
+         */
+        Options metrics(JwksMetrics metrics) {
+            this.metrics = Preconditions.checkNotNull(metrics, "A non-null metrics is required");
+            return this;
+        }
+
+        /**
+         * @param transport sends the requests for the jwks
+         */
+        Options transport(HttpTransport transport) {
+            this.transport = Preconditions.checkNotNull(transport, "A non-null transport is required");
+            return this;
+        }
+
+        JwksMetrics getMetrics() {
+            return metrics;
+        }
+    }
+
+    static class DefaultExecutor {
+        static final Executor INSTANCE = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("jwks-fetch-%d")
+                .setDaemon(true)
+                .build());
     }
 }
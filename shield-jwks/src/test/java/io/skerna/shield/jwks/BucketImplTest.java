@@ -198,4 +198,23 @@ public class BucketImplTest {
         System.out.println(format("Waiting %d ms..", ms));
         Thread.sleep(ms);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldConsumeRefundedTokens() {
+        BucketImpl bucket = new BucketImpl(2, 1, TimeUnit.HOURS);
+        assertThat(bucket.consume(2), Matchers.is(true));
+        assertThat(bucket.consume(), Matchers.is(false));
+        bucket.refund(1);
+        assertThat(bucket.willLeakIn(), Matchers.is(0L));
+        assertThat(bucket.consume(), Matchers.is(true));
+        assertThat(bucket.consume(), Matchers.is(false));
+    }
+
+    @Test
+    public void shouldNotRefundOverSize() {
+        BucketImpl bucket = new BucketImpl(2, 1, TimeUnit.HOURS);
+        bucket.refund(2);
+        assertThat(bucket.consume(2), Matchers.is(true));
+        assertThat(bucket.consume(), Matchers.is(false));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@ExtendWith(MockitoExtension.class)
+public class CaffeineCachedJwkProviderTest {
+
+    private static final String KID = "KID";
+    private CaffeineCachedJwkProvider provider;
+
+    @Mock
+    private JwkProvider fallback;
+
+    @Mock
+    private Jwk jwk;
+
+    @BeforeEach
+    public void setUp() {
+        provider = new CaffeineCachedJwkProvider(fallback, 5, 10, TimeUnit.HOURS, Runnable::run);
+    }
+
+    @Test
+    public void shouldFailToGetSingle() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenThrow(new SigningKeyNotFoundException("TEST!", null));
+        SigningKeyNotFoundException e = Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(KID));
+        assertThat(e.getCause(), Matchers.instanceOf(SigningKeyNotFoundException.class));
+    }
+
+    @Test
+    public void shouldUseCachedValue() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk).thenThrow(new SigningKeyNotFoundException("TEST!", null));
+        provider.get(KID);
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        assertThat(provider.getIfPresent(KID), Matchers.equalTo(jwk));
+        assertThat(provider.getAsync(KID).get(), Matchers.equalTo(jwk));
+        Mockito.verify(fallback, Mockito.only()).get(KID);
+    }
+
+    @Test
+    public void shouldNotCacheFailures() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenThrow(new SigningKeyNotFoundException("TEST!", null)).thenReturn(jwk);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> provider.getAsync(KID).get());
+        assertThat(e.getCause(), Matchers.instanceOf(SigningKeyNotFoundException.class));
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+    }
+
+    @Test
+    public void shouldLoadOnExecutorOnceForConcurrentCallers() throws Exception {
+        Queue<Runnable> loader = new ArrayDeque<>();
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk);
+        provider = new CaffeineCachedJwkProvider(fallback, 5, 10, TimeUnit.HOURS, loader::add);
+        List<CompletableFuture<Jwk>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(provider.getAsync(KID));
+        }
+        Mockito.verify(fallback, Mockito.never()).get(KID);
+
+        runAll(loader);
+        for (CompletableFuture<Jwk> result : results) {
+            assertThat(result.getNow(null), Matchers.equalTo(jwk));
+        }
+        Mockito.verify(fallback, Mockito.only()).get(KID);
+    }
+
+    @Test
+    public void shouldNotWaitForLoadInProgressWhenGettingIfPresent() throws Exception {
+        Queue<Runnable> loader = new ArrayDeque<>();
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk);
+        provider = new CaffeineCachedJwkProvider(fallback, 5, 10, TimeUnit.HOURS, loader::add);
+        CompletableFuture<Jwk> loading = provider.getAsync(KID);
+
+        assertThat(provider.getIfPresent(KID), Matchers.nullValue());
+        assertThat(provider.getIfPresentAsync(KID).getNow(jwk), Matchers.nullValue());
+        Mockito.verify(fallback, Mockito.times(2)).getIfPresent(KID);
+
+        runAll(loader);
+        assertThat(loading.getNow(null), Matchers.equalTo(jwk));
+        assertThat(provider.getIfPresent(KID), Matchers.equalTo(jwk));
+        assertThat(provider.getIfPresentAsync(KID).getNow(null), Matchers.equalTo(jwk));
+    }
+
+    @Test
+    public void shouldNotReturnFailedLoadWhenGettingIfPresent() throws Exception {
+        Queue<Runnable> loader = new ArrayDeque<>();
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenThrow(new SigningKeyNotFoundException("TEST!", null));
+        provider = new CaffeineCachedJwkProvider(fallback, 5, 10, TimeUnit.HOURS, loader::add);
+        CompletableFuture<Jwk> loading = provider.getAsync(KID);
+        runAll(loader);
+        assertThat(loading.isCompletedExceptionally(), Matchers.is(true));
+        assertThat(provider.getIfPresent(KID), Matchers.nullValue());
+    }
+
+    @Test
+    public void shouldRefreshCachedValue() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        Jwk rotated = Mockito.mock(Jwk.class);
+        provider = new CaffeineCachedJwkProvider(fallback, 5, 10, 10000, TimeUnit.MILLISECONDS, Runnable::run, nanos::get, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk).thenReturn(rotated);
+
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(5));
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        Mockito.verify(fallback, Mockito.times(1)).get(KID);
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(15));
+        provider.get(KID);
+        assertThat(provider.get(KID), Matchers.equalTo(rotated));
+        Mockito.verify(fallback, Mockito.times(2)).get(KID);
+    }
+
+    @Test
+    public void shouldExpireValueServedTooLong() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        Jwk rotated = Mockito.mock(Jwk.class);
+        provider = new CaffeineCachedJwkProvider(fallback, 5, 0, 10, TimeUnit.MINUTES, Runnable::run, nanos::get, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk).thenReturn(rotated);
+
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(11));
+        assertThat(provider.getIfPresent(KID), Matchers.nullValue());
+        assertThat(provider.get(KID), Matchers.equalTo(rotated));
+    }
+
+    @Test
+    public void shouldFailWhenMaxStaleIsNotGreaterThanRefresh() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new CaffeineCachedJwkProvider(fallback, 5, 10, 10, TimeUnit.MINUTES, Runnable::run)
+        );
+    }
+
+    @Test
+    public void shouldReportHitsAndMissesToMetrics() throws Exception {
+        JwksMetrics metrics = Mockito.mock(JwksMetrics.class);
+        provider = new CaffeineCachedJwkProvider(fallback, 5, 0, 10, TimeUnit.HOURS, Runnable::run, metrics);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk);
+        provider.get(KID);
+        provider.get(KID);
+        Mockito.verify(metrics).cacheMisses(1);
+        Mockito.verify(metrics).cacheHits(1);
+    }
+
+    @Test
+    public void shouldGetBaseProvider() {
+        assertThat(provider.getBaseProvider(), Matchers.equalTo(fallback));
+    }
+
+    /**
+     * Runs the loads and the cache maintenance queued on the executor
+     */
+    private static void runAll(Queue<Runnable> executor) {
+        while (!executor.isEmpty()) {
+            executor.remove().run();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class FileJwkSetStoreTest {
+
+    private static final String KID = "NkJCQzIyQzRBMEU4NjhGNUU4MzU4RkY0M0ZDQzkwOUQ0Q0VGNUMwQg";
+
+    private Path folder;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("jwks");
+        folder.toFile().deleteOnExit();
+    }
+
+    @Test
+    public void shouldReturnNullWhenFileIsMissing() throws Exception {
+        MatcherAssert.assertThat(new FileJwkSetStore(folder.resolve("jwks.json")).load(), Matchers.nullValue());
+    }
+
+    @Test
+    public void shouldFailWhenFileIsInvalid() throws Exception {
+        Path file = folder.resolve("jwks.json");
+        Files.write(file, "{\"keys\": [{\"key\": \"value\"}]}".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertThrows(IOException.class, () -> new FileJwkSetStore(file).load());
+    }
+
+    @Test
+    public void shouldSaveAndLoadSnapshot() throws Exception {
+        JwkSet jwks = new UrlJwkProvider(getClass().getResource("/jwks.json")).getJwkSet()
+                .revalidated(1234L, "\"v1\"", 60000L);
+        FileJwkSetStore store = new FileJwkSetStore(folder.resolve("cache").resolve("jwks.json"));
+        store.save(jwks);
+
+        JwkSet loaded = store.load();
+        MatcherAssert.assertThat(loaded.getFetchedAt(), Matchers.is(1234L));
+        MatcherAssert.assertThat(loaded.getEtag(), Matchers.is("\"v1\""));
+        MatcherAssert.assertThat(loaded.getLastModified(), Matchers.is(jwks.getLastModified()));
+        MatcherAssert.assertThat(loaded.getMaxAge(), Matchers.is(60000L));
+
+        Jwk expected = jwks.get(KID);
+        Jwk actual = loaded.get(KID);
+        MatcherAssert.assertThat(actual.getType(), Matchers.is(expected.getType()));
+        MatcherAssert.assertThat(actual.getAlgorithm(), Matchers.is(expected.getAlgorithm()));
+        MatcherAssert.assertThat(actual.getCertificateChain(), Matchers.is(expected.getCertificateChain()));
+        MatcherAssert.assertThat(actual.getAdditionalAttributes(), Matchers.is(expected.getAdditionalAttributes()));
+        MatcherAssert.assertThat(actual.getPublicKey(), Matchers.is(expected.getPublicKey()));
+    }
+
+    @Test
+    public void shouldStartFromStoredSnapshotWithoutRequest() throws Exception {
+        FileJwkSetStore store = new FileJwkSetStore(folder.resolve("jwks.json"));
+        new UrlJwkProvider(getClass().getResource("/jwks.json"), null, null, 1, 1, TimeUnit.HOURS, store).get(KID);
+        MatcherAssert.assertThat(Files.exists(store.getFile()), Matchers.is(true));
+
+        UrlJwkProvider provider = new UrlJwkProvider(unreachableUrl(), null, null, 1, 1, TimeUnit.HOURS, store);
+        MatcherAssert.assertThat(provider.get(KID), Matchers.notNullValue());
+    }
+
+    @Test
+    public void shouldServeOldStoredSnapshotOnlyWhileRevalidating() throws Exception {
+        long fetchedAt = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2);
+        JwkSet jwks = new UrlJwkProvider(getClass().getResource("/jwks.json")).getJwkSet().revalidated(fetchedAt, null, -1);
+        FileJwkSetStore store = new FileJwkSetStore(folder.resolve("jwks.json"));
+        store.save(jwks);
+
+        List<Runnable> tasks = new ArrayList<>();
+        UrlJwkProvider provider = new UrlJwkProvider(unreachableUrl(), null, null, 1, 1, TimeUnit.HOURS, store, tasks::add);
+        MatcherAssert.assertThat(provider.peekJwkSet().getFetchedAt(), Matchers.is(fetchedAt));
+        MatcherAssert.assertThat(provider.get(KID), Matchers.notNullValue());
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+
+        tasks.get(0).run();
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(KID));
+    }
+
+    @Test
+    public void shouldNotWriteSnapshotWhenNotModified() throws Exception {
+        byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/jwks.json"));
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks.json", exchange -> {
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            FileJwkSetStore store = new FileJwkSetStore(folder.resolve("jwks.json"));
+            URL url = new URL("http", "localhost", server.getAddress().getPort(), "/jwks.json");
+            UrlJwkProvider provider = new UrlJwkProvider(url, null, null, 1, 1, TimeUnit.HOURS, store);
+            provider.refresh();
+            MatcherAssert.assertThat(Files.exists(store.getFile()), Matchers.is(true));
+
+            Files.delete(store.getFile());
+            MatcherAssert.assertThat(provider.refresh().getEtag(), Matchers.is("\"v1\""));
+            MatcherAssert.assertThat(Files.exists(store.getFile()), Matchers.is(false));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static URL unreachableUrl() throws IOException {
+        URLStreamHandler unreachable = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                throw new IOException("unreachable");
+            }
+        };
+        return new URL("http", "localhost", 80, "/jwks.json", unreachable);
+    }
+}
@@ -22,6 +22,7 @@
 
 package io.skerna.shield.jwks;
 
+import com.google.common.base.Ticker;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -32,6 +33,13 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.eq;
 
@@ -84,4 +92,121 @@ public class GuavaCachedJwkProviderTest {
     public void shouldGetBaseProvider() throws Exception {
         assertThat(provider.getBaseProvider(), Matchers.equalTo(fallback));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldServeCachedValueWhileRefreshing() throws Exception {
+        List<Runnable> reloads = new ArrayList<>();
+        Jwk rotated = Mockito.mock(Jwk.class);
+        provider = new GuavaCachedJwkProvider(fallback, 5, 10, 10000, TimeUnit.MILLISECONDS, reloads::add);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk).thenReturn(rotated);
+
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        Thread.sleep(20);
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        assertThat(reloads.size(), Matchers.is(1));
+
+        reloads.get(0).run();
+        assertThat(provider.get(KID), Matchers.equalTo(rotated));
+    }
+
+    @Test
+    public void shouldFailWhenMaxStaleIsNotGreaterThanRefresh() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new GuavaCachedJwkProvider(fallback, 5, 10, 10, TimeUnit.MINUTES, Runnable::run)
+        );
+    }
+
+    @Test
+    public void shouldCompleteAsyncWithCachedValue() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk);
+        assertThat(provider.getAsync(KID).get(), Matchers.equalTo(jwk));
+        CompletableFuture<Jwk> hit = provider.getAsync(KID);
+        assertThat(hit.isDone(), Matchers.is(true));
+        assertThat(hit.get(), Matchers.equalTo(jwk));
+        Mockito.verify(fallback, Mockito.times(1)).get(ArgumentMatchers.eq(KID));
+    }
+
+    @Test
+    public void shouldFailAsyncWhenFallbackFails() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenThrow(new SigningKeyNotFoundException("TEST!", null));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> provider.getAsync(KID).get());
+        assertThat(e.getCause(), Matchers.instanceOf(SigningKeyNotFoundException.class));
+    }
+
+    @Test
+    public void shouldServeStaleValueWhileRevalidating() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        List<Runnable> reloads = new ArrayList<>();
+        Jwk rotated = Mockito.mock(Jwk.class);
+        provider = new GuavaCachedJwkProvider(fallback, 5, 10, 10, 0, TimeUnit.SECONDS, reloads::add, ticker, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk).thenReturn(rotated);
+
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        ticker.advance(15, TimeUnit.SECONDS);
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        assertThat(reloads.size(), Matchers.is(1));
+        Mockito.verify(fallback, Mockito.times(1)).get(KID);
+
+        reloads.get(0).run();
+        assertThat(provider.get(KID), Matchers.equalTo(rotated));
+    }
+
+    @Test
+    public void shouldServeStaleValueWhileFallbackFails() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        provider = new GuavaCachedJwkProvider(fallback, 5, 10, 0, 100, TimeUnit.SECONDS, Runnable::run, ticker, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk).thenThrow(new SigningKeyNotFoundException("TEST!", null));
+
+        provider.get(KID);
+        ticker.advance(50, TimeUnit.SECONDS);
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        assertThat(provider.getIfPresent(KID), Matchers.equalTo(jwk));
+        assertThat(provider.getAsync(KID).get(), Matchers.equalTo(jwk));
+
+        ticker.advance(61, TimeUnit.SECONDS);
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(KID));
+    }
+
+    @Test
+    public void shouldNotServeStaleValueRemovedFromJwks() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        provider = new GuavaCachedJwkProvider(fallback, 5, 10, 10, 100, TimeUnit.SECONDS, Runnable::run, ticker, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk).thenThrow(new UnknownKeyIdException("TEST!", KID));
+
+        provider.get(KID);
+        ticker.advance(15, TimeUnit.SECONDS);
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(KID));
+    }
+
+    @Test
+    public void shouldReportHitsAndMissesToMetrics() throws Exception {
+        ManualTicker ticker = new ManualTicker();
+        JwksMetrics metrics = Mockito.mock(JwksMetrics.class);
+        provider = new GuavaCachedJwkProvider(fallback, 5, 10, 10, 0, TimeUnit.SECONDS, Runnable::run, ticker, metrics);
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenReturn(jwk);
+
+        provider.get(KID);
+        provider.get(KID);
+        ticker.advance(15, TimeUnit.SECONDS);
+        provider.get(KID);
+        Mockito.verify(metrics).cacheMiss();
+        Mockito.verify(metrics).cacheHit();
+        Mockito.verify(metrics).staleCacheHit();
+    }
+
+    private static class ManualTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos.addAndGet(unit.toNanos(time));
+        }
+    }
+}
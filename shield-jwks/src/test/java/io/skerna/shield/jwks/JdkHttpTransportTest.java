@@ -0,0 +1,319 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.sun.net.httpserver.HttpServer;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class JdkHttpTransportTest {
+
+    private static final URL URL;
+
+    static {
+        try {
+            URL = new URL("https://sso.example.com/realms/a/protocol/openid-connect/certs");
+        } catch (IOException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Test
+    public void shouldAddUpConnectAndReadTimeouts() throws Exception {
+        FakeClient client = new FakeClient(new byte[0]);
+        JdkHttpTransport transport = new JdkHttpTransport(client);
+
+        transport.get(URL, Collections.emptyMap(), 1000, 2000).close();
+        MatcherAssert.assertThat(client.request.timeout(), Matchers.is(Optional.of(Duration.ofMillis(3000))));
+        transport.get(URL, Collections.emptyMap(), null, 500).close();
+        MatcherAssert.assertThat(client.request.timeout(), Matchers.is(Optional.of(Duration.ofMillis(500))));
+        transport.get(URL, Collections.emptyMap(), 250, null).close();
+        MatcherAssert.assertThat(client.request.timeout(), Matchers.is(Optional.of(Duration.ofMillis(250))));
+    }
+
+    @Test
+    public void shouldKeepClientTimeoutWithoutRequestTimeouts() throws Exception {
+        FakeClient client = new FakeClient(new byte[0]);
+        JdkHttpTransport transport = new JdkHttpTransport(client);
+
+        transport.get(URL, Collections.emptyMap(), null, null).close();
+        MatcherAssert.assertThat(client.request.timeout(), Matchers.is(Optional.empty()));
+        transport.get(URL, Collections.emptyMap(), 0, 0).close();
+        MatcherAssert.assertThat(client.request.timeout(), Matchers.is(Optional.empty()));
+    }
+
+    @Test
+    public void shouldSendHeadersAndExposeResponse() throws Exception {
+        FakeClient client = new FakeClient("{\"keys\":[]}".getBytes());
+        JdkHttpTransport transport = new JdkHttpTransport(client);
+
+        try (HttpTransport.Response response = transport.get(URL, Collections.singletonMap("If-None-Match", "\"v1\""), null, null)) {
+            MatcherAssert.assertThat(client.request.method(), Matchers.is("GET"));
+            MatcherAssert.assertThat(client.request.uri(), Matchers.is(URL.toURI()));
+            MatcherAssert.assertThat(client.request.headers().firstValue("If-None-Match"), Matchers.is(Optional.of("\"v1\"")));
+            MatcherAssert.assertThat(response.getStatus(), Matchers.is(200));
+            MatcherAssert.assertThat(response.getHeader("etag"), Matchers.is("\"v2\""));
+            MatcherAssert.assertThat(response.getHeader("Last-Modified"), Matchers.nullValue());
+            MatcherAssert.assertThat(new String(response.getBody().readAllBytes()), Matchers.is("{\"keys\":[]}"));
+        }
+    }
+
+    @Test
+    public void shouldDrainUnreadBodyOnClose() throws Exception {
+        FakeClient client = new FakeClient(new byte[100]);
+        HttpTransport.Response response = new JdkHttpTransport(client).get(URL, Collections.emptyMap(), null, null);
+        response.getBody().read(new byte[10]);
+        response.close();
+        MatcherAssert.assertThat(client.body.available(), Matchers.is(0));
+        MatcherAssert.assertThat(client.body.closed, Matchers.is(true));
+    }
+
+    @Test
+    public void shouldDrainAtMostMaxDrainedBytesOnClose() throws Exception {
+        FakeClient client = new FakeClient(new byte[(int) JdkHttpTransport.MAX_DRAINED_BYTES * 2]);
+        new JdkHttpTransport(client).get(URL, Collections.emptyMap(), null, null).close();
+        MatcherAssert.assertThat(client.body.available(), Matchers.is((int) JdkHttpTransport.MAX_DRAINED_BYTES));
+        MatcherAssert.assertThat(client.body.closed, Matchers.is(true));
+    }
+
+    @Test
+    public void shouldOpenNonHttpUrlWithoutClient() throws Exception {
+        FakeClient client = new FakeClient(new byte[0]);
+        try (HttpTransport.Response response = new JdkHttpTransport(client).get(getClass().getResource("/jwks.json"), Collections.emptyMap(), null, null)) {
+            MatcherAssert.assertThat(response.getStatus(), Matchers.is(200));
+            MatcherAssert.assertThat(response.getBody().read(), Matchers.is((int) '{'));
+        }
+        MatcherAssert.assertThat(client.request, Matchers.nullValue());
+    }
+
+    @Test
+    public void shouldMapInterruptionToInterruptedIOException() throws Exception {
+        FakeClient client = new FakeClient(new byte[0]);
+        client.interrupted = true;
+        try {
+            Assertions.assertThrows(InterruptedIOException.class, () -> new JdkHttpTransport(client).get(URL, Collections.emptyMap(), null, null));
+            MatcherAssert.assertThat(Thread.currentThread().isInterrupted(), Matchers.is(true));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void shouldTimeOutWhenResponseHeadersAreLate() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks.json", exchange -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http", "localhost", server.getAddress().getPort(), "/jwks.json");
+            long start = System.nanoTime();
+            Assertions.assertThrows(HttpTimeoutException.class, () -> new JdkHttpTransport().get(url, Collections.emptyMap(), 100, 100));
+            MatcherAssert.assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), Matchers.lessThan(5000L));
+        } finally {
+            release.countDown();
+            server.stop(0);
+        }
+    }
+
+    private static class TrackedBody extends ByteArrayInputStream {
+        boolean closed;
+
+        TrackedBody(byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Client answering every request with a 200 and the given body, remembering the last request
+     */
+    private static class FakeClient extends HttpClient {
+        private final byte[] content;
+        HttpRequest request;
+        TrackedBody body;
+        boolean interrupted;
+
+        FakeClient(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> handler) throws InterruptedException {
+            if (interrupted) {
+                throw new InterruptedException();
+            }
+            this.request = request;
+            this.body = new TrackedBody(content);
+            return (HttpResponse<T>) new FakeResponse(request, body);
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> handler, HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<CookieHandler> cookieHandler() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Optional<Duration> connectTimeout() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Redirect followRedirects() {
+            return Redirect.NORMAL;
+        }
+
+        @Override
+        public Optional<ProxySelector> proxy() {
+            return Optional.empty();
+        }
+
+        @Override
+        public SSLContext sslContext() {
+            return null;
+        }
+
+        @Override
+        public SSLParameters sslParameters() {
+            return null;
+        }
+
+        @Override
+        public Optional<Authenticator> authenticator() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Version version() {
+            return Version.HTTP_2;
+        }
+
+        @Override
+        public Optional<Executor> executor() {
+            return Optional.empty();
+        }
+    }
+
+    private static class FakeResponse implements HttpResponse<InputStream> {
+        private final HttpRequest request;
+        private final InputStream body;
+
+        FakeResponse(HttpRequest request, InputStream body) {
+            this.request = request;
+            this.body = body;
+        }
+
+        @Override
+        public int statusCode() {
+            return 200;
+        }
+
+        @Override
+        public HttpRequest request() {
+            return request;
+        }
+
+        @Override
+        public Optional<HttpResponse<InputStream>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            Map<String, List<String>> headers = Collections.singletonMap("ETag", Collections.singletonList("\"v2\""));
+            return HttpHeaders.of(headers, (name, value) -> true);
+        }
+
+        @Override
+        public InputStream body() {
+            return body;
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_2;
+        }
+    }
+}
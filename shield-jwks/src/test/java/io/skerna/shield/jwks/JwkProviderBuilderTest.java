@@ -28,6 +28,8 @@ import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -165,4 +167,137 @@ public class JwkProviderBuilderTest {
         UrlJwkProvider urlJwkProvider = (UrlJwkProvider) provider;
         assertThat(urlJwkProvider.url.toString(), Matchers.equalTo(urlToJwksWithSubPath));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldCreateRefreshAheadProvider() {
+        JwkProvider provider = new JwkProviderBuilder(domain)
+                .refreshAhead(5, 60, TimeUnit.MINUTES)
+                .build();
+        MatcherAssert.assertThat(provider, Matchers.instanceOf(GuavaCachedJwkProvider.class));
+        JwkProvider baseProvider = ((GuavaCachedJwkProvider) provider).getBaseProvider();
+        MatcherAssert.assertThat(baseProvider, Matchers.instanceOf(RateLimitedJwkProvider.class));
+        assertThat(((RateLimitedJwkProvider) baseProvider).getBaseProvider(), Matchers.instanceOf(UrlJwkProvider.class));
+    }
+
+    @Test
+    public void shouldShareRefreshSchedulerBetweenProviders() {
+        for (int i = 0; i < 10; i++) {
+            new JwkProviderBuilder(domain)
+                    .refreshAhead(5, 60, TimeUnit.MINUTES)
+                    .build();
+        }
+        long refreshThreads = Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("jwks-refresh-"))
+                .count();
+        MatcherAssert.assertThat(refreshThreads, Matchers.is(1L));
+    }
+
+    @Test
+    public void shouldFailRefreshAheadWhenMaxStaleIsNotGreaterThanRefresh() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new JwkProviderBuilder(domain).refreshAhead(10, 5, TimeUnit.MINUTES)
+        );
+    }
+
+    @Test
+    public void shouldCreateStaleProvider() {
+        JwkProvider provider = new JwkProviderBuilder(domain)
+                .staleWhileRevalidate(1, TimeUnit.MINUTES)
+                .staleIfError(1, TimeUnit.HOURS)
+                .build();
+        MatcherAssert.assertThat(provider, Matchers.instanceOf(GuavaCachedJwkProvider.class));
+        JwkProvider baseProvider = ((GuavaCachedJwkProvider) provider).getBaseProvider();
+        MatcherAssert.assertThat(baseProvider, Matchers.instanceOf(RateLimitedJwkProvider.class));
+    }
+
+    @Test
+    public void shouldFailToCombineRefreshAheadWithStaleWindows() {
+        Assertions.assertThrows(
+                IllegalStateException.class,
+                () -> new JwkProviderBuilder(domain).refreshAhead(5, 60, TimeUnit.MINUTES).staleIfError(1, TimeUnit.HOURS).build()
+        );
+    }
+
+    @Test
+    public void shouldFailWithNegativeRateLimitWait() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new JwkProviderBuilder(domain).rateLimitWait(-1, TimeUnit.SECONDS)
+        );
+    }
+
+    @Test
+    public void shouldCreateCaffeineCachedProvider() {
+        JwkProvider provider = new JwkProviderBuilder(domain)
+                .caffeine(true)
+                .build();
+        MatcherAssert.assertThat(provider, Matchers.instanceOf(CaffeineCachedJwkProvider.class));
+        JwkProvider baseProvider = ((CaffeineCachedJwkProvider) provider).getBaseProvider();
+        MatcherAssert.assertThat(baseProvider, Matchers.instanceOf(RateLimitedJwkProvider.class));
+
+        provider = new JwkProviderBuilder(domain)
+                .caffeine(true)
+                .refreshAhead(5, 60, TimeUnit.MINUTES)
+                .build();
+        MatcherAssert.assertThat(provider, Matchers.instanceOf(CaffeineCachedJwkProvider.class));
+    }
+
+    @Test
+    public void shouldFailToCombineCaffeineWithStaleWindows() {
+        Assertions.assertThrows(
+                IllegalStateException.class,
+                () -> new JwkProviderBuilder(domain).caffeine(true).staleWhileRevalidate(1, TimeUnit.MINUTES).build()
+        );
+    }
+
+    @Test
+    public void shouldCreateCacheControlProvider() {
+        JwkProvider provider = new JwkProviderBuilder(domain)
+                .cacheControl(1, TimeUnit.MINUTES)
+                .build();
+        MatcherAssert.assertThat(provider, Matchers.instanceOf(GuavaCachedJwkProvider.class));
+        JwkProvider baseProvider = ((GuavaCachedJwkProvider) provider).getBaseProvider();
+        MatcherAssert.assertThat(baseProvider, Matchers.instanceOf(RateLimitedJwkProvider.class));
+        assertThat(((RateLimitedJwkProvider) baseProvider).getBaseProvider(), Matchers.instanceOf(UrlJwkProvider.class));
+    }
+
+    @Test
+    public void shouldCreateNegativeCachedProvider() {
+        JwkProvider provider = new JwkProviderBuilder(domain)
+                .negativeCached(100, 30, TimeUnit.SECONDS)
+                .build();
+        MatcherAssert.assertThat(provider, Matchers.instanceOf(GuavaCachedJwkProvider.class));
+        JwkProvider baseProvider = ((GuavaCachedJwkProvider) provider).getBaseProvider();
+        MatcherAssert.assertThat(baseProvider, Matchers.instanceOf(NegativeCachedJwkProvider.class));
+        baseProvider = ((NegativeCachedJwkProvider) baseProvider).getBaseProvider();
+        MatcherAssert.assertThat(baseProvider, Matchers.instanceOf(RateLimitedJwkProvider.class));
+        assertThat(((RateLimitedJwkProvider) baseProvider).getBaseProvider(), Matchers.instanceOf(UrlJwkProvider.class));
+    }
+
+    @Test
+    public void shouldCreateAsyncProvider() {
+        AsyncJwkProvider provider = new JwkProviderBuilder(domain)
+                .fetchExecutor(Runnable::run)
+                .buildAsync();
+        MatcherAssert.assertThat(provider, Matchers.instanceOf(GuavaCachedJwkProvider.class));
+        JwkProvider baseProvider = ((GuavaCachedJwkProvider) provider).getBaseProvider();
+        MatcherAssert.assertThat(baseProvider, Matchers.instanceOf(RateLimitedJwkProvider.class));
+        assertThat(((RateLimitedJwkProvider) baseProvider).getBaseProvider(), Matchers.instanceOf(AsyncJwkProvider.class));
+    }
+
+    @Test
+    public void shouldLoadThroughGivenTransport() throws Exception {
+        URL url = getClass().getResource("/jwks.json");
+        List<URL> requested = new ArrayList<>();
+        HttpTransport transport = (u, headers, connectTimeout, readTimeout) -> {
+            requested.add(u);
+            return JdkHttpTransport.shared().get(u, headers, connectTimeout, readTimeout);
+        };
+        JwkProvider provider = new JwkProviderBuilder(url)
+                .transport(transport)
+                .build();
+        assertThat(provider.get("NkJCQzIyQzRBMEU4NjhGNUU4MzU4RkY0M0ZDQzkwOUQ0Q0VGNUMwQg"), notNullValue());
+        MatcherAssert.assertThat(requested, Matchers.contains(url));
+    }
+}
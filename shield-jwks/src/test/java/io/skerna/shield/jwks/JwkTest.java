@@ -29,9 +29,18 @@ import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
 import java.security.SecureRandom;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -153,6 +162,123 @@ public class JwkTest {
         assertThat(jwk.getPublicKey(), Matchers.notNullValue());
     }
 
+    @Test
+    public void shouldBuildPublicKeyOnce() throws Exception {
+        Jwk jwk = Jwk.fromValues(publicKeyValues(randomKeyId(), KEY_OPS_LIST));
+        assertThat(jwk.isPublicKeyMaterialized(), Matchers.is(false));
+        PublicKey key = jwk.getPublicKey();
+        assertThat(jwk.isPublicKeyMaterialized(), Matchers.is(true));
+        assertThat(jwk.getPublicKey(), Matchers.sameInstance(key));
+    }
+
+    @Test
+    public void shouldShareSamePublicKeyBetweenThreads() throws Exception {
+        Jwk jwk = Jwk.fromValues(publicKeyValues(randomKeyId(), KEY_OPS_LIST));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<PublicKey>> keys = Lists.newArrayList();
+            for (int i = 0; i < 16; i++) {
+                keys.add(executor.submit(jwk::getPublicKey));
+            }
+            for (Future<PublicKey> key : keys) {
+                assertThat(key.get(), Matchers.sameInstance(jwk.getPublicKey()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldFailEveryTimeWithInvalidPublicKey() throws Exception {
+        Map<String, Object> values = publicKeyValues(randomKeyId(), KEY_OPS_LIST);
+        values.remove("n");
+        Jwk jwk = Jwk.fromValues(values);
+        Assertions.assertThrows(InvalidPublicKeyException.class, jwk::getPublicKey);
+        Assertions.assertThrows(InvalidPublicKeyException.class, jwk::getPublicKey);
+    }
+
+    @Test
+    public void shouldMaterializePublicKeysOfSnapshot() throws Exception {
+        Jwk rsa = Jwk.fromValues(publicKeyValues(randomKeyId(), KEY_OPS_LIST));
+        Jwk other = Jwk.fromValues(nonRSAValues(randomKeyId()));
+        JwkSet.of(Lists.newArrayList(rsa, other), 0).materializePublicKeys();
+        assertThat(rsa.isPublicKeyMaterialized(), Matchers.is(true));
+        assertThat(other.isPublicKeyMaterialized(), Matchers.is(true));
+        assertThat(other.getPublicKey(), Matchers.nullValue());
+    }
+
+    @Test
+    public void shouldReturnEcPublicKeys() throws Exception {
+        String[][] curves = {{"P-256", "secp256r1"}, {"P-384", "secp384r1"}, {"P-521", "secp521r1"}};
+        for (String[] curve : curves) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec(curve[1]));
+            ECPublicKey expected = (ECPublicKey) generator.generateKeyPair().getPublic();
+            int length = (expected.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+            Jwk jwk = Jwk.fromValues(ecValues(curve[0], expected, length));
+
+            PublicKey key = jwk.getPublicKey();
+            assertThat(key, Matchers.instanceOf(ECPublicKey.class));
+            assertThat(((ECPublicKey) key).getW(), Matchers.equalTo(expected.getW()));
+            assertThat(key.getEncoded(), Matchers.equalTo(expected.getEncoded()));
+        }
+    }
+
+    @Test
+    public void shouldFailWithInvalidEcKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        ECPublicKey expected = (ECPublicKey) generator.generateKeyPair().getPublic();
+
+        Map<String, Object> unsupported = ecValues("P-192", expected, 32);
+        Assertions.assertThrows(InvalidPublicKeyException.class, () -> Jwk.fromValues(unsupported).getPublicKey());
+        Map<String, Object> wrongLength = ecValues("P-384", expected, 32);
+        Assertions.assertThrows(InvalidPublicKeyException.class, () -> Jwk.fromValues(wrongLength).getPublicKey());
+    }
+
+    @Test
+    public void shouldReturnEd25519PublicKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        PublicKey expected = generator.generateKeyPair().getPublic();
+        byte[] encoded = expected.getEncoded();
+        Map<String, Object> values = Maps.newHashMap();
+        values.put("kid", randomKeyId());
+        values.put("kty", "OKP");
+        values.put("crv", "Ed25519");
+        values.put("x", Base64.encodeBase64URLSafeString(Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length)));
+
+        PublicKey key = Jwk.fromValues(values).getPublicKey();
+        assertThat(key.getEncoded(), Matchers.equalTo(encoded));
+    }
+
+    @Test
+    public void shouldFailWithUnsupportedOkpCurve() throws Exception {
+        Map<String, Object> values = Maps.newHashMap();
+        values.put("kid", randomKeyId());
+        values.put("kty", "OKP");
+        values.put("crv", "X25519");
+        values.put("x", Base64.encodeBase64URLSafeString(new byte[32]));
+        Assertions.assertThrows(InvalidPublicKeyException.class, () -> Jwk.fromValues(values).getPublicKey());
+    }
+
+    private static Map<String, Object> ecValues(String curve, ECPublicKey key, int length) {
+        Map<String, Object> values = Maps.newHashMap();
+        values.put("kid", randomKeyId());
+        values.put("kty", "EC");
+        values.put("crv", curve);
+        values.put("x", Base64.encodeBase64URLSafeString(unsigned(key.getW().getAffineX(), length)));
+        values.put("y", Base64.encodeBase64URLSafeString(unsigned(key.getW().getAffineY(), length)));
+        return values;
+    }
+
+    private static byte[] unsigned(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        byte[] padded = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, padded, length - copy, copy);
+        return padded;
+    }
+
     private static String randomKeyId() {
         byte[] bytes = new byte[50];
         new SecureRandom().nextBytes(bytes);
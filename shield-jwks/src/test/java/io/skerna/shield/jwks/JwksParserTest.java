@@ -0,0 +1,135 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class JwksParserTest {
+
+    private static List<Jwk> parse(String json) throws IOException {
+        try (JwksParser parser = new JwksParser(new StringReader(json))) {
+            return parser.readJwks();
+        }
+    }
+
+    @Test
+    public void shouldBindSameValuesAsJsonObject() throws Exception {
+        List<Jwk> keys;
+        try (InputStream inputStream = getClass().getResourceAsStream("/jwks.json")) {
+            keys = new JwksParser(inputStream).readJwks();
+        }
+        JSONObject key = new JSONObject(new JSONTokener(getClass().getResourceAsStream("/jwks.json")))
+                .getJSONArray("keys").getJSONObject(0);
+        Jwk expected = Jwk.fromValues(Utils.toMap(key));
+
+        MatcherAssert.assertThat(keys, Matchers.hasSize(1));
+        MatcherAssert.assertThat(keys.get(0).toValues(), Matchers.equalTo(expected.toValues()));
+        MatcherAssert.assertThat(keys.get(0).getAdditionalAttributes().keySet(), Matchers.containsInAnyOrder("n", "e"));
+    }
+
+    @Test
+    public void shouldKeepOnlyUnknownMembersAsAdditionalAttributes() throws Exception {
+        Jwk jwk = parse("{\"keys\":[{\"kid\":\"1\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"key_ops\":[\"verify\"],"
+                + "\"x5c\":[\"a\",\"b\"],\"x5t\":\"t\",\"x5u\":null,\"n\":\"nn\",\"size\":2048,\"big\":123456789012,"
+                + "\"ratio\":1.5e2,\"active\":true,\"nested\":{\"list\":[1,\"two\",false]}}]}").get(0);
+
+        MatcherAssert.assertThat(jwk.getId(), Matchers.is("1"));
+        MatcherAssert.assertThat(jwk.getOperationsAsList(), Matchers.contains("verify"));
+        MatcherAssert.assertThat(jwk.getCertificateChain(), Matchers.contains("a", "b"));
+        MatcherAssert.assertThat(jwk.getCertificateUrl(), Matchers.nullValue());
+        Map<String, Object> values = jwk.getAdditionalAttributes();
+        MatcherAssert.assertThat(values.keySet(), Matchers.containsInAnyOrder("n", "size", "big", "ratio", "active", "nested"));
+        MatcherAssert.assertThat(values.get("size"), Matchers.is((Object) 2048));
+        MatcherAssert.assertThat(values.get("big"), Matchers.is((Object) 123456789012L));
+        MatcherAssert.assertThat(values.get("ratio"), Matchers.is((Object) 150.0));
+        MatcherAssert.assertThat(values.get("active"), Matchers.is((Object) true));
+        MatcherAssert.assertThat(values.get("nested"), Matchers.is((Object) Collections.singletonMap("list", Arrays.asList(1, "two", false))));
+    }
+
+    @Test
+    public void shouldAcceptSingleStringKeyOps() throws Exception {
+        Jwk jwk = parse("{\"keys\":[{\"kid\":\"1\",\"kty\":\"RSA\",\"key_ops\":\"sign\"}]}").get(0);
+        MatcherAssert.assertThat(jwk.getOperations(), Matchers.is("sign"));
+    }
+
+    @Test
+    public void shouldDecodeEscapes() throws Exception {
+        Jwk jwk = parse("{\"keys\":[{\"kid\":\"a\\\"b\\\\c\\/d\\u00e9\\n\",\"kty\":\"RSA\"}]}").get(0);
+        MatcherAssert.assertThat(jwk.getId(), Matchers.is("a\"b\\c/d\u00e9\n"));
+    }
+
+    @Test
+    public void shouldReadStringsAcrossBufferBoundaries() throws Exception {
+        StringBuilder chain = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            chain.append((char) ('A' + i % 26));
+        }
+        Jwk jwk = parse("{\"other\":[1,2],\"keys\":[{\"kid\":\"1\",\"kty\":\"RSA\",\"x5c\":[\"" + chain + "\\u0041\"]}]}").get(0);
+        MatcherAssert.assertThat(jwk.getCertificateChain().get(0), Matchers.is(chain + "A"));
+    }
+
+    @Test
+    public void shouldReturnEmptyWhenThereAreNoKeys() throws Exception {
+        MatcherAssert.assertThat(parse("{}"), Matchers.empty());
+        MatcherAssert.assertThat(parse(" {\"keys\" : [ ] } "), Matchers.empty());
+        MatcherAssert.assertThat(parse("{\"keys\":null}"), Matchers.empty());
+    }
+
+    @Test
+    public void shouldFailWhenKeyIsNotAJwk() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> parse("{\"keys\":[{\"key\":\"value\"}]}")
+        );
+    }
+
+    @Test
+    public void shouldFailWhenJsonIsMalformed() {
+        for (String json : Arrays.asList("", "[]", "{\"keys\":[", "{\"keys\":[{\"kid\":\"1\" \"kty\":\"RSA\"}]}",
+                "{\"keys\":[{\"kid\":\"1\",\"kty\":\"RSA\",\"n\":tru}]}", "{\"keys\":\"abc", "{\"keys\":[{\"kid\":\"\\x\"}]}")) {
+            Assertions.assertThrows(IOException.class, () -> parse(json), json);
+        }
+    }
+
+    @Test
+    public void shouldFailWhenNestingIsTooDeep() {
+        StringBuilder json = new StringBuilder("{\"keys\":[{\"kid\":\"1\",\"kty\":\"RSA\",\"n\":");
+        for (int i = 0; i < 100; i++) {
+            json.append('[');
+        }
+        Assertions.assertThrows(IOException.class, () -> parse(json.toString()));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class KeyedBucketTest {
+
+    @Test
+    public void shouldLimitEachKeyOnItsOwn() {
+        KeyedBucket buckets = new KeyedBucket(2, 1, TimeUnit.HOURS, 100, new BucketImpl(10, 1, TimeUnit.HOURS));
+        Bucket noisy = buckets.forKey("noisy");
+        assertThat(noisy.consume(), Matchers.is(true));
+        assertThat(noisy.consume(), Matchers.is(true));
+        assertThat(noisy.consume(), Matchers.is(false));
+        assertThat(noisy.willLeakIn(), Matchers.greaterThan(0L));
+
+        Bucket quiet = buckets.forKey("quiet");
+        assertThat(quiet.willLeakIn(), Matchers.is(0L));
+        assertThat(quiet.consume(), Matchers.is(true));
+    }
+
+    @Test
+    public void shouldNotConsumeGlobalTokensWhenKeyIsExhausted() {
+        Bucket global = new BucketImpl(3, 1, TimeUnit.HOURS);
+        KeyedBucket buckets = new KeyedBucket(1, 1, TimeUnit.HOURS, 100, global);
+        Bucket noisy = buckets.forKey("noisy");
+        for (int i = 0; i < 10; i++) {
+            noisy.consume();
+        }
+        assertThat(buckets.forKey("a").consume(), Matchers.is(true));
+        assertThat(buckets.forKey("b").consume(), Matchers.is(true));
+        assertThat(global.consume(), Matchers.is(false));
+    }
+
+    @Test
+    public void shouldLimitAllKeysWithGlobalBucket() {
+        KeyedBucket buckets = new KeyedBucket(5, 1, TimeUnit.HOURS, 100, new BucketImpl(2, 1, TimeUnit.HOURS));
+        assertThat(buckets.forKey("a").consume(), Matchers.is(true));
+        assertThat(buckets.forKey("b").consume(), Matchers.is(true));
+        Bucket c = buckets.forKey("c");
+        assertThat(c.consume(), Matchers.is(false));
+        assertThat(c.willLeakIn(), Matchers.greaterThan(0L));
+    }
+
+    @Test
+    public void shouldGiveBackPartitionTokenWhenGlobalBucketRejects() {
+        AtomicInteger rejections = new AtomicInteger(5);
+        Bucket global = new Bucket() {
+            @Override
+            public long willLeakIn() {
+                return 0;
+            }
+
+            @Override
+            public long willLeakIn(long count) {
+                return 0;
+            }
+
+            @Override
+            public boolean consume() {
+                return consume(1);
+            }
+
+            @Override
+            public boolean consume(long count) {
+                return rejections.getAndDecrement() <= 0;
+            }
+        };
+        Bucket partition = new KeyedBucket(2, 1, TimeUnit.HOURS, 100, global).forKey("a");
+        for (int i = 0; i < 5; i++) {
+            assertThat(partition.consume(), Matchers.is(false));
+        }
+        assertThat(partition.consume(), Matchers.is(true));
+        assertThat(partition.consume(), Matchers.is(true));
+        assertThat(partition.consume(), Matchers.is(false));
+    }
+
+    @Test
+    public void shouldEvictIdleKeys() throws Exception {
+        KeyedBucket buckets = new KeyedBucket(1, 20, TimeUnit.MILLISECONDS, 100, new BucketImpl(10, 1, TimeUnit.HOURS));
+        assertThat(buckets.forKey("a").consume(), Matchers.is(true));
+        assertThat(buckets.size(), Matchers.is(1L));
+        Thread.sleep(60);
+        assertThat(buckets.size(), Matchers.is(0L));
+        assertThat(buckets.forKey("a").consume(), Matchers.is(true));
+    }
+
+    @Test
+    public void shouldBoundNumberOfKeys() {
+        KeyedBucket buckets = new KeyedBucket(1, 1, TimeUnit.HOURS, 10, new BucketImpl(1000, 1, TimeUnit.HOURS));
+        for (int i = 0; i < 1000; i++) {
+            buckets.forKey("key" + i).consume();
+        }
+        assertThat(buckets.size(), Matchers.lessThanOrEqualTo(10L));
+    }
+
+    @Test
+    public void shouldNotResetExhaustedKeyWhenRotatingKeys() {
+        KeyedBucket buckets = new KeyedBucket(1, 1, TimeUnit.HOURS, 10, new BucketImpl(1000, 1, TimeUnit.HOURS));
+        Bucket noisy = buckets.forKey("noisy");
+        assertThat(noisy.consume(), Matchers.is(true));
+        for (int i = 0; i < 1000; i++) {
+            buckets.forKey("key" + i).consume();
+        }
+        assertThat(noisy.consume(), Matchers.is(false));
+    }
+
+    @Test
+    public void shouldShareOverflowBucketOverMaxPartitions() {
+        KeyedBucket buckets = new KeyedBucket(1, 1, TimeUnit.HOURS, 1, new BucketImpl(1000, 1, TimeUnit.HOURS));
+        assertThat(buckets.forKey("a").consume(), Matchers.is(true));
+        assertThat(buckets.forKey("b").consume(), Matchers.is(true));
+        assertThat(buckets.forKey("c").consume(), Matchers.is(false));
+        assertThat(buckets.forKey("c").willLeakIn(), Matchers.greaterThan(0L));
+        assertThat(buckets.size(), Matchers.is(1L));
+    }
+
+    @Test
+    public void shouldFailWithNullKey() {
+        KeyedBucket buckets = new KeyedBucket(1, 1, TimeUnit.HOURS, 10, new BucketImpl(1, 1, TimeUnit.HOURS));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> buckets.forKey(null));
+    }
+}
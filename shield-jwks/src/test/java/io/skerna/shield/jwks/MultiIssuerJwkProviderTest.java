@@ -0,0 +1,176 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MultiIssuerJwkProviderTest {
+
+    private static final String KID = "NkJCQzIyQzRBMEU4NjhGNUU4MzU4RkY0M0ZDQzkwOUQ0Q0VGNUMwQg";
+    private static final String ISSUER_A = "https://sso.example.com/realms/a";
+    private static final String ISSUER_B = "https://sso.example.com/realms/b";
+
+    @Test
+    public void shouldLoadIssuersLazily() throws Exception {
+        AtomicInteger connectionsA = new AtomicInteger();
+        AtomicInteger connectionsB = new AtomicInteger();
+        MultiIssuerJwkProvider provider = new MultiIssuerJwkProviderBuilder()
+                // the stub urls are served by their own URLStreamHandler, which only a URLConnection goes through
+                .transport(UrlConnectionTransport.instance())
+                .issuer(ISSUER_A, countingUrl(connectionsA))
+                .issuer(ISSUER_B, countingUrl(connectionsB))
+                .build();
+        MatcherAssert.assertThat(provider.getActiveIssuers(), Matchers.empty());
+
+        MatcherAssert.assertThat(provider.get(ISSUER_A, KID), Matchers.notNullValue());
+        MatcherAssert.assertThat(provider.forIssuer(ISSUER_A).get(KID), Matchers.notNullValue());
+        MatcherAssert.assertThat(provider.getActiveIssuers(), Matchers.contains(ISSUER_A));
+        MatcherAssert.assertThat(connectionsA.get(), Matchers.is(1));
+        MatcherAssert.assertThat(connectionsB.get(), Matchers.is(0));
+        MatcherAssert.assertThat(provider.getIssuerProvider(ISSUER_A), Matchers.instanceOf(RateLimitedJwkProvider.class));
+    }
+
+    @Test
+    public void shouldFailWithUnknownIssuer() throws Exception {
+        MultiIssuerJwkProvider provider = new MultiIssuerJwkProviderBuilder()
+                .issuer(ISSUER_A, getClass().getResource("/jwks.json"))
+                .build();
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(ISSUER_B, KID));
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(null, KID));
+        MatcherAssert.assertThat(provider.getAsync(ISSUER_B, KID).isCompletedExceptionally(), Matchers.is(true));
+        MatcherAssert.assertThat(provider.getActiveIssuers(), Matchers.empty());
+    }
+
+    @Test
+    public void shouldResolveUrlOfIssuer() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        URL url = countingUrl(connections);
+        MultiIssuerJwkProvider provider = new MultiIssuerJwkProviderBuilder()
+                .transport(UrlConnectionTransport.instance())
+                .issuers(issuer -> issuer.startsWith("https://sso.example.com/realms/") ? url : null)
+                .rateLimited(false)
+                .build();
+        provider.get(ISSUER_A, KID);
+        provider.get(ISSUER_B, KID);
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get("https://evil.example.com", KID));
+        MatcherAssert.assertThat(provider.getActiveIssuers(), Matchers.containsInAnyOrder(ISSUER_A, ISSUER_B));
+        MatcherAssert.assertThat(provider.getIssuerProvider(ISSUER_A), Matchers.instanceOf(UrlJwkProvider.class));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(2));
+    }
+
+    @Test
+    public void shouldLimitAllIssuersWithGlobalRateLimit() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        URL url = countingUrl(connections);
+        MultiIssuerJwkProvider provider = new MultiIssuerJwkProviderBuilder()
+                .transport(UrlConnectionTransport.instance())
+                .issuers(issuer -> url)
+                .rateLimited(10, 1, TimeUnit.HOURS)
+                .globalRateLimit(1, 1, TimeUnit.HOURS)
+                .build();
+        provider.get(ISSUER_A, KID);
+        Assertions.assertThrows(RateLimitReachedException.class, () -> provider.get(ISSUER_B, KID));
+        MatcherAssert.assertThat(provider.getIssuerProvider(ISSUER_A), Matchers.instanceOf(RateLimitedJwkProvider.class));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+    }
+
+    @Test
+    public void shouldDropLeastRecentlyUsedIssuerOverBudget() throws Exception {
+        MultiIssuerJwkProvider provider = new MultiIssuerJwkProviderBuilder()
+                .issuer(ISSUER_A, getClass().getResource("/jwks.json"))
+                .issuer(ISSUER_B, getClass().getResource("/jwks.json"))
+                .budget(3, 1, TimeUnit.HOURS)
+                .build();
+        provider.get(ISSUER_A, KID);
+        provider.get(ISSUER_B, KID);
+        MatcherAssert.assertThat(provider.getActiveIssuers(), Matchers.contains(ISSUER_B));
+    }
+
+    @Test
+    public void shouldKeepRateLimitOfIssuerDroppedOverBudget() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        URL url = countingUrl(connections);
+        MultiIssuerJwkProvider provider = new MultiIssuerJwkProviderBuilder()
+                .transport(UrlConnectionTransport.instance())
+                .issuers(issuer -> url)
+                .budget(3, 1, TimeUnit.HOURS)
+                .rateLimited(1, 1, TimeUnit.HOURS)
+                .build();
+        provider.get(ISSUER_A, KID);
+        for (int i = 0; i < 10; i++) {
+            provider.get(ISSUER_B + i, KID);
+        }
+        MatcherAssert.assertThat(provider.getActiveIssuers(), Matchers.contains(ISSUER_B + 9));
+        Assertions.assertThrows(RateLimitReachedException.class, () -> provider.get(ISSUER_A, KID));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(11));
+    }
+
+    @Test
+    public void shouldFailWithInvalidMaxRateLimitedIssuers() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new MultiIssuerJwkProviderBuilder().maxRateLimitedIssuers(0));
+    }
+
+    @Test
+    public void shouldGetAsyncOnSharedExecutor() throws Exception {
+        AtomicInteger tasks = new AtomicInteger();
+        MultiIssuerJwkProvider provider = new MultiIssuerJwkProviderBuilder()
+                .issuer(ISSUER_A, getClass().getResource("/jwks.json"))
+                .issuer(ISSUER_B, getClass().getResource("/jwks.json"))
+                .fetchExecutor(command -> {
+                    tasks.incrementAndGet();
+                    command.run();
+                })
+                .build();
+        MatcherAssert.assertThat(provider.getAsync(ISSUER_A, KID).get(), Matchers.notNullValue());
+        MatcherAssert.assertThat(provider.forIssuer(ISSUER_B).getAsync(KID).get(), Matchers.notNullValue());
+        MatcherAssert.assertThat(provider.getAsync(ISSUER_A, KID).isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(tasks.get(), Matchers.is(2));
+    }
+
+    @Test
+    public void shouldFailToBuildWithoutIssuers() {
+        Assertions.assertThrows(IllegalStateException.class, () -> new MultiIssuerJwkProviderBuilder().build());
+    }
+
+    private URL countingUrl(AtomicInteger connections) throws MalformedURLException {
+        URLStreamHandler stubUrlHandler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                connections.incrementAndGet();
+                return getClass().getResource("/jwks.json").openConnection();
+            }
+        };
+        return new URL("http", "localhost", 80, "/jwks.json", stubUrlHandler);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+
+@ExtendWith(MockitoExtension.class)
+public class NegativeCachedJwkProviderTest {
+
+    private static final String KID = "KID";
+    private static final String KNOWN_KID = "NkJCQzIyQzRBMEU4NjhGNUU4MzU4RkY0M0ZDQzkwOUQ0Q0VGNUMwQg";
+    private NegativeCachedJwkProvider provider;
+
+    @Mock
+    private JwkProvider fallback;
+
+    @Mock
+    private Jwk jwk;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        provider = new NegativeCachedJwkProvider(fallback, 10, 1, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void shouldRememberUnknownKid() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenThrow(new UnknownKeyIdException("TEST!", KID));
+        Assertions.assertThrows(UnknownKeyIdException.class, () -> provider.get(KID));
+        Assertions.assertThrows(UnknownKeyIdException.class, () -> provider.get(KID));
+        Mockito.verify(fallback, Mockito.times(1)).get(KID);
+    }
+
+    @Test
+    public void shouldNotRememberLoadFailures() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenThrow(new SigningKeyNotFoundException("TEST!", null));
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(KID));
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(KID));
+        Mockito.verify(fallback, Mockito.times(2)).get(KID);
+    }
+
+    @Test
+    public void shouldServeRememberedKidOnceBaseProviderHasIt() throws Exception {
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenThrow(new UnknownKeyIdException("TEST!", KID));
+        Assertions.assertThrows(UnknownKeyIdException.class, () -> provider.get(KID));
+        Mockito.when(fallback.getIfPresent(ArgumentMatchers.eq(KID))).thenReturn(jwk);
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        Mockito.verify(fallback, Mockito.times(1)).get(KID);
+    }
+
+    @Test
+    public void shouldRejectKidMissingFromRecentJwksWithoutLoading() throws Exception {
+        UrlJwkProvider jwks = new UrlJwkProvider(getClass().getResource("/jwks.json"));
+        jwks.refresh();
+        provider = new NegativeCachedJwkProvider(fallback, jwks, 10, 1, TimeUnit.MINUTES, JwksMetrics.NOOP);
+        for (int i = 0; i < 100; i++) {
+            String forged = "forged-" + i;
+            Assertions.assertThrows(UnknownKeyIdException.class, () -> provider.get(forged));
+        }
+        Mockito.verify(fallback, Mockito.never()).get(ArgumentMatchers.anyString());
+
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KNOWN_KID))).thenReturn(jwk);
+        assertThat(provider.get(KNOWN_KID), Matchers.equalTo(jwk));
+    }
+
+    @Test
+    public void shouldLoadKidMissingFromOldJwks() throws Exception {
+        Path file = Files.createTempFile("jwks", ".json");
+        file.toFile().deleteOnExit();
+        long fetchedAt = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        FileJwkSetStore store = new FileJwkSetStore(file);
+        store.save(new UrlJwkProvider(getClass().getResource("/jwks.json")).getJwkSet().revalidated(fetchedAt, null, -1));
+        UrlJwkProvider jwks = new UrlJwkProvider(getClass().getResource("/jwks.json"), null, null, 10, 10, TimeUnit.HOURS, store);
+        provider = new NegativeCachedJwkProvider(fallback, jwks, 10, 1, TimeUnit.MINUTES, JwksMetrics.NOOP);
+
+        Mockito.when(fallback.get(ArgumentMatchers.eq(KID))).thenThrow(new UnknownKeyIdException("TEST!", KID));
+        Assertions.assertThrows(UnknownKeyIdException.class, () -> provider.get(KID));
+        Assertions.assertThrows(UnknownKeyIdException.class, () -> provider.get(KID));
+        Mockito.verify(fallback, Mockito.times(1)).get(KID);
+    }
+
+    @Test
+    public void shouldGetBaseProvider() throws Exception {
+        assertThat(provider.getBaseProvider(), Matchers.equalTo(fallback));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwks;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class OidcDiscoveryTest {
+
+    private static final String KID = "NkJCQzIyQzRBMEU4NjhGNUU4MzU4RkY0M0ZDQzkwOUQ0Q0VGNUMwQg";
+
+    private HttpServer server;
+    private String issuer;
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final AtomicReference<String> jwksPath = new AtomicReference<>("/certs");
+    private final AtomicReference<String> cacheControl = new AtomicReference<>("max-age=3600");
+    private volatile boolean failing;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        byte[] jwks = ByteStreams.toByteArray(getClass().getResourceAsStream("/jwks.json"));
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        issuer = "http://localhost:" + server.getAddress().getPort() + "/realms/main";
+        server.createContext("/realms/main/.well-known/openid-configuration", exchange -> {
+            requests.add(exchange.getRequestURI().getPath() + " " + exchange.getRequestHeaders().getFirst("If-None-Match"));
+            if (failing) {
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+                return;
+            }
+            String etag = "\"" + jwksPath.get() + "\"";
+            exchange.getResponseHeaders().add("ETag", etag);
+            exchange.getResponseHeaders().add("Cache-Control", cacheControl.get());
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            respond(exchange, ("{\"issuer\":\"" + issuer + "\",\"jwks_uri\":\"" + issuer + jwksPath.get() + "\","
+                    + "\"token_endpoint\":\"" + issuer + "/token\",\"id_token_signing_alg_values_supported\":[\"RS256\",\"ES256\"],"
+                    + "\"claims_supported\":[\"sub\",\"iss\"],\"request_parameter_supported\":true}").getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/realms/main/certs", exchange -> {
+            requests.add(exchange.getRequestURI().getPath());
+            respond(exchange, jwks);
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static void respond(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+        exchange.close();
+    }
+
+    @Test
+    public void shouldBuildWellKnownUrl() {
+        MatcherAssert.assertThat(OidcDiscovery.urlForIssuer("https://sso.example.com/realms/a/").toString(),
+                Matchers.is("https://sso.example.com/realms/a/.well-known/openid-configuration"));
+        MatcherAssert.assertThat(OidcDiscovery.urlForIssuer("https://sso.example.com").toString(),
+                Matchers.is("https://sso.example.com/.well-known/openid-configuration"));
+    }
+
+    @Test
+    public void shouldLoadMetadataOnce() throws Exception {
+        OidcDiscovery discovery = new OidcDiscovery(issuer);
+        OidcProviderMetadata metadata = discovery.getMetadata();
+        MatcherAssert.assertThat(discovery.getMetadata(), Matchers.sameInstance(metadata));
+        MatcherAssert.assertThat(metadata.getIssuer(), Matchers.is(issuer));
+        MatcherAssert.assertThat(metadata.getJwksUri(), Matchers.is(new URL(issuer + "/certs")));
+        MatcherAssert.assertThat(metadata.getTokenEndpoint(), Matchers.is(issuer + "/token"));
+        MatcherAssert.assertThat(metadata.getIdTokenSigningAlgValuesSupported(), Matchers.contains("RS256", "ES256"));
+        MatcherAssert.assertThat(metadata.getMaxAge(), Matchers.is(TimeUnit.HOURS.toMillis(1)));
+        MatcherAssert.assertThat(requests, Matchers.hasSize(1));
+    }
+
+    @Test
+    public void shouldRevalidateExpiredMetadata() throws Exception {
+        cacheControl.set("no-cache");
+        OidcDiscovery discovery = new OidcDiscovery(issuer, null, null, 0, 1, TimeUnit.HOURS);
+        OidcProviderMetadata first = discovery.getMetadata();
+        OidcProviderMetadata second = discovery.getMetadata();
+        MatcherAssert.assertThat(second.getJwksUri(), Matchers.is(first.getJwksUri()));
+        MatcherAssert.assertThat(requests.get(1), Matchers.endsWith("\"/certs\""));
+
+        jwksPath.set("/certs/v2");
+        MatcherAssert.assertThat(discovery.getMetadata().getJwksUri(), Matchers.is(new URL(issuer + "/certs/v2")));
+        MatcherAssert.assertThat(requests, Matchers.hasSize(3));
+    }
+
+    @Test
+    public void shouldKeepLastMetadataWhenRevalidationFails() throws Exception {
+        OidcDiscovery discovery = new OidcDiscovery(issuer);
+        OidcProviderMetadata metadata = discovery.getMetadata();
+        failing = true;
+        MatcherAssert.assertThat(discovery.refresh(), Matchers.sameInstance(metadata));
+        MatcherAssert.assertThat(discovery.getMetadata(), Matchers.sameInstance(metadata));
+        MatcherAssert.assertThat(requests, Matchers.hasSize(2));
+    }
+
+    @Test
+    public void shouldFailWhenFirstLoadFails() {
+        failing = true;
+        Assertions.assertThrows(DiscoveryException.class, () -> new OidcDiscovery(issuer).getMetadata());
+    }
+
+    @Test
+    public void shouldFailWhenIssuerDoesNotMatch() {
+        OidcDiscovery discovery = new OidcDiscovery(issuer + "/other", OidcDiscovery.urlForIssuer(issuer), null, null, 1, 1, TimeUnit.MINUTES);
+        Assertions.assertThrows(DiscoveryException.class, discovery::getMetadata);
+    }
+
+    @Test
+    public void shouldFollowJwksUriOfMetadata() throws Exception {
+        cacheControl.set("no-cache");
+        OidcDiscovery discovery = new OidcDiscovery(issuer, null, null, 0, 1, TimeUnit.HOURS);
+        JwkProvider provider = new JwkProviderBuilder(discovery).cached(false).rateLimited(false).build();
+        MatcherAssert.assertThat(provider.get(KID), Matchers.notNullValue());
+
+        jwksPath.set("/certs/v2");
+        ((UrlJwkProvider) provider).refresh();
+        MatcherAssert.assertThat(requests, Matchers.contains(
+                "/realms/main/.well-known/openid-configuration null",
+                "/realms/main/certs",
+                "/realms/main/.well-known/openid-configuration \"/certs\"",
+                "/realms/main/certs/v2"));
+    }
+}
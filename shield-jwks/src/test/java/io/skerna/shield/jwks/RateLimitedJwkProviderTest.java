@@ -23,6 +23,7 @@
 package io.skerna.shield.jwks;
 
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -31,6 +32,9 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
@@ -64,6 +68,128 @@ public class RateLimitedJwkProviderTest {
         Mockito.verify(fallback).get(ArgumentMatchers.eq(KID));
     }
 
+    @Test
+    public void shouldNotConsumeTokenWhenBaseProviderHasKey() throws Exception {
+        Mockito.when(fallback.getIfPresent(ArgumentMatchers.eq(KID))).thenReturn(jwk);
+        assertThat(provider.get(KID), Matchers.equalTo(jwk));
+        Mockito.verifyZeroInteractions(bucket);
+        Mockito.verify(fallback, Mockito.never()).get(ArgumentMatchers.anyString());
+    }
+
+    @Test
+    public void shouldFailWhenBucketIsEmpty() throws Exception {
+        Mockito.when(bucket.consume()).thenReturn(false);
+        Mockito.when(bucket.willLeakIn()).thenReturn(100L);
+        RateLimitReachedException e = Assertions.assertThrows(RateLimitReachedException.class, () -> provider.get(KID));
+        assertThat(e.getAvailableIn(), Matchers.is(100L));
+        Mockito.verify(fallback, Mockito.never()).get(ArgumentMatchers.anyString());
+    }
+
+    @Test
+    public void shouldReportRejectionsToMetrics() throws Exception {
+        JwksMetrics metrics = Mockito.mock(JwksMetrics.class);
+        provider = new RateLimitedJwkProvider(fallback, bucket, 0, metrics);
+        Mockito.when(bucket.consume()).thenReturn(false);
+        Mockito.when(bucket.willLeakIn()).thenReturn(100L);
+        Assertions.assertThrows(RateLimitReachedException.class, () -> provider.get(KID));
+        Mockito.verify(metrics).rateLimited(100L);
+    }
+
+    @Test
+    public void shouldWaitForNextTokenBeforeDeadline() throws Exception {
+        provider = new RateLimitedJwkProvider(fallback, new BucketImpl(1, 50, TimeUnit.MILLISECONDS), 0, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenReturn(jwk);
+        provider.get(KID);
+        long start = System.nanoTime();
+        assertThat(provider.get(KID, 1, TimeUnit.SECONDS), Matchers.equalTo(jwk));
+        assertThat(System.nanoTime() - start, Matchers.greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(30)));
+        Mockito.verify(fallback, Mockito.times(2)).get(KID);
+    }
+
+    @Test
+    public void shouldFailFastWhenNextTokenIsAfterDeadline() throws Exception {
+        JwksMetrics metrics = Mockito.mock(JwksMetrics.class);
+        provider = new RateLimitedJwkProvider(fallback, new BucketImpl(1, 1, TimeUnit.HOURS), 0, metrics);
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenReturn(jwk);
+        provider.get(KID);
+        long start = System.nanoTime();
+        Assertions.assertThrows(RateLimitReachedException.class, () -> provider.get(KID, 5, TimeUnit.SECONDS));
+        assertThat(System.nanoTime() - start, Matchers.lessThan(TimeUnit.SECONDS.toNanos(1)));
+        Mockito.verify(metrics).rateLimited(ArgumentMatchers.longThat(wait -> wait > TimeUnit.MINUTES.toMillis(59)));
+    }
+
+    @Test
+    public void shouldStopWaitingWhenInterrupted() throws Exception {
+        provider = new RateLimitedJwkProvider(fallback, new BucketImpl(1, 10, TimeUnit.SECONDS), 60000, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenReturn(jwk);
+        provider.get(KID);
+        Thread.currentThread().interrupt();
+        try {
+            Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get("other"));
+            assertThat(Thread.currentThread().isInterrupted(), Matchers.is(true));
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void shouldWaitAsyncForNextToken() throws Exception {
+        provider = new RateLimitedJwkProvider(fallback, new BucketImpl(1, 50, TimeUnit.MILLISECONDS), 1000, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenReturn(jwk);
+        assertThat(provider.getAsync(KID).get(), Matchers.equalTo(jwk));
+        assertThat(provider.getAsync("other").get(1, TimeUnit.SECONDS), Matchers.equalTo(jwk));
+
+        provider = new RateLimitedJwkProvider(fallback, new BucketImpl(1, 1, TimeUnit.HOURS), 1000, JwksMetrics.NOOP);
+        provider.getAsync(KID).get();
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> provider.getAsync("other").get());
+        assertThat(e.getCause(), Matchers.instanceOf(RateLimitReachedException.class));
+    }
+
+    @Test
+    public void shouldNotSpendPartitionTokenWhileWaitingForGlobalBucket() throws Exception {
+        KeyedBucket partitions = new KeyedBucket(2, 1, TimeUnit.HOURS, 100, new BucketImpl(1, 50, TimeUnit.MILLISECONDS));
+        provider = new RateLimitedJwkProvider(fallback, partitions, 1000, JwksMetrics.NOOP);
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenReturn(jwk);
+        AsyncJwkProvider partition = provider.forPartition("tenant");
+        assertThat(partition.get("a"), Matchers.equalTo(jwk));
+        assertThat(partition.get("b"), Matchers.equalTo(jwk));
+        Assertions.assertThrows(RateLimitReachedException.class, () -> partition.get("c"));
+
+        AsyncJwkProvider other = provider.forPartition("other");
+        assertThat(other.getAsync("a").get(1, TimeUnit.SECONDS), Matchers.equalTo(jwk));
+        assertThat(other.getAsync("b").get(1, TimeUnit.SECONDS), Matchers.equalTo(jwk));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> other.getAsync("c").get());
+        assertThat(e.getCause(), Matchers.instanceOf(RateLimitReachedException.class));
+    }
+
+    @Test
+    public void shouldLimitEachPartitionOnItsOwn() throws Exception {
+        provider = new RateLimitedJwkProvider(fallback, 1, 1, 10, 1, TimeUnit.HOURS);
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenReturn(jwk);
+        AsyncJwkProvider noisy = provider.forPartition("noisy");
+        assertThat(noisy.get("bogus1"), Matchers.equalTo(jwk));
+        Assertions.assertThrows(RateLimitReachedException.class, () -> noisy.get("bogus2"));
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> noisy.getAsync("bogus3").get());
+        assertThat(e.getCause(), Matchers.instanceOf(RateLimitReachedException.class));
+
+        assertThat(provider.forPartition("quiet").get(KID), Matchers.equalTo(jwk));
+        assertThat(provider.forPartition("other").getAsync(KID).get(), Matchers.equalTo(jwk));
+    }
+
+    @Test
+    public void shouldLimitAllPartitionsWithGlobalBucket() throws Exception {
+        provider = new RateLimitedJwkProvider(fallback, 5, 1, 2, 1, TimeUnit.HOURS);
+        Mockito.when(fallback.get(ArgumentMatchers.anyString())).thenReturn(jwk);
+        provider.forPartition("a").get(KID);
+        provider.get(KID);
+        Assertions.assertThrows(RateLimitReachedException.class, () -> provider.forPartition("b").get(KID));
+    }
+
+    @Test
+    public void shouldFailToPartitionWithSingleBucket() throws Exception {
+        Assertions.assertThrows(IllegalStateException.class, () -> provider.forPartition("a"));
+    }
+
     @Test
     public void shouldGetBaseProvider() throws Exception {
         assertThat(provider.getBaseProvider(), Matchers.equalTo(fallback));
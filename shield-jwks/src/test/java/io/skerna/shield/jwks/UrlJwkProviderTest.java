@@ -22,6 +22,8 @@
 
 package io.skerna.shield.jwks;
 
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.*;
@@ -29,10 +31,27 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.notNullValue;
@@ -250,4 +269,337 @@ public class UrlJwkProviderTest {
         Mockito.verify(urlConnection).setReadTimeout(readTimeoutCaptor.capture());
         MatcherAssert.assertThat(readTimeoutCaptor.getValue(), Matchers.is(readTimeout));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldServeKnownKidFromSnapshot() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        UrlJwkProvider provider = new UrlJwkProvider(countingUrl(connections), null, null);
+        Jwk first = provider.get(KID);
+        Jwk second = provider.get(KID);
+        MatcherAssert.assertThat(second, Matchers.sameInstance(first));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+        MatcherAssert.assertThat(provider.getJwkSet().size(), Matchers.is(1));
+    }
+
+    @Test
+    public void shouldReloadSnapshotOnUnknownKid() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        UrlJwkProvider provider = new UrlJwkProvider(countingUrl(connections), null, null);
+        provider.get(KID);
+        Assertions.assertThrows(UnknownKeyIdException.class, () -> provider.get("UNKNOWN"));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(2));
+        assertNotNull(provider.get(KID));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(2));
+    }
+
+    @Test
+    public void shouldReloadExpiredSnapshot() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        UrlJwkProvider provider = new UrlJwkProvider(countingUrl(connections), null, null, 0, TimeUnit.MILLISECONDS);
+        provider.get(KID);
+        provider.get(KID);
+        MatcherAssert.assertThat(connections.get(), Matchers.is(2));
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentReloads() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        URLStreamHandler blockingHandler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                connections.incrementAndGet();
+                return new URLConnection(u) {
+                    @Override
+                    public void connect() {
+                    }
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return UrlJwkProviderTest.class.getResourceAsStream("/jwks.json");
+                    }
+                };
+            }
+        };
+        UrlJwkProvider provider = new UrlJwkProvider(new URL("http", "localhost", 80, "/jwks.json", blockingHandler));
+
+        int callers = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<Jwk>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> provider.get(KID)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Jwk> result : results) {
+                assertNotNull(result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+    }
+
+    @Test
+    public void shouldNotLoadOnGetIfPresent() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        UrlJwkProvider provider = new UrlJwkProvider(countingUrl(connections), null, null);
+        MatcherAssert.assertThat(provider.getIfPresent(KID), Matchers.nullValue());
+        provider.get(KID);
+        MatcherAssert.assertThat(provider.getIfPresent(KID), Matchers.notNullValue());
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+    }
+
+    @Test
+    public void shouldServeLastKnownJwkOfExpiredSnapshotWhileReloading() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        UrlJwkProvider provider = new UrlJwkProvider(countingUrl(connections), null, null, 0, 0, TimeUnit.MILLISECONDS, null, tasks::add);
+        MatcherAssert.assertThat(provider.getLastKnown(KID), Matchers.nullValue());
+        Jwk jwk = provider.get(KID);
+        MatcherAssert.assertThat(provider.getIfPresent(KID), Matchers.nullValue());
+
+        MatcherAssert.assertThat(provider.getLastKnown(KID), Matchers.sameInstance(jwk));
+        MatcherAssert.assertThat(provider.getLastKnown("UNKNOWN"), Matchers.nullValue());
+        MatcherAssert.assertThat(tasks.size(), Matchers.is(1));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+
+        tasks.remove(0).run();
+        MatcherAssert.assertThat(connections.get(), Matchers.is(2));
+        MatcherAssert.assertThat(provider.getLastKnown(KID), Matchers.notNullValue());
+        MatcherAssert.assertThat(provider.getLastKnown(KID), Matchers.not(Matchers.sameInstance(jwk)));
+    }
+
+    @Test
+    public void shouldWaitBeforeReloadingLastKnownAfterFailure() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        URLStreamHandler failingHandler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                if (connections.incrementAndGet() > 1) {
+                    throw new IOException("unreachable");
+                }
+                return getClass().getResource("/jwks.json").openConnection();
+            }
+        };
+        UrlJwkProvider provider = new UrlJwkProvider(new URL("http", "localhost", 80, "/jwks.json", failingHandler), null, null, 0, 0, TimeUnit.MILLISECONDS, null, Runnable::run);
+        Jwk jwk = provider.get(KID);
+        MatcherAssert.assertThat(provider.getLastKnown(KID), Matchers.sameInstance(jwk));
+        MatcherAssert.assertThat(provider.getLastKnown(KID), Matchers.sameInstance(jwk));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(2));
+    }
+
+    @Test
+    public void shouldLoadAsynchronouslyOnExecutor() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        UrlJwkProvider provider = new UrlJwkProvider(countingUrl(connections), null, null, 0, UrlJwkProvider.DEFAULT_MAX_AGE, TimeUnit.MILLISECONDS, null, tasks::add);
+        CompletableFuture<Jwk> miss = provider.getAsync(KID);
+        MatcherAssert.assertThat(miss.isDone(), Matchers.is(false));
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+        tasks.get(0).run();
+        assertNotNull(miss.get(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Jwk> hit = provider.getAsync(KID);
+        MatcherAssert.assertThat(hit.isDone(), Matchers.is(true));
+        MatcherAssert.assertThat(hit.get(), Matchers.sameInstance(miss.get()));
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+    }
+
+    @Test
+    public void shouldRunScheduledReloadsOnExecutor() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        List<Runnable> tasks = new CopyOnWriteArrayList<>();
+        UrlJwkProvider provider = new UrlJwkProvider(countingUrl(connections), null, null);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            provider.scheduleRefresh(scheduler, tasks::add, 10, TimeUnit.MILLISECONDS);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (tasks.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+        } finally {
+            scheduler.shutdownNow();
+        }
+        MatcherAssert.assertThat(tasks, Matchers.hasSize(1));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(0));
+        tasks.get(0).run();
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+        MatcherAssert.assertThat(provider.getIfPresent(KID), Matchers.notNullValue());
+    }
+
+    @Test
+    public void shouldFailAsynchronouslyWithUnknownKeyId() throws Exception {
+        UrlJwkProvider provider = new UrlJwkProvider(getClass().getResource("/jwks.json"), null, null, 0, UrlJwkProvider.DEFAULT_MAX_AGE, TimeUnit.MILLISECONDS, null, Runnable::run);
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> provider.getAsync("unknown").get());
+        MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(UnknownKeyIdException.class));
+        MatcherAssert.assertThat(provider.getIfPresentAsync("unknown").get(), Matchers.nullValue());
+    }
+
+    @Test
+    public void shouldBuildPublicKeysWhenLoadingEagerly() throws Exception {
+        URL url = getClass().getResource("/jwks.json");
+        UrlJwkProvider lazy = new UrlJwkProvider(url);
+        MatcherAssert.assertThat(lazy.get(KID).isPublicKeyMaterialized(), Matchers.is(false));
+        UrlJwkProvider eager = new UrlJwkProvider(new UrlJwkProvider.Options().ages(1, 1, TimeUnit.HOURS).eagerPublicKeys(true), url, null);
+        MatcherAssert.assertThat(eager.get(KID).isPublicKeyMaterialized(), Matchers.is(true));
+    }
+
+    @Test
+    public void shouldReportLoadsToMetrics() throws Exception {
+        URL url = getClass().getResource("/jwks.json");
+        long size = ByteStreams.toByteArray(url.openStream()).length;
+        JwksMetrics metrics = mock(JwksMetrics.class);
+        UrlJwkProvider provider = new UrlJwkProvider(new UrlJwkProvider.Options().ages(1, 1, TimeUnit.HOURS).metrics(metrics), url, null);
+        provider.get(KID);
+        Mockito.verify(metrics).parsed(Mockito.anyLong(), Mockito.eq(1));
+        Mockito.verify(metrics).fetched(Mockito.anyLong(), Mockito.eq(size));
+
+        UrlJwkProvider missing = new UrlJwkProvider(new UrlJwkProvider.Options().ages(1, 1, TimeUnit.HOURS).metrics(metrics), new URL("file:///not_found.file"), null);
+        Assertions.assertThrows(SigningKeyNotFoundException.class, () -> missing.get(KID));
+        Mockito.verify(metrics).fetchFailed(Mockito.anyLong());
+    }
+
+    @Test
+    public void shouldKeepSnapshotWhenNotModified() throws Exception {
+        byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/jwks.json"));
+        List<String> validators = new ArrayList<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks.json", exchange -> {
+            validators.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http", "localhost", server.getAddress().getPort(), "/jwks.json");
+            UrlJwkProvider provider = new UrlJwkProvider(url, null, null, 0, TimeUnit.MILLISECONDS);
+            Jwk first = provider.get(KID);
+            Jwk second = provider.get(KID);
+            MatcherAssert.assertThat(second, Matchers.sameInstance(first));
+            MatcherAssert.assertThat(validators, Matchers.contains(null, "\"v1\""));
+            MatcherAssert.assertThat(provider.getJwkSet().getEtag(), Matchers.is("\"v1\""));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldReuseConnectionWithJdkHttpTransport() throws Exception {
+        byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/jwks.json"));
+        List<String> validators = new ArrayList<>();
+        Set<Integer> clientPorts = new HashSet<>();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks.json", exchange -> {
+            validators.add(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            exchange.getResponseHeaders().add("ETag", "\"v1\"");
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http", "localhost", server.getAddress().getPort(), "/jwks.json");
+            UrlJwkProvider provider = new UrlJwkProvider(new UrlJwkProvider.Options().timeouts(1000, 1000).ages(1, 1, TimeUnit.HOURS).transport(new JdkHttpTransport()), url, null);
+            Jwk first = provider.get(KID);
+            provider.refresh();
+            MatcherAssert.assertThat(provider.get(KID), Matchers.sameInstance(first));
+            MatcherAssert.assertThat(validators, Matchers.contains(null, "\"v1\""));
+            MatcherAssert.assertThat(clientPorts.size(), Matchers.is(1));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldFailWithUnexpectedStatus() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks.json", exchange -> {
+            exchange.sendResponseHeaders(503, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http", "localhost", server.getAddress().getPort(), "/jwks.json");
+            UrlJwkProvider provider = new UrlJwkProvider(new UrlJwkProvider.Options().ages(0, 0, TimeUnit.MILLISECONDS).transport(JdkHttpTransport.shared()), url, null);
+            SigningKeyNotFoundException e = Assertions.assertThrows(SigningKeyNotFoundException.class, () -> provider.get(KID));
+            MatcherAssert.assertThat(e.getCause().getMessage(), Matchers.containsString("503"));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldUseCacheControlMaxAgeWithinBounds() throws Exception {
+        byte[] body = ByteStreams.toByteArray(getClass().getResourceAsStream("/jwks.json"));
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/jwks.json", exchange -> {
+            String cacheControl = requests.incrementAndGet() == 1 ? "public, max-age=3600" : "no-cache";
+            exchange.getResponseHeaders().add("Cache-Control", cacheControl);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+        try {
+            URL url = new URL("http", "localhost", server.getAddress().getPort(), "/jwks.json");
+            UrlJwkProvider provider = new UrlJwkProvider(url, null, null, 0, 10, TimeUnit.HOURS);
+            provider.get(KID);
+            provider.get(KID);
+            MatcherAssert.assertThat(requests.get(), Matchers.is(1));
+            MatcherAssert.assertThat(provider.getJwkSet().getMaxAge(), Matchers.is(TimeUnit.HOURS.toMillis(1)));
+
+            provider.refresh();
+            provider.get(KID);
+            MatcherAssert.assertThat(requests.get(), Matchers.is(3));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void shouldParseCacheControlMaxAge() {
+        MatcherAssert.assertThat(UrlJwkProvider.parseMaxAge(null), Matchers.is(-1L));
+        MatcherAssert.assertThat(UrlJwkProvider.parseMaxAge("public"), Matchers.is(-1L));
+        MatcherAssert.assertThat(UrlJwkProvider.parseMaxAge("public, max-age=60"), Matchers.is(60000L));
+        MatcherAssert.assertThat(UrlJwkProvider.parseMaxAge("Max-Age=10, must-revalidate"), Matchers.is(10000L));
+        MatcherAssert.assertThat(UrlJwkProvider.parseMaxAge("max-age=60, no-cache"), Matchers.is(0L));
+        MatcherAssert.assertThat(UrlJwkProvider.parseMaxAge("max-age=abc"), Matchers.is(-1L));
+    }
+
+    private URL countingUrl(AtomicInteger connections) throws MalformedURLException {
+        URLStreamHandler stubUrlHandler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                connections.incrementAndGet();
+                return getClass().getResource("/jwks.json").openConnection();
+            }
+        };
+        return new URL("http", "localhost", 80, "/jwks.json", stubUrlHandler);
+    }
+}
@@ -26,6 +26,8 @@ import com.github.scribejava.apis.openid.OpenIdJsonTokenExtractor;
 import com.github.scribejava.core.builder.api.DefaultApi20;
 import com.github.scribejava.core.model.*;
 import com.github.scribejava.core.oauth.OAuth20Service;
+import io.skerna.shield.jwks.DiscoveryException;
+import io.skerna.shield.jwks.OidcDiscovery;
 
 import java.util.Objects;
 import java.util.WeakHashMap;
@@ -35,11 +37,13 @@ public class AccessTokenResolver implements TokenResolver   {
 
     private OAuth20Service service;
     private String refreshToken;
+    private OidcDiscovery discovery;
 
-    private AccessTokenResolver(OAuth20Service service, String refreshToken)
+    private AccessTokenResolver(OAuth20Service service, String refreshToken, OidcDiscovery discovery)
     {
         this.service = service;
         this.refreshToken = refreshToken;
+        this.discovery = discovery;
     }
 
     public OAuth2AccessToken resolveAccessToken(){
@@ -50,8 +54,8 @@ public class AccessTokenResolver implements TokenResolver   {
         int idToken = getInternalId(refreshToken);
         try {
             if(!hasAccessTokenLive(idToken)){
-                String endpoint = api.getAccessTokenEndpoint();
-                OAuthRequest request = new OAuthRequest(Verb.POST,"http://192.168.1.33:8000/auth/realms/r2b/protocol/openid-connect/token");
+                String endpoint = getTokenEndpoint(api);
+                OAuthRequest request = new OAuthRequest(Verb.POST,endpoint);
                 request.addBodyParameter("grant_type","refresh_token");
                 request.addBodyParameter("refresh_token",refreshToken);
                 request.addBodyParameter("client_id",apiId);
@@ -79,6 +83,21 @@ public class AccessTokenResolver implements TokenResolver   {
         }
 
     }
+    /**
+     * Token endpoint from the provider metadata when discovered, from the api otherwise
+     * @return
+     */
+    private String getTokenEndpoint(DefaultApi20 api) throws DiscoveryException {
+        if(discovery == null){
+            return api.getAccessTokenEndpoint();
+        }
+        String endpoint = discovery.getMetadata().getTokenEndpoint();
+        if(endpoint == null){
+            throw new TokenResolverException("token_endpoint not found in metadata of issuer "+discovery.getIssuer());
+        }
+        return endpoint;
+    }
+
     boolean hasAccessTokenLive(String refreshToken) {
         int id = getInternalId(refreshToken);
         return hasAccessTokenLive(id);
@@ -133,6 +152,20 @@ public class AccessTokenResolver implements TokenResolver   {
      */
     public static AccessTokenResolver instance(OAuth20Service service,
                                                String refreshToken){
-        return new AccessTokenResolver(service, refreshToken);
+        return new AccessTokenResolver(service, refreshToken, null);
+    }
+
+    /**
+     * Create new refresh Token, using the token endpoint of the OpenID provider metadata
+     * @param service
+     * @param refreshToken
+     * @param discovery metadata of the issuer, shared with the jwks providers
+     * @return
+     */
+    public static AccessTokenResolver instance(OAuth20Service service,
+                                               String refreshToken,
+                                               OidcDiscovery discovery){
+        Objects.requireNonNull(discovery,"discovery cannot be null");
+        return new AccessTokenResolver(service, refreshToken, discovery);
     }
 }
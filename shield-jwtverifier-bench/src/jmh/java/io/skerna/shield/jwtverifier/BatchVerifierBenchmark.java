@@ -0,0 +1,77 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A batch of distinct RS256 tokens of the same kid verified one after the other, and with
+ * {@link JwtVerifier#verifyAll(List, java.util.concurrent.Executor)} on the common fork join pool. The key is
+ * resolved in the setup, so no verification blocks and the speedup is bounded by the cores of the machine.
+ */
+@State(Scope.Benchmark)
+public class BatchVerifierBenchmark {
+
+    @Param({"1000"})
+    int size;
+
+    private JwtVerifier verifier;
+    private List<String> tokens;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Tokens generator = new Tokens();
+        verifier = new JwtVerifier(generator.adapter());
+        tokens = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            tokens.add(generator.token("user" + i));
+        }
+        verifier.verify(tokens.get(0));
+    }
+
+    @Benchmark
+    public List<VerificationResult> sequential() {
+        final List<VerificationResult> results = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            try {
+                results.add(VerificationResult.verified(verifier.verify(token)));
+            } catch (VerifyException e) {
+                results.add(VerificationResult.failed(e));
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public List<VerificationResult> verifyAll() {
+        return verifier.verifyAll(tokens, ForkJoinPool.commonPool());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verification of a RS256 token whose key is already resolved: with a jjwt parser built for every token, as
+ * {@link Jwt#verify(String, RSAJwksAdapter)} used to do, and with a {@link JwtVerifier} built once. Both pay for the
+ * same RSA verify, the difference is the parser setup and its allocations. A verifier that caches the verified
+ * tokens only pays the RSA verify once, then a digest of the token and a lookup. A token that is not a compact JWS
+ * is rejected by a scan of its chars, before the parser. An expired token pays for the RSA verify before jjwt checks
+ * its exp, unless the time claims are checked first.
+ */
+@State(Scope.Benchmark)
+public class JwtVerifierBenchmark {
+
+    private RSAJwksAdapter adapter;
+    private JwtVerifier verifier;
+    private JwtVerifier cachingVerifier;
+    private String token;
+    private String malformed;
+    private String expired;
+    private JwtVerifier timeClaimsFirstVerifier;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Tokens tokens = new Tokens();
+        adapter = tokens.adapter();
+        verifier = new JwtVerifier(adapter);
+        token = tokens.token("user");
+        malformed = token.substring(0, token.lastIndexOf('.')) + "!" + token.substring(token.lastIndexOf('.') + 1);
+        verifier.verify(token);
+        cachingVerifier = new JwtVerifierBuilder(adapter).cacheVerified(1000, 1, TimeUnit.HOURS).build();
+        cachingVerifier.verify(token);
+        expired = tokens.expiredToken("user");
+        timeClaimsFirstVerifier = new JwtVerifierBuilder(adapter).timeClaimsFirst(true).build();
+    }
+
+    @Benchmark
+    public Map<String, Object> parserPerToken() {
+        return Jwts.parser()
+                .setSigningKeyResolver(adapter)
+                .parseClaimsJws(token)
+                .getBody();
+    }
+
+    @Benchmark
+    public Map<String, Object> reusedVerifier() {
+        return verifier.verify(token);
+    }
+
+    @Benchmark
+    public Map<String, Object> cachedVerifier() {
+        return cachingVerifier.verify(token);
+    }
+
+    @Benchmark
+    public Object malformedToken() {
+        return rejection(verifier, malformed);
+    }
+
+    @Benchmark
+    public Object expiredSignatureFirst() {
+        return rejection(verifier, expired);
+    }
+
+    @Benchmark
+    public Object expiredTimeClaimsFirst() {
+        return rejection(timeClaimsFirstVerifier, expired);
+    }
+
+    private static Object rejection(JwtVerifier verifier, String token) {
+        try {
+            return verifier.verify(token);
+        } catch (VerifyException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> staticVerify() {
+        return Jwt.verify(token, adapter);
+    }
+}
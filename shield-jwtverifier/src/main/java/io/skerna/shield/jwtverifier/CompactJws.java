@@ -0,0 +1,155 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import org.json.JSONObject;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Structural checks of a compact JWS, run before any decoding, key lookup or signature check: three segments, a
+ * max length, only base64url characters, and a header that decodes to a json object.
+ * <br><br> It reads the chars of the token in place, so a rejected token costs a scan of its chars and no
+ * allocation. The payload and the signature are not decoded, a token that passes still goes through the parser.
+ * <br><br> {@link #kid(String)} reads the kid of the header, to group the tokens of a batch by key.
+ */
+final class CompactJws {
+    static final int DEFAULT_MAX_LENGTH = 16 * 1024;
+
+    private static final byte INVALID = -1;
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, INVALID);
+        for (int i = 0; i < 26; i++) {
+            DECODE['A' + i] = (byte) i;
+            DECODE['a' + i] = (byte) (26 + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            DECODE['0' + i] = (byte) (52 + i);
+        }
+        DECODE['-'] = 62;
+        DECODE['_'] = 63;
+    }
+
+    private CompactJws() {
+    }
+
+    /**
+     * @param jwt       the compact token
+     * @param maxLength max number of chars of the token
+     * @return why the token is rejected, or null if it has the structure of a compact JWS
+     */
+    static String reject(String jwt, int maxLength) {
+        if (jwt == null || jwt.isEmpty()) {
+            return "JWT is empty";
+        }
+        final int length = jwt.length();
+        if (length > maxLength) {
+            return "JWT is longer than the max length";
+        }
+        int first = -1;
+        int second = -1;
+        for (int i = 0; i < length; i++) {
+            final char c = jwt.charAt(i);
+            if (c == '.') {
+                if (first < 0) {
+                    first = i;
+                } else if (second < 0) {
+                    second = i;
+                } else {
+                    return "JWS must have 3 segments";
+                }
+            } else if (c >= DECODE.length || DECODE[c] == INVALID) {
+                return "JWT has a char out of the base64url alphabet";
+            }
+        }
+        if (second < 0) {
+            return "JWS must have 3 segments";
+        }
+        if (first == 0 || second == first + 1 || second == length - 1) {
+            return "JWS must not have empty segments";
+        }
+        if (!isValidLength(first) || !isValidLength(second - first - 1) || !isValidLength(length - second - 1)) {
+            return "JWT has a segment of invalid base64url length";
+        }
+        if (!isJsonObject(jwt, first)) {
+            return "JWS header is not a json object";
+        }
+        return null;
+    }
+
+    /**
+     * @return the kid of the header of the token, or null if the header has none or cannot be decoded
+     */
+    static String kid(String jwt) {
+        final int dot = jwt != null ? jwt.indexOf('.') : -1;
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            final byte[] header = Base64.getUrlDecoder().decode(jwt.substring(0, dot));
+            return new JSONObject(new String(header, StandardCharsets.UTF_8)).optString("kid", null);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A base64url segment without padding never leaves a single char for the last byte.
+     */
+    private static boolean isValidLength(int chars) {
+        return chars % 4 != 1;
+    }
+
+    /**
+     * Decodes the header in place and checks that its first and last non blank bytes are the braces of an object.
+     */
+    private static boolean isJsonObject(String jwt, int end) {
+        int bits = 0;
+        int bitCount = 0;
+        int firstByte = -1;
+        int lastByte = -1;
+        for (int i = 0; i < end; i++) {
+            bits = (bits << 6) | DECODE[jwt.charAt(i)];
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                final int b = (bits >> bitCount) & 0xFF;
+                if (!isBlank(b)) {
+                    if (firstByte < 0) {
+                        firstByte = b;
+                    }
+                    lastByte = b;
+                }
+            }
+        }
+        return firstByte == '{' && lastByte == '}';
+    }
+
+    private static boolean isBlank(int b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJwsHeader;
+import io.jsonwebtoken.io.DeserializationException;
+import io.jsonwebtoken.io.Deserializer;
+import io.jsonwebtoken.io.JacksonDeserializer;
+import io.jsonwebtoken.security.SignatureException;
+import io.skerna.shield.jwtverifier.commons.Base64Url;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Verifies JWS signed with EdDSA (RFC 8037), which jjwt does not support. Only Ed25519 keys are accepted, checked
+ * with the Ed25519 signature of the JDK.
+ * <br><br> Only the iss of the payload is read before the signature is checked, to select the jwks of the issuer.
+ * The claims are deserialized as jjwt does once the signature matches, and their exp and nbf checked by
+ * {@link TimeClaims}, the same checks as jjwt.
+ */
+final class EdDsaJws {
+    static final String ALGORITHM = "EdDSA";
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final Deserializer<Map<String, Object>> CLAIMS = new JacksonDeserializer<>();
+
+    private EdDsaJws() {
+    }
+
+    /**
+     * @return the decoded header of the token if its alg is EdDSA, otherwise null. The header is only parsed when
+     * it contains the algorithm name, so the tokens of other algorithms don't pay for a json parse here.
+     */
+    static JSONObject headerIfEdDsa(String jwt) {
+        int dot = jwt.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            String header = new String(Base64.getUrlDecoder().decode(jwt.substring(0, dot)), StandardCharsets.UTF_8);
+            if (!header.contains(ALGORITHM)) {
+                return null;
+            }
+            JSONObject json = new JSONObject(header);
+            return ALGORITHM.equals(json.opt("alg")) ? json : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    static Claims verify(String jwt, JSONObject header, RSAJwksAdapter adapter, Clock clock, long skewMillis) {
+        int first = jwt.indexOf('.');
+        int second = jwt.indexOf('.', first + 1);
+        if (second < 0 || jwt.indexOf('.', second + 1) >= 0) {
+            throw new MalformedJwtException("JWS must have 3 segments");
+        }
+        DefaultJwsHeader jwsHeader = new DefaultJwsHeader(header.toMap());
+        byte[] payload;
+        try {
+            payload = Base64Url.decode(jwt.substring(first + 1, second));
+        } catch (RuntimeException e) {
+            throw new MalformedJwtException("Invalid JWS payload", e);
+        }
+
+        // the claims are not trusted yet, only the issuer is given to the adapter to find the jwks
+        Claims issuer = new DefaultClaims();
+        issuer.setIssuer(issuer(payload));
+        Key key = adapter.resolveSigningKey(jwsHeader, issuer);
+        try {
+            Signature signature = Signature.getInstance("Ed25519");
+            signature.initVerify((PublicKey) key);
+            signature.update(jwt.substring(0, second).getBytes(StandardCharsets.US_ASCII));
+            if (!signature.verify(Base64Url.decode(jwt.substring(second + 1)))) {
+                throw new SignatureException("JWT signature does not match locally computed signature");
+            }
+        } catch (GeneralSecurityException e) {
+            throw new SignatureException("Cannot verify EdDSA signature", e);
+        }
+
+        Claims claims;
+        try {
+            claims = new DefaultClaims(CLAIMS.deserialize(payload));
+        } catch (DeserializationException | ClassCastException e) {
+            throw new MalformedJwtException("Invalid JWS payload", e);
+        }
+        TimeClaims.check(jwsHeader, claims, clock.millis(), skewMillis);
+        return claims;
+    }
+
+    /**
+     * @return the top level iss of the payload, or null if it has none or cannot be read
+     */
+    private static String issuer(byte[] payload) {
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_STRING && Claims.ISSUER.equals(name)) {
+                    return parser.getText();
+                }
+                parser.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
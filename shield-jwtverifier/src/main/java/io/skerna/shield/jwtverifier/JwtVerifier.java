@@ -0,0 +1,236 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.io.JacksonDeserializer;
+import io.jsonwebtoken.security.SignatureException;
+import org.json.JSONObject;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Verifies tokens with the keys of a {@link RSAJwksAdapter}.
+ * <br><br> The jjwt parser is configured once, with its json deserializer, and reused for every token: a parser
+ * created per token looks up and creates its deserializer on the first parse. The verifier is immutable and can be
+ * shared by all threads, the parser is never reconfigured after it is built. That only saves a small part of the
+ * allocation of a verification, most of it comes from the base64 and json decoding of jjwt and from the signature
+ * check, which only the cache and the early time checks below avoid.
+ * <br><br> Built with {@link JwtVerifierBuilder#cacheVerified(long, long, TimeUnit)}, the claims of the verified
+ * tokens are kept, so the clients that send the same token with every request don't pay for a signature check
+ * each time, see {@link VerifiedTokenCache}.
+ * <br><br> Before anything else a token must have the structure of a compact JWS, see {@link CompactJws}, so
+ * malformed or oversized tokens are rejected without a json parse or a key lookup.
+ * <br><br> Built with {@link JwtVerifierBuilder#timeClaimsFirst(boolean)}, expired and not yet valid tokens are
+ * rejected before their key is resolved and their signature checked, see {@link TimeClaims}.
+ */
+public final class JwtVerifier {
+    // tokens verified by a single task of a batch, enough to amortize the scheduling of the task
+    private static final int BATCH_CHUNK = 64;
+
+    private final RSAJwksAdapter adapter;
+    private final JwtParser parser;
+    private final VerifiedTokenCache cache;
+    private final int maxLength;
+    private final Clock clock;
+    private final long skewMillis;
+    private final boolean timeClaimsFirst;
+
+    /**
+     * @param adapter resolves the keys of the tokens
+     */
+    public JwtVerifier(RSAJwksAdapter adapter) {
+        this(adapter, null, CompactJws.DEFAULT_MAX_LENGTH, Clock.systemUTC(), 0, false);
+    }
+
+    /**
+     * @param cache           keeps the claims of the verified tokens, null to verify every token
+     * @param maxLength       max number of chars of a token, longer ones are rejected before parsing
+     * @param clock           the exp and nbf of the tokens are compared to
+     * @param skewSeconds     allowed clock skew when checking the exp and nbf
+     * @param timeClaimsFirst if the exp and nbf are checked before resolving the key and checking the signature
+     */
+    JwtVerifier(RSAJwksAdapter adapter, VerifiedTokenCache cache, int maxLength, final Clock clock, long skewSeconds, boolean timeClaimsFirst) {
+        this.adapter = Objects.requireNonNull(adapter, "adapter can´t be null");
+        this.parser = Jwts.parser()
+                .deserializeJsonWith(new JacksonDeserializer<Map<String, ?>>())
+                .setClock(() -> new Date(clock.millis()))
+                .setAllowedClockSkewSeconds(skewSeconds)
+                .setSigningKeyResolver(adapter);
+        this.cache = cache;
+        this.maxLength = maxLength;
+        this.clock = clock;
+        this.skewMillis = TimeUnit.SECONDS.toMillis(skewSeconds);
+        this.timeClaimsFirst = timeClaimsFirst;
+    }
+
+    /**
+     * Verifies the signature, exp and nbf of a token
+     * @param jwt the compact token
+     * @return the claims of the token
+     * @throws VerifyException if the token is not valid or its key cannot be resolved
+     */
+    public Map<String, Object> verify(String jwt) {
+        // garbage is rejected before the cache, the parser or the adapter see it
+        String rejected = CompactJws.reject(jwt, maxLength);
+        if (rejected != null) {
+            throw new VerifyException(new MalformedJwtException(rejected));
+        }
+        if (cache != null) {
+            Claims claims = cache.get(jwt, adapter);
+            if (claims != null) {
+                return claims;
+            }
+        }
+        try {
+            if (timeClaimsFirst) {
+                TimeClaims.check(jwt, clock.millis(), skewMillis);
+            }
+            Jws<Claims> jws = parser.parseClaimsJws(jwt);
+            remember(jwt, jws.getHeader().getKeyId(), jws.getBody());
+            return jws.getBody();
+        } catch (SignatureException ex) {
+            // jjwt rejects the EdDSA alg before resolving the key, only then the header is decoded again
+            JSONObject header = EdDsaJws.headerIfEdDsa(jwt);
+            if (header == null) {
+                throw new VerifyException(ex);
+            }
+            try {
+                Claims claims = EdDsaJws.verify(jwt, header, adapter, clock, skewMillis);
+                remember(jwt, header.optString("kid", null), claims);
+                return claims;
+            } catch (Exception edDsaEx) {
+                throw new VerifyException(edDsaEx);
+            }
+        } catch (Exception ex) {
+            throw new VerifyException(ex);
+        }
+    }
+
+    /**
+     * Verifies a batch of tokens in parallel on the given executor. The tokens are grouped by kid and the first
+     * token of each group is verified before the rest, so the key of the group is resolved once instead of by every
+     * token at the same time. The failure of a token is only reported in its result.
+     * <br><br> The first token of a group whose key is not resolved yet blocks its thread on a load of the jwks,
+     * for as long as the timeouts of the provider allow. Use an executor whose threads may block, as one of virtual
+     * threads or a pool sized for it, not the common fork join pool: a batch of a few unknown kids would hold all
+     * of its threads, and every other task of the application that runs on it, until the loads end.
+     * @param jwts     the compact tokens
+     * @param executor runs the verifications
+     * @return the result of each token, in the order of the tokens
+     */
+    public List<VerificationResult> verifyAll(List<String> jwts, Executor executor) {
+        return verifyAllAsync(jwts, executor).join();
+    }
+
+    /**
+     * Verifies a stream of tokens in parallel on the given executor, see {@link #verifyAll(List, Executor)}
+     * @param jwts     the compact tokens
+     * @param executor runs the verifications
+     * @return the result of each token, in the order of the stream
+     */
+    public List<VerificationResult> verifyAll(Stream<String> jwts, Executor executor) {
+        return verifyAll(jwts.collect(Collectors.toList()), executor);
+    }
+
+    /**
+     * Verifies a batch of tokens in parallel on the given executor without blocking, see
+     * {@link #verifyAll(List, Executor)}
+     * @param jwts     the compact tokens
+     * @param executor runs the verifications
+     * @return the future of the result of each token, in the order of the tokens
+     */
+    public CompletableFuture<List<VerificationResult>> verifyAllAsync(final List<String> jwts, final Executor executor) {
+        Objects.requireNonNull(executor, "executor can´t be null");
+        final VerificationResult[] results = new VerificationResult[jwts.size()];
+        final List<CompletableFuture<Void>> groups = new ArrayList<>();
+        for (final List<Integer> group : groupByKid(jwts).values()) {
+            final int first = group.get(0);
+            groups.add(CompletableFuture
+                    .runAsync(() -> results[first] = verifyQuietly(jwts.get(first)), executor)
+                    .thenCompose(resolved -> {
+                        final List<CompletableFuture<Void>> chunks = new ArrayList<>();
+                        for (int from = 1; from < group.size(); from += BATCH_CHUNK) {
+                            final List<Integer> chunk = group.subList(from, Math.min(from + BATCH_CHUNK, group.size()));
+                            chunks.add(CompletableFuture.runAsync(() -> {
+                                for (int index : chunk) {
+                                    results[index] = verifyQuietly(jwts.get(index));
+                                }
+                            }, executor));
+                        }
+                        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]));
+                    }));
+        }
+        return CompletableFuture.allOf(groups.toArray(new CompletableFuture<?>[0]))
+                .thenApply(done -> Collections.unmodifiableList(Arrays.asList(results)));
+    }
+
+    /**
+     * @return the indexes of the tokens by their kid, in the order of the tokens. Tokens whose kid cannot be read
+     * go in the group of the null kid, they are rejected by the verification anyway.
+     */
+    private static Map<String, List<Integer>> groupByKid(List<String> jwts) {
+        final Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < jwts.size(); i++) {
+            groups.computeIfAbsent(CompactJws.kid(jwts.get(i)), kid -> new ArrayList<>()).add(i);
+        }
+        return groups;
+    }
+
+    private VerificationResult verifyQuietly(String jwt) {
+        try {
+            return VerificationResult.verified(verify(jwt));
+        } catch (VerifyException e) {
+            return VerificationResult.failed(e);
+        } catch (RuntimeException e) {
+            return VerificationResult.failed(new VerifyException(e));
+        }
+    }
+
+    private void remember(String jwt, String kid, Claims claims) {
+        if (cache != null) {
+            cache.put(jwt, kid, claims, adapter);
+        }
+    }
+
+    public RSAJwksAdapter getAdapter() {
+        return adapter;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.math.LongMath;
+import java.math.RoundingMode;
+import java.time.Clock;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builder of {@link JwtVerifier} with the optional stages of the verification
+ */
+public class JwtVerifierBuilder {
+    private final RSAJwksAdapter adapter;
+    private boolean cacheVerified;
+    private long cacheMaxTokens;
+    private long cacheMaxTtl;
+    private TimeUnit cacheMaxTtlUnit;
+    private int maxTokenLength;
+    private Clock clock;
+    private long allowedClockSkewSeconds;
+    private boolean timeClaimsFirst;
+
+    /**
+     * Creates a new builder of the verifier of the tokens whose keys the adapter resolves
+     *
+     * @param adapter resolves the keys of the tokens
+     */
+    public JwtVerifierBuilder(RSAJwksAdapter adapter) {
+        this.adapter = Objects.requireNonNull(adapter, "adapter can´t be null");
+        this.maxTokenLength = CompactJws.DEFAULT_MAX_LENGTH;
+        this.clock = Clock.systemUTC();
+    }
+
+    /**
+     * Compare the exp and nbf of the tokens, and the exp of the cached ones, to the given clock. By default the
+     * system clock.
+     *
+     * @param clock gives the current time
+     * @return the builder
+     */
+    public JwtVerifierBuilder clock(Clock clock) {
+        this.clock = Objects.requireNonNull(clock, "clock can´t be null");
+        return this;
+    }
+
+    /**
+     * Accept the tokens expired or not yet valid by up to the given time, for the clocks of the issuer and this
+     * host that are not in sync. jjwt takes the skew in whole seconds, so it is rounded up: 500 milliseconds allow
+     * a skew of one second, never none. By default there is no skew.
+     *
+     * @param skew max difference between the clocks
+     * @param unit unit of time of the skew
+     * @return the builder
+     */
+    public JwtVerifierBuilder allowedClockSkew(long skew, TimeUnit unit) {
+        Preconditions.checkArgument(skew >= 0, "Invalid clock skew value '%s'. Must be zero or greater.", skew);
+        Objects.requireNonNull(unit, "unit can´t be null");
+        this.allowedClockSkewSeconds = LongMath.divide(unit.toNanos(skew), TimeUnit.SECONDS.toNanos(1), RoundingMode.CEILING);
+        return this;
+    }
+
+    /**
+     * Check the exp and nbf of the tokens before resolving their key and checking their signature, so expired
+     * tokens don't pay for a signature check. The claims read before the signature check are only used to reject
+     * the token. By default they are checked after the signature, as jjwt does.
+     *
+     * @param timeClaimsFirst if the exp and nbf are checked first
+     * @return the builder
+     */
+    public JwtVerifierBuilder timeClaimsFirst(boolean timeClaimsFirst) {
+        this.timeClaimsFirst = timeClaimsFirst;
+        return this;
+    }
+
+    /**
+     * Reject the tokens longer than the given number of chars before parsing them. By default 16384.
+     *
+     * @param maxTokenLength max number of chars of a token
+     * @return the builder
+     */
+    public JwtVerifierBuilder maxTokenLength(int maxTokenLength) {
+        Preconditions.checkArgument(maxTokenLength > 0, "Invalid max token length value '%s'. Must be greater than zero.", maxTokenLength);
+        this.maxTokenLength = maxTokenLength;
+        return this;
+    }
+
+    /**
+     * Keep the claims of the verified tokens, so a token verified before is a hash lookup. An entry is dropped when
+     * its token expires or when the key that verified it leaves the jwks. By default every token is verified.
+     *
+     * @param maxTokens max number of tokens kept
+     * @param maxTtl    max time a token is kept after its verification, even if it expires later
+     * @param unit      unit of time of the max ttl
+     * @return the builder
+     */
+    public JwtVerifierBuilder cacheVerified(long maxTokens, long maxTtl, TimeUnit unit) {
+        Preconditions.checkArgument(maxTokens > 0, "Invalid max tokens value '%s'. Must be greater than zero.", maxTokens);
+        Preconditions.checkArgument(maxTtl > 0, "Invalid max ttl value '%s'. Must be greater than zero.", maxTtl);
+        Objects.requireNonNull(unit, "unit can´t be null");
+        this.cacheVerified = true;
+        this.cacheMaxTokens = maxTokens;
+        this.cacheMaxTtl = maxTtl;
+        this.cacheMaxTtlUnit = unit;
+        return this;
+    }
+
+    /**
+     * Creates a {@link JwtVerifier}
+     *
+     * @return a newly created {@link JwtVerifier}
+     */
+    public JwtVerifier build() {
+        final VerifiedTokenCache cache = cacheVerified
+                ? new VerifiedTokenCache(cacheMaxTokens, cacheMaxTtl, cacheMaxTtlUnit, clock)
+                : null;
+        return new JwtVerifier(adapter, cache, maxTokenLength, clock, allowedClockSkewSeconds, timeClaimsFirst);
+    }
+}
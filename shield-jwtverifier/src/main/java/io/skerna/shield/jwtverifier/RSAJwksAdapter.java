@@ -24,35 +24,40 @@ package io.skerna.shield.jwtverifier;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwsHeader;
 import io.jsonwebtoken.SigningKeyResolverAdapter;
 import io.skerna.shield.jwks.Jwk;
 import io.skerna.shield.jwks.JwkException;
 import io.skerna.shield.jwks.JwkProvider;
+import io.skerna.shield.jwks.MultiIssuerJwkProvider;
 import io.skerna.shield.jwks.UrlJwkProvider;
-import io.skerna.shield.jwtverifier.commons.Base64Url;
 
-import java.math.BigInteger;
 import java.net.URL;
 import java.security.Key;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
-import java.security.spec.RSAPublicKeySpec;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
 import java.time.Duration;
 import java.util.Map;
 import java.util.Objects;
 
+/**
+ * Resolves the keys to verify tokens from a jwks. Despite its name it supports RSA, EC (P-256, P-384, P-521)
+ * and OKP (Ed25519) keys, the alg of each token must match the type of its key.
+ */
 public class RSAJwksAdapter extends SigningKeyResolverAdapter {
-    private JwkProvider provider;
+    private static final Map<String, Integer> EC_FIELD_SIZES = ImmutableMap.of("ES256", 256, "ES384", 384, "ES512", 521);
+
+    private UrlJwkProvider provider;
+    private MultiIssuerJwkProvider issuers;
     // Cache keys parsed from OIDC, avoid rework generateKey
     private Cache<String, Key> cacheKeys;
+    private volatile JwtVerifier verifier;
 
     /**
-     * {@link RSAJwksAdapter} provides RSA Public key only verify tokens
+     * {@link RSAJwksAdapter} provides the public keys of the jwks url to verify tokens
      */
     public RSAJwksAdapter(
             URL url,
@@ -60,14 +65,11 @@ public class RSAJwksAdapter extends SigningKeyResolverAdapter {
             Integer readTimeOut,
             Duration timeCacheParserOidcKeys
     ) {
-        this.provider  = new UrlJwkProvider(
+        this(new UrlJwkProvider(
                 url,
                 connectTimeout,
                 readTimeOut
-        );
-        this.cacheKeys = CacheBuilder.newBuilder()
-                .expireAfterAccess(timeCacheParserOidcKeys)
-                .build();
+        ), timeCacheParserOidcKeys);
     }
 
     public RSAJwksAdapter(
@@ -78,6 +80,41 @@ public class RSAJwksAdapter extends SigningKeyResolverAdapter {
         this(url,connectTimeout,readTimeOut,Duration.ofHours(1));
     }
 
+    /**
+     * {@link RSAJwksAdapter} provides the public keys of the jwks of the given provider, with its max age, store
+     * and executor
+     */
+    public RSAJwksAdapter(
+            UrlJwkProvider provider,
+            Duration timeCacheParserOidcKeys
+    ) {
+        this.provider = Objects.requireNonNull(provider, "provider can´t be null");
+        this.cacheKeys = CacheBuilder.newBuilder()
+                .expireAfterAccess(timeCacheParserOidcKeys)
+                .build();
+    }
+
+    public RSAJwksAdapter(UrlJwkProvider provider) {
+        this(provider, Duration.ofHours(1));
+    }
+
+    /**
+     * {@link RSAJwksAdapter} for tokens of several issuers, the jwks is selected by the iss claim of the token
+     */
+    public RSAJwksAdapter(
+            MultiIssuerJwkProvider issuers,
+            Duration timeCacheParserOidcKeys
+    ) {
+        this.issuers = Objects.requireNonNull(issuers, "issuers can´t be null");
+        this.cacheKeys = CacheBuilder.newBuilder()
+                .expireAfterAccess(timeCacheParserOidcKeys)
+                .build();
+    }
+
+    public RSAJwksAdapter(MultiIssuerJwkProvider issuers) {
+        this(issuers, Duration.ofHours(1));
+    }
+
     @Override
     public Key resolveSigningKey(JwsHeader header, Claims claims) {
         String kid = header.getKeyId();
@@ -85,8 +122,18 @@ public class RSAJwksAdapter extends SigningKeyResolverAdapter {
             if(kid == null){
                 throw new IllegalStateException("kid not found in header jwt");
             }
+            if (issuers != null) {
+                String issuer = claims.getIssuer();
+                if (issuer == null) {
+                    throw new IllegalStateException("iss not found in jwt claims");
+                }
+                Key key = cacheKeys.get(cacheKey(issuer, kid), () -> generateKey(issuers.forIssuer(issuer), kid));
+                checkAlgorithm(header.getAlgorithm(), key);
+                return key;
+            }
             // Load from cache
-            Key key  = cacheKeys.get(kid, () -> generateKey(kid));
+            Key key  = cacheKeys.get(kid, () -> generateKey(provider, kid));
+            checkAlgorithm(header.getAlgorithm(), key);
             return key;
 
         } catch (Exception e) {
@@ -94,6 +141,39 @@ public class RSAJwksAdapter extends SigningKeyResolverAdapter {
         }
     }
 
+    private String cacheKey(String issuer, String kid) {
+        // length prefix, so that no other pair of issuer and kid makes the same cache key
+        return issuers != null ? issuer.length() + ":" + issuer + kid : kid;
+    }
+
+    /**
+     * @return the key this adapter resolves for the kid without loading it, or null if it is not cached
+     */
+    Key cachedKey(String issuer, String kid) {
+        if (kid == null || (issuers != null && issuer == null)) {
+            return null;
+        }
+        return cacheKeys.getIfPresent(cacheKey(issuer, kid));
+    }
+
+    /**
+     * @return if the kid is in the last jwks snapshot loaded with the given key. The snapshot is used even once it is
+     * older than its max age, while it is reloaded in the background, since the keys resolved by this adapter are
+     * cached and would never make the provider load it again. False when no snapshot has been loaded, or the issuer
+     * is not active anymore, the key may be there but it cannot be confirmed without a request.
+     */
+    boolean isCurrentKey(String issuer, String kid, Key key) {
+        if (kid == null || (issuers != null && issuer == null)) {
+            return false;
+        }
+        Jwk jwk = issuers != null ? issuers.getLastKnown(issuer, kid) : provider.getLastKnown(kid);
+        try {
+            return jwk != null && key.equals(jwk.getPublicKey());
+        } catch (JwkException e) {
+            return false;
+        }
+    }
+
     /**
      * Generate Public Key from OIDC wellknow config
      * https://tools.ietf.org/html/rfc8414#page-10
@@ -102,41 +182,62 @@ public class RSAJwksAdapter extends SigningKeyResolverAdapter {
      * @see UrlJwkProvider
      *
      * @return
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeySpecException
+     * @throws JwkException
      */
-    private Key generateKey(String kid) throws NoSuchAlgorithmException, InvalidKeySpecException, JwkException {
+    private Key generateKey(JwkProvider provider, String kid) throws JwkException {
         // Request jwk from provider oidc, autorotatekeys
         Jwk jwk = provider.get(kid);
         Objects.requireNonNull(jwk,"jwk can´t be null");
-        if(!jwk.getAlgorithm().toLowerCase().contains("RS".toLowerCase())){
-            throw new IllegalStateException(String.format("Only RSA allowed, finded (%s)",jwk.getAlgorithm() ));
-        }
-
-        // initialie request data
-       // String kid = jwk.getId(); // kid jwt
-        String algorithm ="RSA"; // algorithm
-        Map<String, Object> additionalAttributes = jwk.getAdditionalAttributes(); // Aditional mod && exp RSA
-
-        String modulusEncoded = (String) additionalAttributes.get("n");
-        String exponentEncoded = (String) additionalAttributes.get("e");
 
-        if(modulusEncoded == null || exponentEncoded == null){
-            throw new IllegalStateException("Require mod and exponent");
+        // Built once by the jwk and shared with every adapter using the same provider
+        PublicKey key = jwk.getPublicKey();
+        if(key == null){
+            throw new IllegalStateException(String.format("Only RSA, EC and OKP keys allowed, finded (%s)",jwk.getType()));
         }
+        return key;
 
-        // Decode base 64
-        byte[] moduleDecoded = Base64Url.decode(modulusEncoded);
-        byte[] exponeDecoded = Base64Url.decode(exponentEncoded);
-
-        // KeySpecification
-        KeySpec spec = new RSAPublicKeySpec(new BigInteger(1, moduleDecoded), new BigInteger(1, exponeDecoded));
-
-        KeyFactory  keyFactory= KeyFactory.getInstance("RSA");
-        PublicKey key = keyFactory.generatePublic(spec);
+    }
 
-        return key;
+    /**
+     * Checks that the alg of the token header is one that verifies with the key, so that a token can not choose
+     * how the key of another algorithm is used
+     */
+    static void checkAlgorithm(String algorithm, Key key) {
+        if(algorithm == null){
+            throw new IllegalStateException("alg not found in header jwt");
+        }
+        boolean allowed;
+        if(algorithm.startsWith("RS") || algorithm.startsWith("PS")){
+            allowed = key instanceof RSAPublicKey;
+        }else if(algorithm.startsWith("ES")){
+            allowed = key instanceof ECPublicKey
+                    && EC_FIELD_SIZES.get(algorithm) != null
+                    && EC_FIELD_SIZES.get(algorithm) == ((ECPublicKey) key).getParams().getCurve().getField().getFieldSize();
+        }else if(EdDsaJws.ALGORITHM.equals(algorithm)){
+            allowed = "EdDSA".equals(key.getAlgorithm()) || "Ed25519".equals(key.getAlgorithm());
+        }else{
+            allowed = false;
+        }
+        if(!allowed){
+            throw new IllegalStateException(String.format("Algorithm (%s) not allowed with a key (%s)",algorithm,key.getAlgorithm()));
+        }
+    }
 
+    /**
+     * @return the verifier of the tokens of this adapter, created on the first call
+     */
+    JwtVerifier verifier() {
+        JwtVerifier current = verifier;
+        if (current == null) {
+            synchronized (this) {
+                current = verifier;
+                if (current == null) {
+                    current = new JwtVerifier(this);
+                    verifier = current;
+                }
+            }
+        }
+        return current;
     }
 
     public Cache<String, Key> getCacheKeys() {
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.math.LongMath;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Header;
+import io.jsonwebtoken.PrematureJwtException;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Date;
+
+/**
+ * Rejects expired and not yet valid tokens before their key is resolved and their signature checked.
+ * <br><br> The payload is read with a streaming parser that only looks at the top level {@code exp} and {@code nbf}
+ * members and skips everything else, no claims map is built. Nothing read here is trusted, the signature has not
+ * been checked yet: the claims can only reject a token, a token that passes is verified as usual, times included.
+ * So a payload that cannot be read is left to the parser to reject.
+ * <br><br> As jjwt does, a number with a fraction is truncated to whole seconds. The strings jjwt also takes as
+ * times are not read here, those tokens are left to the parser too.
+ * <br><br> The same comparisons check the verified claims of the tokens jjwt cannot verify, see {@link EdDsaJws}.
+ */
+final class TimeClaims {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private TimeClaims() {
+    }
+
+    /**
+     * @param jwt        a token with the structure of a compact JWS
+     * @param nowMillis  the current time
+     * @param skewMillis the allowed clock skew
+     * @throws ExpiredJwtException   if the exp of the token has passed
+     * @throws PrematureJwtException if the nbf of the token has not come yet
+     */
+    static void check(String jwt, long nowMillis, long skewMillis) {
+        final int first = jwt.indexOf('.');
+        final int second = jwt.indexOf('.', first + 1);
+        final byte[] payload;
+        try {
+            payload = Base64.getUrlDecoder().decode(jwt.substring(first + 1, second));
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        long exp = Long.MIN_VALUE;
+        long nbf = Long.MIN_VALUE;
+        try (JsonParser parser = JSON.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if (value.isNumeric() && "exp".equals(name)) {
+                    exp = parser.getLongValue();
+                } else if (value.isNumeric() && "nbf".equals(name)) {
+                    nbf = parser.getLongValue();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        // the times are in seconds
+        check(null, null,
+                exp != Long.MIN_VALUE ? new Date(LongMath.saturatedMultiply(exp, 1000)) : null,
+                nbf != Long.MIN_VALUE ? new Date(LongMath.saturatedMultiply(nbf, 1000)) : null,
+                nowMillis, skewMillis, ", checked before its signature");
+    }
+
+    /**
+     * Checks the exp and nbf of the claims of a token whose signature has been verified outside of jjwt
+     * @param header     the header of the token
+     * @param claims     the verified claims of the token
+     * @param nowMillis  the current time
+     * @param skewMillis the allowed clock skew
+     * @throws ExpiredJwtException   if the exp of the token has passed
+     * @throws PrematureJwtException if the nbf of the token has not come yet
+     */
+    static void check(Header header, Claims claims, long nowMillis, long skewMillis) {
+        check(header, claims, claims.getExpiration(), claims.getNotBefore(), nowMillis, skewMillis, "");
+    }
+
+    /**
+     * The same comparisons as the jjwt parser
+     */
+    private static void check(Header header, Claims claims, Date exp, Date nbf, long nowMillis, long skewMillis, String when) {
+        if (exp != null && nowMillis - skewMillis > exp.getTime()) {
+            throw new ExpiredJwtException(header, claims, "JWT expired at " + exp + when);
+        }
+        if (nbf != null && nowMillis + skewMillis < nbf.getTime()) {
+            throw new PrematureJwtException(header, claims, "JWT must not be accepted before " + nbf + when);
+        }
+    }
+}
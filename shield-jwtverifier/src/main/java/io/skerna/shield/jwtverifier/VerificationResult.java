@@ -0,0 +1,73 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import java.util.Map;
+
+/**
+ * The outcome of the verification of one token of a batch, see
+ * {@link JwtVerifier#verifyAll(java.util.List, java.util.concurrent.Executor)}
+ */
+public final class VerificationResult {
+    private final Map<String, Object> claims;
+    private final VerifyException error;
+
+    private VerificationResult(Map<String, Object> claims, VerifyException error) {
+        this.claims = claims;
+        this.error = error;
+    }
+
+    static VerificationResult verified(Map<String, Object> claims) {
+        return new VerificationResult(claims, null);
+    }
+
+    static VerificationResult failed(VerifyException error) {
+        return new VerificationResult(null, error);
+    }
+
+    /**
+     * @return if the token is valid
+     */
+    public boolean isVerified() {
+        return error == null;
+    }
+
+    /**
+     * @return the claims of the token, or null if it is not valid
+     */
+    public Map<String, Object> getClaims() {
+        return claims;
+    }
+
+    /**
+     * @return why the token is not valid, or null if it is valid
+     */
+    public VerifyException getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return isVerified() ? "VerificationResult{verified}" : "VerificationResult{error=" + error + "}";
+    }
+}
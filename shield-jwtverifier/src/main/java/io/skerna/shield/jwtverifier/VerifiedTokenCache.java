@@ -0,0 +1,167 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.impl.DefaultClaims;
+
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Claims of the tokens already verified, so a token presented again is a hash lookup instead of a signature check.
+ * <br><br> Entries are keyed by the SHA-256 of the compact token, the token itself is not kept. An entry is never
+ * returned once the exp of its token has passed, nor once the key that verified it is no longer in the last jwks
+ * snapshot of the adapter: both are checked on every hit, and the entry is dropped so the token is verified again.
+ * A snapshot past its max age is still compared to while it is reloaded in the background, see
+ * {@link RSAJwksAdapter#isCurrentKey(String, String, Key)}.
+ * The cache is bounded by a max number of tokens and a max time since they were verified.
+ */
+final class VerifiedTokenCache {
+    private static final HashFunction DIGEST = Hashing.sha256();
+
+    private final Cache<HashCode, Entry> entries;
+    private final Clock clock;
+
+    /**
+     * @param maxTokens max number of tokens kept
+     * @param maxTtl    max time a token is kept after its verification, whatever its exp
+     * @param unit      unit of time of the max ttl
+     * @param clock     the exp of the tokens is compared to
+     */
+    VerifiedTokenCache(long maxTokens, long maxTtl, TimeUnit unit, Clock clock) {
+        this(maxTokens, maxTtl, unit, clock, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker source of the time the max ttl is measured with
+     */
+    VerifiedTokenCache(long maxTokens, long maxTtl, TimeUnit unit, Clock clock, Ticker ticker) {
+        Preconditions.checkArgument(maxTokens > 0, "Invalid max tokens value '%s'. Must be greater than zero.", maxTokens);
+        Preconditions.checkArgument(maxTtl > 0, "Invalid max ttl value '%s'. Must be greater than zero.", maxTtl);
+        this.clock = clock;
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maxTokens)
+                .expireAfterWrite(maxTtl, unit)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * @return a copy of the claims of the token if it was verified and is still valid, otherwise null
+     */
+    Claims get(String jwt, RSAJwksAdapter adapter) {
+        final HashCode digest = digest(jwt);
+        final Entry entry = entries.getIfPresent(digest);
+        if (entry == null) {
+            return null;
+        }
+        if (clock.millis() >= entry.expiresAt || !adapter.isCurrentKey(entry.issuer, entry.kid, entry.key)) {
+            entries.asMap().remove(digest, entry);
+            return null;
+        }
+        // a deep copy per caller, so nobody can change the claims the next caller gets, nested ones included
+        return new DefaultClaims(copy(entry.claims));
+    }
+
+    /**
+     * Keeps the claims of a token just verified, unless the key that verified it cannot be confirmed to be the
+     * current one of the kid.
+     */
+    void put(String jwt, String kid, Claims claims, RSAJwksAdapter adapter) {
+        final String issuer = claims.getIssuer();
+        final Key key = adapter.cachedKey(issuer, kid);
+        if (key == null || !adapter.isCurrentKey(issuer, kid, key)) {
+            return;
+        }
+        final Date expiration = claims.getExpiration();
+        final long expiresAt = expiration != null ? expiration.getTime() : Long.MAX_VALUE;
+        if (clock.millis() >= expiresAt) {
+            return;
+        }
+        // the caller that verified it keeps the claims it was given, and may change them
+        entries.put(digest(jwt), new Entry(copy(claims), issuer, kid, key, expiresAt));
+    }
+
+    /**
+     * Copies the json objects and arrays of the claims at every level, the other values are immutable
+     */
+    private static Map<String, Object> copy(Map<String, ?> claims) {
+        final Map<String, Object> copy = new LinkedHashMap<>(claims.size());
+        for (Map.Entry<String, ?> claim : claims.entrySet()) {
+            copy.put(claim.getKey(), copyValue(claim.getValue()));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            return copy((Map<String, ?>) value);
+        }
+        if (value instanceof Collection) {
+            final Collection<?> values = (Collection<?>) value;
+            final List<Object> copy = new ArrayList<>(values.size());
+            for (Object element : values) {
+                copy.add(copyValue(element));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    private static HashCode digest(String jwt) {
+        return DIGEST.hashString(jwt, StandardCharsets.UTF_8);
+    }
+
+    private static final class Entry {
+        final Map<String, Object> claims;
+        final String issuer;
+        final String kid;
+        final Key key;
+        final long expiresAt;
+
+        Entry(Map<String, Object> claims, String issuer, String kid, Key key, long expiresAt) {
+            this.claims = claims;
+            this.issuer = issuer;
+            this.kid = kid;
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
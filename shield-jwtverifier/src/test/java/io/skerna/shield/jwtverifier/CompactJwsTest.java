@@ -0,0 +1,198 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.MalformedJwtException;
+import io.skerna.shield.jwks.UrlJwkProvider;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.Key;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CompactJwsTest {
+
+    private static final String HEADER = "eyJhbGciOiJSUzI1NiJ9";
+
+    private static Tokens tokens;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        tokens = new Tokens();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {Tokens.RSA, Tokens.EC256, Tokens.EC384, Tokens.EC521})
+    public void shouldAcceptSignedToken(String kid) throws Exception {
+        String jwt = tokens.sign(kid, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        MatcherAssert.assertThat(CompactJws.reject(jwt, CompactJws.DEFAULT_MAX_LENGTH), Matchers.nullValue());
+        MatcherAssert.assertThat(CompactJws.kid(jwt), Matchers.is(kid));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // {"alg":"RS256"}
+            HEADER + ".e30.c2ln",
+            // blanks around {"alg":"RS256"}
+            "IHsiYWxnIjoiUlMyNTYifSAK.e30.c2ln",
+            // {"alg":"RS256","kid":"rsa"}, segments of 2 and 3 chars left for the last bytes
+            "eyJhbGciOiJSUzI1NiIsImtpZCI6InJzYSJ9.e30.c2lnbg",
+    })
+    public void shouldAcceptStructureWithoutCheckingPayloadOrSignature(String jwt) {
+        MatcherAssert.assertThat(CompactJws.reject(jwt, CompactJws.DEFAULT_MAX_LENGTH), Matchers.nullValue());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "'', JWT is empty",
+            HEADER + ", JWS must have 3 segments",
+            HEADER + ".e30, JWS must have 3 segments",
+            HEADER + ".e30.c2ln.c2ln, JWS must have 3 segments",
+            "'..', JWS must not have empty segments",
+            ".e30.c2ln, JWS must not have empty segments",
+            HEADER + "..c2ln, JWS must not have empty segments",
+            HEADER + ".e30., JWS must not have empty segments",
+            HEADER + ".e30=.c2ln, JWT has a char out of the base64url alphabet",
+            HEADER + ".e3+.c2ln, JWT has a char out of the base64url alphabet",
+            HEADER + ".e3/.c2ln, JWT has a char out of the base64url alphabet",
+            "' " + HEADER + ".e30.c2ln', JWT has a char out of the base64url alphabet",
+            "'" + HEADER + ". e30.c2ln', JWT has a char out of the base64url alphabet",
+            HEADER + ".é30.c2ln, JWT has a char out of the base64url alphabet",
+            "e.e30.c2ln, JWT has a segment of invalid base64url length",
+            HEADER + ".e30AB.c2ln, JWT has a segment of invalid base64url length",
+            HEADER + ".e30.c2lnA, JWT has a segment of invalid base64url length",
+            // ["RS256"]
+            "WyJSUzI1NiJd.e30.c2ln, JWS header is not a json object",
+            // "RS256"
+            "IlJTMjU2Ig.e30.c2ln, JWS header is not a json object",
+            // {"alg":"RS256"
+            "eyJhbGciOiJSUzI1NiI.e30.c2ln, JWS header is not a json object",
+            // garbage that decodes to bytes
+            "AAAA.e30.c2ln, JWS header is not a json object",
+    })
+    public void shouldRejectMalformedToken(String jwt, String reason) {
+        MatcherAssert.assertThat(CompactJws.reject(jwt, CompactJws.DEFAULT_MAX_LENGTH), Matchers.is(reason));
+    }
+
+    @Test
+    public void shouldRejectNullToken() {
+        MatcherAssert.assertThat(CompactJws.reject(null, CompactJws.DEFAULT_MAX_LENGTH), Matchers.is("JWT is empty"));
+        MatcherAssert.assertThat(CompactJws.kid(null), Matchers.nullValue());
+    }
+
+    @Test
+    public void shouldRejectTokenLongerThanMaxLength() throws Exception {
+        String jwt = tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        MatcherAssert.assertThat(CompactJws.reject(jwt, jwt.length()), Matchers.nullValue());
+        MatcherAssert.assertThat(CompactJws.reject(jwt, jwt.length() - 1), Matchers.is("JWT is longer than the max length"));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "''",
+            HEADER + ".e30",
+            HEADER + ".e30.c2ln.c2ln",
+            HEADER + ".e30.",
+            HEADER + ".e30=.c2ln",
+            HEADER + ".e30.c2lnA",
+            "WyJSUzI1NiJd.e30.c2ln",
+            "AAAA.e30.c2ln",
+    })
+    public void shouldRejectMalformedTokenBeforeAdapterOrProvider(String jwt) throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        CountingAdapter adapter = new CountingAdapter(new UrlJwkProvider(countingUrl(connections)));
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, 1, TimeUnit.HOURS, Clock.systemUTC());
+        JwtVerifier verifier = new JwtVerifier(adapter, cache, CompactJws.DEFAULT_MAX_LENGTH, Clock.systemUTC(), 0, true);
+
+        VerifyException e = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(jwt));
+        MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(MalformedJwtException.class));
+        MatcherAssert.assertThat(e.getCause().getMessage(), Matchers.is(CompactJws.reject(jwt, CompactJws.DEFAULT_MAX_LENGTH)));
+        List<VerificationResult> results = verifier.verifyAll(Arrays.asList(jwt, jwt), Runnable::run);
+        MatcherAssert.assertThat(results.get(0).isVerified(), Matchers.is(false));
+        MatcherAssert.assertThat(results.get(1).getError().getCause(), Matchers.instanceOf(MalformedJwtException.class));
+        MatcherAssert.assertThat(adapter.calls.get(), Matchers.is(0));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(0));
+
+        // the counters do see a token that passes
+        String valid = tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        verifier.verify(valid);
+        MatcherAssert.assertThat(adapter.calls.get(), Matchers.greaterThan(0));
+        MatcherAssert.assertThat(connections.get(), Matchers.is(1));
+    }
+
+    private static URL countingUrl(final AtomicInteger connections) throws IOException {
+        final URL jwks = tokens.jwksUrl();
+        return new URL(null, jwks.toString(), new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                connections.incrementAndGet();
+                return jwks.openConnection();
+            }
+        });
+    }
+
+    /**
+     * Adapter that counts every key lookup, from the parser or from the cache of verified tokens
+     */
+    private static final class CountingAdapter extends RSAJwksAdapter {
+        final AtomicInteger calls = new AtomicInteger();
+
+        CountingAdapter(UrlJwkProvider provider) {
+            super(provider);
+        }
+
+        @Override
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+            calls.incrementAndGet();
+            return super.resolveSigningKey(header, claims);
+        }
+
+        @Override
+        Key cachedKey(String issuer, String kid) {
+            calls.incrementAndGet();
+            return super.cachedKey(issuer, kid);
+        }
+
+        @Override
+        boolean isCurrentKey(String issuer, String kid, Key key) {
+            calls.incrementAndGet();
+            return super.isCurrentKey(issuer, kid, key);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import com.google.common.base.Throwables;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.security.SignatureException;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class EdDsaJwsTest {
+
+    private static Tokens tokens;
+    private JwtVerifier verifier;
+
+    @BeforeAll
+    public static void setUpKeys() throws Exception {
+        tokens = new Tokens();
+    }
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        verifier = new JwtVerifier(tokens.adapter());
+    }
+
+    @Test
+    public void shouldVerifyEdDsaToken() {
+        long exp = Tokens.secondsFromNow(3600);
+        Map<String, Object> claims = verifier.verify(tokens.sign(Tokens.ED25519, Tokens.claims("issuer", exp)));
+        MatcherAssert.assertThat(claims.get("sub"), Matchers.is("alice"));
+        MatcherAssert.assertThat(claims.get("iss"), Matchers.is("issuer"));
+        // deserialized as jjwt does for the other algorithms
+        Map<String, Object> rsaClaims = verifier.verify(tokens.sign(Tokens.RSA, Tokens.claims("issuer", exp)));
+        MatcherAssert.assertThat(claims.get("exp"), Matchers.equalTo(rsaClaims.get("exp")));
+    }
+
+    @Test
+    public void shouldRejectEdDsaTokenWithOtherPayload() {
+        String token = tokens.sign(Tokens.ED25519, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        String other = tokens.sign(Tokens.ED25519, Tokens.claims("other", Tokens.secondsFromNow(3600)));
+        String[] segments = token.split("\\.");
+        String forged = segments[0] + "." + other.split("\\.")[1] + "." + segments[2];
+        assertCause(forged, SignatureException.class);
+    }
+
+    @Test
+    public void shouldCheckSignatureBeforeDeserializingClaims() {
+        String token = tokens.sign(Tokens.ED25519, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        String[] segments = token.split("\\.");
+        String garbage = Tokens.base64Url("{not json".getBytes(StandardCharsets.UTF_8));
+        assertCause(segments[0] + "." + garbage + "." + segments[2], SignatureException.class);
+
+        String content = segments[0] + "." + garbage;
+        String signed = content + "." + Tokens.base64Url(Tokens.signEd25519(tokens.privateKey(Tokens.ED25519), content.getBytes(StandardCharsets.US_ASCII)));
+        assertCause(signed, MalformedJwtException.class);
+    }
+
+    @Test
+    public void shouldRejectExpiredEdDsaToken() {
+        String token = tokens.sign(Tokens.ED25519, Tokens.claims("issuer", Tokens.secondsFromNow(-60)));
+        VerifyException thrown = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(token));
+        MatcherAssert.assertThat(thrown.getCause(), Matchers.instanceOf(ExpiredJwtException.class));
+        ExpiredJwtException expired = (ExpiredJwtException) thrown.getCause();
+        MatcherAssert.assertThat(expired.getHeader().get("kid"), Matchers.is(Tokens.ED25519));
+        MatcherAssert.assertThat(expired.getClaims().getSubject(), Matchers.is("alice"));
+    }
+
+    @Test
+    public void shouldAcceptExpiredEdDsaTokenWithinSkew() throws Exception {
+        String token = tokens.sign(Tokens.ED25519, Tokens.claims("issuer", Tokens.secondsFromNow(-60)));
+        JwtVerifier skewed = new JwtVerifierBuilder(tokens.adapter())
+                .allowedClockSkew(2, TimeUnit.MINUTES)
+                .build();
+        MatcherAssert.assertThat(skewed.verify(token).get("sub"), Matchers.is("alice"));
+    }
+
+    @Test
+    public void shouldRejectPrematureEdDsaToken() {
+        Map<String, Object> claims = Tokens.claims("issuer", Tokens.secondsFromNow(3600));
+        claims.put("nbf", Tokens.secondsFromNow(600));
+        assertCause(tokens.sign(Tokens.ED25519, claims), PrematureJwtException.class);
+    }
+
+    @Test
+    public void shouldRejectEdDsaTokenWithKidOfOtherKeyType() {
+        String token = tokens.sign(Tokens.RSA, Tokens.ED25519, EdDsaJws.ALGORITHM, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        VerifyException thrown = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(token));
+        MatcherAssert.assertThat(Throwables.getRootCause(thrown).getMessage(), Matchers.containsString("not allowed"));
+    }
+
+    @Test
+    public void shouldReadEdDsaHeaderOnlyForEdDsaTokens() {
+        MatcherAssert.assertThat(EdDsaJws.headerIfEdDsa(tokens.sign(Tokens.ED25519, Tokens.claims("issuer", 0))), Matchers.notNullValue());
+        MatcherAssert.assertThat(EdDsaJws.headerIfEdDsa(tokens.sign(Tokens.RSA, Tokens.claims("issuer", 0))), Matchers.nullValue());
+        MatcherAssert.assertThat(EdDsaJws.headerIfEdDsa("not a token"), Matchers.nullValue());
+    }
+
+    private void assertCause(String token, Class<? extends Throwable> type) {
+        VerifyException thrown = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(token));
+        MatcherAssert.assertThat(Throwables.getCausalChain(thrown), Matchers.hasItem(Matchers.instanceOf(type)));
+    }
+}
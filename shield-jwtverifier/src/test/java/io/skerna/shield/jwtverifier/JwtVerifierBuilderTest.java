@@ -0,0 +1,131 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+public class JwtVerifierBuilderTest {
+
+    private static final long EXP = 1500000000L;
+
+    private static Tokens tokens;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        tokens = new Tokens();
+    }
+
+    @Test
+    public void shouldFailWithNullAdapter() {
+        Assertions.assertThrows(NullPointerException.class, () -> new JwtVerifierBuilder(null));
+    }
+
+    @Test
+    public void shouldFailWithNullClock() throws Exception {
+        JwtVerifierBuilder builder = new JwtVerifierBuilder(tokens.adapter());
+        Assertions.assertThrows(NullPointerException.class, () -> builder.clock(null));
+    }
+
+    @Test
+    public void shouldFailWithNegativeClockSkew() throws Exception {
+        JwtVerifierBuilder builder = new JwtVerifierBuilder(tokens.adapter());
+        IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> builder.allowedClockSkew(-1, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(e.getMessage(), Matchers.is("Invalid clock skew value '-1'. Must be zero or greater."));
+        Assertions.assertThrows(NullPointerException.class, () -> builder.allowedClockSkew(1, null));
+    }
+
+    @Test
+    public void shouldFailWithInvalidMaxTokenLength() throws Exception {
+        JwtVerifierBuilder builder = new JwtVerifierBuilder(tokens.adapter());
+        IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> builder.maxTokenLength(0));
+        MatcherAssert.assertThat(e.getMessage(), Matchers.is("Invalid max token length value '0'. Must be greater than zero."));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> builder.maxTokenLength(-1));
+    }
+
+    @Test
+    public void shouldFailWithInvalidCacheOfVerifiedTokens() throws Exception {
+        JwtVerifierBuilder builder = new JwtVerifierBuilder(tokens.adapter());
+        IllegalArgumentException e = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> builder.cacheVerified(0, 1, TimeUnit.MINUTES));
+        MatcherAssert.assertThat(e.getMessage(), Matchers.is("Invalid max tokens value '0'. Must be greater than zero."));
+        e = Assertions.assertThrows(IllegalArgumentException.class,
+                () -> builder.cacheVerified(1, 0, TimeUnit.MINUTES));
+        MatcherAssert.assertThat(e.getMessage(), Matchers.is("Invalid max ttl value '0'. Must be greater than zero."));
+        Assertions.assertThrows(NullPointerException.class, () -> builder.cacheVerified(1, 1, null));
+    }
+
+    @Test
+    public void shouldRejectTokenLongerThanMaxTokenLength() throws Exception {
+        String jwt = tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        JwtVerifier verifier = new JwtVerifierBuilder(tokens.adapter()).maxTokenLength(jwt.length() - 1).build();
+        VerifyException e = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(jwt));
+        MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(MalformedJwtException.class));
+        JwtVerifier exact = new JwtVerifierBuilder(tokens.adapter()).maxTokenLength(jwt.length()).build();
+        MatcherAssert.assertThat(exact.verify(jwt).get("sub"), Matchers.is("alice"));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // skew, unit, millis past the exp still accepted
+            "0, MILLISECONDS, 0",
+            "1, NANOSECONDS, 1000",
+            "1, MILLISECONDS, 1000",
+            "500, MILLISECONDS, 1000",
+            "1000, MILLISECONDS, 1000",
+            "1001, MILLISECONDS, 2000",
+            "2, SECONDS, 2000",
+            "1, MINUTES, 60000",
+    })
+    public void shouldRoundClockSkewUpToSeconds(long skew, TimeUnit unit, long acceptedMillis) throws Exception {
+        String jwt = tokens.sign(Tokens.RSA, Tokens.claims("issuer", EXP));
+        for (boolean timeClaimsFirst : new boolean[]{false, true}) {
+            MatcherAssert.assertThat(verifier(skew, unit, timeClaimsFirst, acceptedMillis).verify(jwt).get("sub"), Matchers.is("alice"));
+            VerifyException e = Assertions.assertThrows(VerifyException.class,
+                    () -> verifier(skew, unit, timeClaimsFirst, acceptedMillis + 1).verify(jwt));
+            MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(ExpiredJwtException.class));
+        }
+    }
+
+    private static JwtVerifier verifier(long skew, TimeUnit unit, boolean timeClaimsFirst, long millisPastExp) throws Exception {
+        return new JwtVerifierBuilder(tokens.adapter())
+                .clock(Clock.fixed(Instant.ofEpochMilli(EXP * 1000 + millisPastExp), ZoneOffset.UTC))
+                .allowedClockSkew(skew, unit)
+                .timeClaimsFirst(timeClaimsFirst)
+                .build();
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.security.SignatureException;
+import io.skerna.shield.jwks.UnknownKeyIdException;
+import io.skerna.shield.jwks.UrlJwkProvider;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class JwtVerifierTest {
+
+    private static Tokens tokens;
+
+    @BeforeAll
+    public static void setUpKeys() throws Exception {
+        tokens = new Tokens();
+    }
+
+    @Test
+    public void shouldReuseParserForTokensOfEveryKeyType() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        String forged = forge(tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600))));
+        for (int i = 0; i < 3; i++) {
+            for (String kid : new String[]{Tokens.RSA, Tokens.EC256, Tokens.EC384, Tokens.EC521}) {
+                Map<String, Object> claims = verifier.verify(tokens.sign(kid, Tokens.claims(kid, Tokens.secondsFromNow(3600))));
+                MatcherAssert.assertThat(claims.get("iss"), Matchers.is(kid));
+            }
+            // a failure leaves nothing behind in the shared parser
+            Assertions.assertThrows(VerifyException.class, () -> verifier.verify(forged));
+        }
+    }
+
+    @Test
+    public void shouldShareVerifierBetweenThreads() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        List<String> jwts = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            Map<String, Object> claims = Tokens.claims("issuer", Tokens.secondsFromNow(3600));
+            claims.put("sub", "user" + i);
+            jwts.add(tokens.sign(i % 2 == 0 ? Tokens.RSA : Tokens.EC256, claims));
+        }
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(threads.submit(() -> {
+                    for (int round = 0; round < 10; round++) {
+                        for (int i = 0; i < jwts.size(); i++) {
+                            MatcherAssert.assertThat(verifier.verify(jwts.get(i)).get("sub"), Matchers.is("user" + i));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldCreateVerifierOfAdapterOnce() throws Exception {
+        RSAJwksAdapter adapter = tokens.adapter();
+        CyclicBarrier start = new CyclicBarrier(16);
+        Set<JwtVerifier> verifiers = Collections.newSetFromMap(Collections.synchronizedMap(new IdentityHashMap<>()));
+        ExecutorService threads = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 16; t++) {
+                results.add(threads.submit(() -> {
+                    start.await();
+                    verifiers.add(adapter.verifier());
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+        MatcherAssert.assertThat(verifiers, Matchers.hasSize(1));
+        MatcherAssert.assertThat(adapter.verifier(), Matchers.sameInstance(verifiers.iterator().next()));
+        MatcherAssert.assertThat(adapter.verifier().getAdapter(), Matchers.sameInstance(adapter));
+        String jwt = tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        MatcherAssert.assertThat(Jwt.verify(jwt, adapter).get("sub"), Matchers.is("alice"));
+    }
+
+    @Test
+    public void shouldFallBackToEdDsaWhenParserRejectsItsAlgorithm() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        String jwt = tokens.sign(Tokens.ED25519, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        MatcherAssert.assertThat(verifier.verify(jwt).get("iss"), Matchers.is("issuer"));
+        VerifyException e = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(forge(jwt)));
+        MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(SignatureException.class));
+    }
+
+    @Test
+    public void shouldReportSignatureExceptionOfOtherAlgorithms() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        String forged = forge(tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600))));
+        VerifyException e = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(forged));
+        MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(SignatureException.class));
+        MatcherAssert.assertThat(e.getCause().getMessage(), Matchers.containsString("JWT signature does not match"));
+    }
+
+    @Test
+    public void shouldReturnCopyOfCachedClaimsToEachCaller() throws Exception {
+        RSAJwksAdapter adapter = tokens.adapter();
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, 1, TimeUnit.HOURS, Clock.systemUTC());
+        JwtVerifier verifier = new JwtVerifier(adapter, cache, CompactJws.DEFAULT_MAX_LENGTH, Clock.systemUTC(), 0, false);
+        String jwt = tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+
+        Map<String, Object> first = verifier.verify(jwt);
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.notNullValue());
+        first.put("sub", "mallory");
+        Map<String, Object> second = verifier.verify(jwt);
+        MatcherAssert.assertThat(second.get("sub"), Matchers.is("alice"));
+        MatcherAssert.assertThat(second, Matchers.not(Matchers.sameInstance(first)));
+        MatcherAssert.assertThat(verifier.verify(jwt), Matchers.not(Matchers.sameInstance(second)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldReturnDeepCopyOfCachedClaimsToEachCaller() throws Exception {
+        RSAJwksAdapter adapter = tokens.adapter();
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, 1, TimeUnit.HOURS, Clock.systemUTC());
+        JwtVerifier verifier = new JwtVerifier(adapter, cache, CompactJws.DEFAULT_MAX_LENGTH, Clock.systemUTC(), 0, false);
+        Map<String, Object> claims = Tokens.claims("issuer", Tokens.secondsFromNow(3600));
+        claims.put("aud", Arrays.asList("api", "admin"));
+        claims.put("realm_access", Collections.singletonMap("roles", Arrays.asList("user")));
+        claims.put("resource_access", Collections.singletonMap("api",
+                Collections.singletonMap("roles", Arrays.asList(Collections.singletonMap("name", "reader")))));
+        String jwt = tokens.sign(Tokens.RSA, claims);
+
+        // the caller that verified the token, and then one that got it from the cache, change the nested claims
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> verified = verifier.verify(jwt);
+            ((List<Object>) verified.get("aud")).add("mallory");
+            ((List<Object>) ((Map<String, Object>) verified.get("realm_access")).get("roles")).add("admin");
+            Map<String, Object> api = (Map<String, Object>) ((Map<String, Object>) verified.get("resource_access")).get("api");
+            ((Map<String, Object>) ((List<Object>) api.get("roles")).get(0)).put("name", "writer");
+            MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.notNullValue());
+        }
+
+        Map<String, Object> next = verifier.verify(jwt);
+        MatcherAssert.assertThat(next.get("aud"), Matchers.is(Arrays.asList("api", "admin")));
+        MatcherAssert.assertThat(next.get("realm_access"), Matchers.is(claims.get("realm_access")));
+        MatcherAssert.assertThat(next.get("resource_access"), Matchers.is(claims.get("resource_access")));
+    }
+
+    @Test
+    public void shouldDropCachedTokenOnceExpired() throws Exception {
+        MutableClock clock = new MutableClock(System.currentTimeMillis());
+        RSAJwksAdapter adapter = tokens.adapter();
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, 1, TimeUnit.HOURS, clock);
+        JwtVerifier verifier = new JwtVerifier(adapter, cache, CompactJws.DEFAULT_MAX_LENGTH, clock, 0, false);
+        String jwt = tokens.sign(Tokens.RSA, Tokens.claims("issuer", clock.millis() / 1000 + 60));
+
+        verifier.verify(jwt);
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.notNullValue());
+        clock.advance(TimeUnit.SECONDS.toMillis(61));
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.nullValue());
+        VerifyException e = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(jwt));
+        MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(ExpiredJwtException.class));
+    }
+
+    @Test
+    public void shouldDropCachedTokenAfterMaxTtl() throws Exception {
+        AtomicLong nanos = new AtomicLong();
+        RSAJwksAdapter adapter = tokens.adapter();
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, 1, TimeUnit.MINUTES, Clock.systemUTC(), new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        });
+        JwtVerifier verifier = new JwtVerifier(adapter, cache, CompactJws.DEFAULT_MAX_LENGTH, Clock.systemUTC(), 0, false);
+        String jwt = tokens.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+
+        verifier.verify(jwt);
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(59));
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.notNullValue());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.nullValue());
+        MatcherAssert.assertThat(verifier.verify(jwt).get("sub"), Matchers.is("alice"));
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.notNullValue());
+    }
+
+    @Test
+    public void shouldKeepCachingPastMaxAgeOfSnapshotUntilKeyIsRotated() throws Exception {
+        Tokens rotating = new Tokens();
+        List<Runnable> reloads = new ArrayList<>();
+        // every snapshot is past its max age as soon as it is loaded, and is reloaded only when the test says so
+        UrlJwkProvider provider = new UrlJwkProvider(rotating.jwksUrl(), null, null, 0, 0, TimeUnit.MILLISECONDS, null, reloads::add);
+        RSAJwksAdapter adapter = new RSAJwksAdapter(provider);
+        VerifiedTokenCache cache = new VerifiedTokenCache(100, 1, TimeUnit.HOURS, Clock.systemUTC());
+        JwtVerifier verifier = new JwtVerifier(adapter, cache, CompactJws.DEFAULT_MAX_LENGTH, Clock.systemUTC(), 0, false);
+        String jwt = rotating.sign(Tokens.RSA, Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+
+        verifier.verify(jwt);
+        // the expired snapshot is being reloaded, the key is still compared against it meanwhile
+        MatcherAssert.assertThat(reloads, Matchers.hasSize(1));
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.notNullValue());
+        MatcherAssert.assertThat(verifier.verify(jwt).get("sub"), Matchers.is("alice"));
+        MatcherAssert.assertThat(reloads, Matchers.hasSize(1));
+
+        rotating.publish(Tokens.EC256);
+        runAll(reloads);
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.nullValue());
+        // the key resolved before is still cached by the adapter, but the token is not kept anymore
+        verifier.verify(jwt);
+        runAll(reloads);
+        MatcherAssert.assertThat(cache.get(jwt, adapter), Matchers.nullValue());
+    }
+
+    @Test
+    public void shouldReportResultOfEachTokenInOrderOfBatch() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        String valid = tokens.sign(Tokens.RSA, Tokens.claims("first", Tokens.secondsFromNow(3600)));
+        List<String> jwts = Arrays.asList(
+                valid,
+                tokens.sign(Tokens.EC256, Tokens.claims("second", Tokens.secondsFromNow(3600))),
+                tokens.sign(Tokens.RSA, Tokens.claims("expired", Tokens.secondsFromNow(-60))),
+                "not.a.jwt",
+                forge(valid),
+                tokens.sign(Tokens.EC384, Tokens.claims("sixth", Tokens.secondsFromNow(3600))),
+                valid);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<VerificationResult> results = verifier.verifyAll(jwts, executor);
+            MatcherAssert.assertThat(results, Matchers.hasSize(jwts.size()));
+            MatcherAssert.assertThat(results.get(0).getClaims().get("iss"), Matchers.is("first"));
+            MatcherAssert.assertThat(results.get(1).getClaims().get("iss"), Matchers.is("second"));
+            MatcherAssert.assertThat(results.get(2).getError().getCause(), Matchers.instanceOf(ExpiredJwtException.class));
+            MatcherAssert.assertThat(results.get(3).getError().getCause(), Matchers.instanceOf(MalformedJwtException.class));
+            MatcherAssert.assertThat(results.get(4).getError().getCause(), Matchers.instanceOf(SignatureException.class));
+            MatcherAssert.assertThat(results.get(5).getClaims().get("iss"), Matchers.is("sixth"));
+            MatcherAssert.assertThat(results.get(6).getClaims().get("iss"), Matchers.is("first"));
+            MatcherAssert.assertThat(results.get(6).getError(), Matchers.nullValue());
+            MatcherAssert.assertThat(results.get(2).getClaims(), Matchers.nullValue());
+            MatcherAssert.assertThat(results.get(2).isVerified(), Matchers.is(false));
+            List<VerificationResult> async = verifier.verifyAllAsync(jwts, executor).get();
+            for (int i = 0; i < jwts.size(); i++) {
+                MatcherAssert.assertThat(async.get(i).getClaims(), Matchers.is(results.get(i).getClaims()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldFailOnlyTokensOfUnknownKid() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        List<String> jwts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Map<String, Object> claims = Tokens.claims("issuer" + i, Tokens.secondsFromNow(3600));
+            jwts.add(i % 2 == 0 ? tokens.sign(Tokens.RSA, claims) : tokens.sign("unknown", Tokens.RSA, "RS256", claims));
+        }
+
+        List<VerificationResult> results = verifier.verifyAll(jwts, Runnable::run);
+        for (int i = 0; i < jwts.size(); i++) {
+            VerificationResult result = results.get(i);
+            if (i % 2 == 0) {
+                MatcherAssert.assertThat(result.getClaims().get("iss"), Matchers.is("issuer" + i));
+            } else {
+                MatcherAssert.assertThat(result.isVerified(), Matchers.is(false));
+                MatcherAssert.assertThat(Throwables.getCausalChain(result.getError()),
+                        Matchers.hasItem(Matchers.instanceOf(UnknownKeyIdException.class)));
+            }
+        }
+    }
+
+    @Test
+    public void shouldVerifyBatchLongerThanChunksInOrder() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        // a first token and three full chunks of 64 and a partial one for each kid
+        int size = 1 + 3 * 64 + 7;
+        List<String> jwts = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String kid = i % 3 == 0 ? Tokens.EC256 : Tokens.RSA;
+            long exp = Tokens.secondsFromNow(i % 50 == 49 ? -60 : 3600);
+            jwts.add(tokens.sign(kid, Tokens.claims("issuer" + i, exp)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<VerificationResult> results = verifier.verifyAll(jwts.stream(), executor);
+            MatcherAssert.assertThat(results, Matchers.hasSize(size));
+            for (int i = 0; i < size; i++) {
+                VerificationResult result = results.get(i);
+                if (i % 50 == 49) {
+                    MatcherAssert.assertThat(result.getError().getCause(), Matchers.instanceOf(ExpiredJwtException.class));
+                } else {
+                    MatcherAssert.assertThat(result.getClaims().get("iss"), Matchers.is("issuer" + i));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldVerifyEmptyBatch() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        MatcherAssert.assertThat(verifier.verifyAll(Collections.emptyList(), Runnable::run), Matchers.empty());
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // claim, millis from the time of the claim, skew in seconds, if the token is rejected
+            "exp, -1, 0, false",
+            "exp, 0, 0, false",
+            "exp, 1, 0, true",
+            "exp, 2000, 2, false",
+            "exp, 2001, 2, true",
+            "nbf, 1, 0, false",
+            "nbf, 0, 0, false",
+            "nbf, -1, 0, true",
+            "nbf, -2000, 2, false",
+            "nbf, -2001, 2, true",
+    })
+    public void shouldCheckTimesAlikeBeforeAndAfterSignature(String claim, long offsetMillis, long skewSeconds, boolean rejected) throws Exception {
+        long time = 1500000000L;
+        Map<String, Object> claims = Tokens.claims("issuer", "exp".equals(claim) ? time : time + 3600);
+        claims.put(claim, time);
+        assertTimesCheckedAlike(tokens.sign(Tokens.RSA, claims), claim, time * 1000 + offsetMillis, skewSeconds, rejected);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            // a time with a fraction is truncated to whole seconds by both
+            "exp, 1500000000.9, 0, false",
+            "exp, 1500000000.9, 1, true",
+            "nbf, 1500000000.9, 0, false",
+            "nbf, 1500000001.5, 0, true",
+    })
+    public void shouldTruncateTimesAlikeBeforeAndAfterSignature(String claim, double value, long offsetMillis, boolean rejected) throws Exception {
+        long time = 1500000000L;
+        Map<String, Object> claims = Tokens.claims("issuer", time + 3600);
+        claims.put(claim, value);
+        assertTimesCheckedAlike(tokens.sign(Tokens.RSA, claims), claim, time * 1000 + offsetMillis, 0, rejected);
+    }
+
+    private static void assertTimesCheckedAlike(String jwt, String claim, long nowMillis, long skewSeconds, boolean rejected) throws Exception {
+        Clock clock = Clock.fixed(Instant.ofEpochMilli(nowMillis), ZoneOffset.UTC);
+        for (boolean timeClaimsFirst : new boolean[]{false, true}) {
+            JwtVerifier verifier = new JwtVerifier(tokens.adapter(), null, CompactJws.DEFAULT_MAX_LENGTH, clock, skewSeconds, timeClaimsFirst);
+            if (!rejected) {
+                MatcherAssert.assertThat(verifier.verify(jwt).get("sub"), Matchers.is("alice"));
+                continue;
+            }
+            VerifyException e = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(jwt));
+            Class<?> expected = "exp".equals(claim) ? ExpiredJwtException.class : PrematureJwtException.class;
+            MatcherAssert.assertThat(e.getCause(), Matchers.instanceOf(expected));
+            // the check before the signature is the one that rejected it, not the parser
+            MatcherAssert.assertThat(e.getCause().getMessage().endsWith(", checked before its signature"), Matchers.is(timeClaimsFirst));
+        }
+    }
+
+    private static void runAll(List<Runnable> tasks) {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    /**
+     * @return the token with the payload of another token of the same key, so that its signature does not match
+     */
+    private static String forge(String jwt) {
+        String[] segments = jwt.split("\\.");
+        String[] other = tokens.sign(CompactJws.kid(jwt), Tokens.claims("mallory", Tokens.secondsFromNow(3600))).split("\\.");
+        return segments[0] + "." + other[1] + "." + segments[2];
+    }
+
+    /**
+     * Clock that only moves when the test advances it
+     */
+    static final class MutableClock extends Clock {
+        private volatile long millis;
+
+        MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        void advance(long millis) {
+            this.millis += millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import com.google.common.base.Throwables;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Map;
+
+public class RSAJwksAdapterTest {
+
+    private static Tokens tokens;
+
+    @BeforeAll
+    public static void setUp() throws Exception {
+        tokens = new Tokens();
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "RS256, rsa",
+            "RS384, rsa",
+            "RS512, rsa",
+            "PS256, rsa",
+            "ES256, ec256",
+            "ES384, ec384",
+            "ES512, ec521",
+    })
+    public void shouldAllowAlgorithmOfKey(String algorithm, String kid) {
+        RSAJwksAdapter.checkAlgorithm(algorithm, tokens.publicKey(kid));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "HS256, rsa",
+            "none, rsa",
+            "ES256, rsa",
+            "EdDSA, rsa",
+            "RS256, ec256",
+            "PS256, ec256",
+            "HS256, ec256",
+            "EdDSA, ec256",
+            "ES384, ec256",
+            "ES512, ec256",
+            "ES256, ec384",
+            "ES512, ec384",
+            "ES256, ec521",
+            "ES384, ec521",
+            "ES999, ec256",
+    })
+    public void shouldRejectAlgorithmNotOfKey(String algorithm, String kid) {
+        IllegalStateException thrown = Assertions.assertThrows(IllegalStateException.class,
+                () -> RSAJwksAdapter.checkAlgorithm(algorithm, tokens.publicKey(kid)));
+        MatcherAssert.assertThat(thrown.getMessage(), Matchers.containsString("not allowed"));
+    }
+
+    @Test
+    public void shouldRejectMissingAlgorithm() {
+        Assertions.assertThrows(IllegalStateException.class, () -> RSAJwksAdapter.checkAlgorithm(null, tokens.publicKey(Tokens.RSA)));
+    }
+
+    @Test
+    public void shouldAllowOnlyEdDsaWithEd25519Key() {
+        RSAJwksAdapter.checkAlgorithm("EdDSA", tokens.publicKey(Tokens.ED25519));
+        for (String algorithm : new String[]{"RS256", "PS256", "ES256", "HS256"}) {
+            Assertions.assertThrows(IllegalStateException.class,
+                    () -> RSAJwksAdapter.checkAlgorithm(algorithm, tokens.publicKey(Tokens.ED25519)));
+        }
+    }
+
+    @Test
+    public void shouldVerifyTokensOfEachKeyType() throws Exception {
+        JwtVerifier verifier = new JwtVerifier(tokens.adapter());
+        for (String kid : new String[]{Tokens.RSA, Tokens.EC256, Tokens.EC384, Tokens.EC521}) {
+            Map<String, Object> claims = verifier.verify(tokens.sign(kid, Tokens.claims("issuer", Tokens.secondsFromNow(3600))));
+            MatcherAssert.assertThat(claims.get("sub"), Matchers.is("alice"));
+        }
+    }
+
+    @Test
+    public void shouldRejectHmacTokenSignedWithPublicKey() throws Exception {
+        // the public key of the jwks used as the secret of an HMAC, the classic algorithm confusion
+        String token = tokens.sign(Tokens.RSA, Tokens.RSA, "HS256", Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        assertRejectedAlgorithm(new JwtVerifier(tokens.adapter()), token);
+    }
+
+    @Test
+    public void shouldRejectTokenOfOtherCurve() throws Exception {
+        String token = tokens.sign(Tokens.EC384, Tokens.EC256, "ES256", Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        assertRejectedAlgorithm(new JwtVerifier(tokens.adapter()), token);
+    }
+
+    @Test
+    public void shouldRejectEcTokenWithRsaKid() throws Exception {
+        String token = tokens.sign(Tokens.RSA, Tokens.EC256, "ES256", Tokens.claims("issuer", Tokens.secondsFromNow(3600)));
+        assertRejectedAlgorithm(new JwtVerifier(tokens.adapter()), token);
+    }
+
+    private static void assertRejectedAlgorithm(JwtVerifier verifier, String token) {
+        VerifyException thrown = Assertions.assertThrows(VerifyException.class, () -> verifier.verify(token));
+        Throwable cause = Throwables.getRootCause(thrown);
+        MatcherAssert.assertThat(cause, Matchers.instanceOf(IllegalStateException.class));
+        MatcherAssert.assertThat(cause.getMessage(), Matchers.containsString("not allowed"));
+    }
+}
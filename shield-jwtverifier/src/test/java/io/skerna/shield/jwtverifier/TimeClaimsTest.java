@@ -0,0 +1,159 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.PrematureJwtException;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+
+public class TimeClaimsTest {
+
+    // 1500000000 seconds since the epoch
+    private static final long NOW = 1500000000000L;
+
+    @ParameterizedTest
+    @CsvSource({
+            // exp, skew in millis
+            "1500000000, 0",
+            "1500000001, 0",
+            "1499999999, 1000",
+            "1499999998, 2000",
+            "1499999990, 10000",
+    })
+    public void shouldAcceptTokenNotExpired(long exp, long skewMillis) {
+        TimeClaims.check(token("{\"exp\":" + exp + "}"), NOW, skewMillis);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1499999999, 0",
+            "1499999999, 999",
+            "1499999998, 1999",
+            "0, 0",
+            "-1, 0",
+    })
+    public void shouldRejectExpiredToken(long exp, long skewMillis) {
+        ExpiredJwtException e = Assertions.assertThrows(ExpiredJwtException.class,
+                () -> TimeClaims.check(token("{\"exp\":" + exp + "}"), NOW, skewMillis));
+        MatcherAssert.assertThat(e.getMessage(), Matchers.endsWith(", checked before its signature"));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1500000000, 0",
+            "1499999999, 0",
+            "1500000001, 1000",
+            "1500000010, 10000",
+    })
+    public void shouldAcceptTokenAlreadyValid(long nbf, long skewMillis) {
+        TimeClaims.check(token("{\"nbf\":" + nbf + "}"), NOW, skewMillis);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "1500000001, 0",
+            "1500000001, 999",
+            "1500000011, 10000",
+    })
+    public void shouldRejectTokenNotYetValid(long nbf, long skewMillis) {
+        Assertions.assertThrows(PrematureJwtException.class,
+                () -> TimeClaims.check(token("{\"nbf\":" + nbf + "}"), NOW, skewMillis));
+    }
+
+    @Test
+    public void shouldCheckBothTimesOfToken() {
+        TimeClaims.check(token("{\"nbf\":1499999000,\"sub\":\"alice\",\"exp\":1500001000}"), NOW, 0);
+        Assertions.assertThrows(ExpiredJwtException.class,
+                () -> TimeClaims.check(token("{\"nbf\":1499999000,\"exp\":1499999500}"), NOW, 0));
+        Assertions.assertThrows(PrematureJwtException.class,
+                () -> TimeClaims.check(token("{\"nbf\":1500000500,\"exp\":1500001000}"), NOW, 0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            // truncated to whole seconds, as jjwt does
+            "{\"exp\":1499999999.9}",
+            "{\"exp\":1.4999999999E9}",
+            "{\"exp\":1499999999.0}",
+    })
+    public void shouldTruncateTimeWithFraction(String payload) {
+        Assertions.assertThrows(ExpiredJwtException.class, () -> TimeClaims.check(token(payload), NOW, 0));
+    }
+
+    @Test
+    public void shouldAcceptTimeWithFractionAtBoundary() {
+        TimeClaims.check(token("{\"exp\":1500000000.9}"), NOW, 0);
+        TimeClaims.check(token("{\"nbf\":1500000000.9}"), NOW, 0);
+        Assertions.assertThrows(PrematureJwtException.class,
+                () -> TimeClaims.check(token("{\"nbf\":1500000001.5}"), NOW, 0));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            // nested members are not times of the token
+            "{\"ctx\":{\"exp\":1}}",
+            "{\"ctx\":{\"nbf\":9999999999}}",
+            "{\"ctx\":[{\"exp\":1},{\"nbf\":9999999999}]}",
+            "{\"ctx\":{\"inner\":{\"exp\":1}},\"exp\":1500001000}",
+            // nor names or values that only contain them
+            "{\"expires\":1,\"nbf_\":9999999999}",
+            "{\"sub\":\"exp\",\"aud\":[\"exp\",1]}",
+            // times as strings are left to the parser
+            "{\"exp\":\"1\"}",
+            "{\"exp\":\"2017-07-14T02:40:00Z\"}",
+            // neither times nor numbers
+            "{\"exp\":null,\"nbf\":true}",
+            "{\"exp\":{\"value\":1}}",
+            "{\"exp\":[1]}",
+            // out of range of a long
+            "{\"exp\":99999999999999999999}",
+            "{\"exp\":-1e300}",
+            "{\"exp\":9223372036854775807}",
+            // not an object or not json
+            "[{\"exp\":1}]",
+            "1",
+            "{\"exp\":1",
+            "{\"sub\":}",
+            "",
+    })
+    public void shouldIgnoreMembersThatAreNotTimesOfToken(String payload) {
+        TimeClaims.check(token(payload), NOW, 0);
+    }
+
+    @Test
+    public void shouldIgnorePayloadThatIsNotBase64Url() {
+        TimeClaims.check("eyJhbGciOiJSUzI1NiJ9.e.c2ln", NOW, 0);
+    }
+
+    private static String token(String payload) {
+        return "eyJhbGciOiJSUzI1NiJ9." + Tokens.base64Url(payload.getBytes(StandardCharsets.UTF_8)) + ".c2ln";
+    }
+}
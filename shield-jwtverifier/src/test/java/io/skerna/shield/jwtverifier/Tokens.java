@@ -0,0 +1,229 @@
+/*
+ * Copyright (c)  2019  SKERNA
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.skerna.shield.jwtverifier;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.io.JacksonSerializer;
+import io.jsonwebtoken.io.Serializer;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Generated RSA, EC and Ed25519 keys, a jwks file with their public keys that the adapters load from, and tokens
+ * signed with them.
+ */
+final class Tokens {
+    static final String RSA = "rsa";
+    static final String EC256 = "ec256";
+    static final String EC384 = "ec384";
+    static final String EC521 = "ec521";
+    static final String ED25519 = "ed25519";
+
+    private static final Serializer<Map<String, ?>> JSON = new JacksonSerializer<>();
+
+    private final Map<String, KeyPair> keys = new LinkedHashMap<>();
+    private final Path jwks;
+
+    Tokens() throws GeneralSecurityException, IOException {
+        final KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(2048);
+        keys.put(RSA, rsa.generateKeyPair());
+        keys.put(EC256, ecKeyPair("secp256r1"));
+        keys.put(EC384, ecKeyPair("secp384r1"));
+        keys.put(EC521, ecKeyPair("secp521r1"));
+        keys.put(ED25519, KeyPairGenerator.getInstance("Ed25519").generateKeyPair());
+        jwks = Files.createTempFile("jwks", ".json");
+        jwks.toFile().deleteOnExit();
+        publish(keys.keySet().toArray(new String[0]));
+    }
+
+    private static KeyPair ecKeyPair(String curve) throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curve));
+        return generator.generateKeyPair();
+    }
+
+    URL jwksUrl() throws IOException {
+        return jwks.toUri().toURL();
+    }
+
+    RSAJwksAdapter adapter() throws IOException {
+        return new RSAJwksAdapter(jwksUrl(), null, null);
+    }
+
+    PublicKey publicKey(String kid) {
+        return keys.get(kid).getPublic();
+    }
+
+    PrivateKey privateKey(String kid) {
+        return keys.get(kid).getPrivate();
+    }
+
+    /**
+     * Writes a jwks with only the public keys of the given kids, as after a key rotation
+     */
+    void publish(String... kids) throws IOException {
+        final StringJoiner json = new StringJoiner(",", "{\"keys\":[", "]}");
+        for (String kid : kids) {
+            json.add(jwk(kid, keys.get(kid).getPublic()));
+        }
+        Files.write(jwks, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String jwk(String kid, PublicKey key) {
+        if (key instanceof RSAPublicKey) {
+            final RSAPublicKey rsa = (RSAPublicKey) key;
+            return "{\"kid\":\"" + kid + "\",\"kty\":\"RSA\",\"use\":\"sig\",\"n\":\"" + base64Url(unsigned(rsa.getModulus(), 0))
+                    + "\",\"e\":\"" + base64Url(unsigned(rsa.getPublicExponent(), 0)) + "\"}";
+        }
+        if (key instanceof ECPublicKey) {
+            final ECPublicKey ec = (ECPublicKey) key;
+            final int fieldSize = ec.getParams().getCurve().getField().getFieldSize();
+            final int length = (fieldSize + 7) / 8;
+            final String crv = fieldSize == 521 ? "P-521" : "P-" + fieldSize;
+            return "{\"kid\":\"" + kid + "\",\"kty\":\"EC\",\"use\":\"sig\",\"crv\":\"" + crv
+                    + "\",\"x\":\"" + base64Url(unsigned(ec.getW().getAffineX(), length))
+                    + "\",\"y\":\"" + base64Url(unsigned(ec.getW().getAffineY(), length)) + "\"}";
+        }
+        final byte[] encoded = key.getEncoded();
+        return "{\"kid\":\"" + kid + "\",\"kty\":\"OKP\",\"use\":\"sig\",\"crv\":\"Ed25519\",\"x\":\""
+                + base64Url(Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length)) + "\"}";
+    }
+
+    /**
+     * Signs the claims with the key of the kid and the alg of its type
+     */
+    String sign(String kid, Map<String, ?> claims) {
+        return sign(kid, kid, algorithm(kid), claims);
+    }
+
+    /**
+     * Signs the claims with the key of signingKid, naming the given kid and alg in the header
+     */
+    String sign(String kid, String signingKid, String alg, Map<String, ?> claims) {
+        if (EdDsaJws.ALGORITHM.equals(alg)) {
+            return signEdDsa(kid, keys.get(signingKid).getPrivate(), claims);
+        }
+        final SignatureAlgorithm algorithm = SignatureAlgorithm.forName(alg);
+        final Key key = algorithm.isHmac()
+                ? new SecretKeySpec(keys.get(signingKid).getPublic().getEncoded(), algorithm.getJcaName())
+                : keys.get(signingKid).getPrivate();
+        return Jwts.builder()
+                .setHeaderParam("kid", kid)
+                .addClaims(new LinkedHashMap<>(claims))
+                .signWith(key, algorithm)
+                .compact();
+    }
+
+    private static String signEdDsa(String kid, Key key, Map<String, ?> claims) {
+        final Map<String, Object> header = new LinkedHashMap<>();
+        header.put("alg", EdDsaJws.ALGORITHM);
+        header.put("kid", kid);
+        final String content = base64Url(JSON.serialize(header)) + "." + base64Url(JSON.serialize(claims));
+        return content + "." + base64Url(signEd25519(key, content.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    static byte[] signEd25519(Key key, byte[] content) {
+        try {
+            final Signature signature = Signature.getInstance("Ed25519");
+            signature.initSign((PrivateKey) key);
+            signature.update(content);
+            return signature.sign();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String algorithm(String kid) {
+        switch (kid) {
+            case RSA:
+                return "RS256";
+            case EC256:
+                return "ES256";
+            case EC384:
+                return "ES384";
+            case EC521:
+                return "ES512";
+            default:
+                return EdDsaJws.ALGORITHM;
+        }
+    }
+
+    /**
+     * @return the claims of a token of the given issuer that expires at the given time, in seconds
+     */
+    static Map<String, Object> claims(String issuer, long expSeconds) {
+        final Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put("iss", issuer);
+        claims.put("sub", "alice");
+        claims.put("exp", expSeconds);
+        return claims;
+    }
+
+    /**
+     * @return the time in seconds since the epoch the given number of seconds from now, negative for the past
+     */
+    static long secondsFromNow(long seconds) {
+        return System.currentTimeMillis() / 1000 + seconds;
+    }
+
+    static String base64Url(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static byte[] unsigned(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        if (bytes.length >= length) {
+            return bytes;
+        }
+        final byte[] padded = new byte[length];
+        System.arraycopy(bytes, 0, padded, length - bytes.length, bytes.length);
+        return padded;
+    }
+}